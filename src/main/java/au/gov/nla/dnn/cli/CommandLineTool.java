@@ -6,6 +6,8 @@ import java.nio.file.Files;
 import org.json.JSONObject;
 
 import au.gov.nla.dnn.inference.InferenceServer;
+import au.gov.nla.dnn.inference.bulk.BulkInferenceExecution;
+import au.gov.nla.dnn.quantization.QuantizationExecution;
 import au.gov.nla.dnn.training.TrainingExecution;
 
 public class CommandLineTool
@@ -27,6 +29,28 @@ public class CommandLineTool
                     
                     break;
                 }
+                case "-infer":
+                {
+                    if(args.length==3)
+                    {
+                        BulkInferenceExecution execution = new BulkInferenceExecution();
+                        execution.execute(loadConfig(args[1]), args[2]);
+                        return;
+                    }
+                    
+                    break;
+                }
+                case "-quantize":
+                {
+                    if(args.length==4)
+                    {
+                        QuantizationExecution execution = new QuantizationExecution();
+                        execution.execute(loadConfig(args[1]), args[2], args[3]);
+                        return;
+                    }
+                    
+                    break;
+                }
                 case "-train":
                 {
                     if(args.length==5)
@@ -44,6 +68,8 @@ public class CommandLineTool
         System.out.println("Usage: (either)");
         System.out.println("-train <training-config-file> <temp-directory> <model-dest-file> <eval-dest-file>");
         System.out.println("-inference-server <server-config-file>");
+        System.out.println("-infer <bulk-inference-config-file> <output-file>");
+        System.out.println("-quantize <quantization-config-file> <model-dest-file> <eval-dest-file>");
         System.exit(1);
     }
     
@@ -0,0 +1,102 @@
+package au.gov.nla.dnn.inference;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import au.gov.nla.dnn.inference.metrics.Counter;
+import au.gov.nla.dnn.inference.metrics.Histogram;
+import au.gov.nla.dnn.inference.metrics.MetricsRegistry;
+import au.gov.nla.dnn.inference.metrics.ModelMetrics;
+
+public class AdmissionController
+{
+    private String modelId;
+    private int maxQueued;
+    private int parallelism;
+    private AtomicInteger inFlight;
+    private ModelMetrics modelMetrics;
+    private Counter rejectedOverloaded;
+    private Counter rejectedExpired;
+    
+    public AdmissionController(String modelId, int maxQueued, int parallelism, ModelMetrics modelMetrics, MetricsRegistry metrics)
+    {
+        this.modelId = modelId;
+        this.maxQueued = maxQueued;
+        this.parallelism = Math.max(parallelism, 1);
+        this.inFlight = new AtomicInteger();
+        this.modelMetrics = modelMetrics;
+        this.rejectedOverloaded = metrics.counter("dnn_inference_rejected_total", 
+                "Requests rejected before featurisation because the model was overloaded or the client deadline had passed.", 
+                "model", modelId, "reason", "overloaded");
+        this.rejectedExpired = metrics.counter("dnn_inference_rejected_total", 
+                "Requests rejected before featurisation because the model was overloaded or the client deadline had passed.", 
+                "model", modelId, "reason", "deadline");
+    }
+    
+    // Deadlines are System.nanoTime() values, 0 means the client has no deadline
+    
+    public void admit(long deadlineNanos) throws OverloadedException
+    {
+        long now = System.nanoTime();
+        checkDeadline(deadlineNanos, now);
+        
+        int position = inFlight.incrementAndGet();
+        
+        if(maxQueued>0 && position>maxQueued+parallelism)
+        {
+            inFlight.decrementAndGet();
+            rejectedOverloaded.increment();
+            throw new OverloadedException("Model ["+modelId+"] has too many queued requests.");
+        }
+        
+        // Requests ahead of this one drain in parallel across the replicas, then this one is served
+        
+        long projectedWait = (((position-1)/parallelism)+1)*getServiceTimeNanos();
+        
+        if(deadlineNanos!=0 && (now+projectedWait)-deadlineNanos>0)
+        {
+            inFlight.decrementAndGet();
+            rejectedOverloaded.increment();
+            throw new OverloadedException("Model ["+modelId+"] cannot serve the request before its deadline.");
+        }
+    }
+    
+    // For admitted requests which waited before starting, the caller still has to complete() when this throws
+    
+    public void checkDeadline(long deadlineNanos) throws OverloadedException
+    {
+        checkDeadline(deadlineNanos, System.nanoTime());
+    }
+    
+    private void checkDeadline(long deadlineNanos, long now) throws OverloadedException
+    {
+        if(deadlineNanos!=0 && now-deadlineNanos>=0)
+        {
+            rejectedExpired.increment();
+            throw new OverloadedException("Deadline expired before model ["+modelId+"] could start the request.");
+        }
+    }
+    
+    public void complete()
+    {
+        inFlight.decrementAndGet();
+    }
+    
+    private long getServiceTimeNanos()
+    {
+        // Mean featurisation time plus the forward pass time per record, which already accounts for batching.
+        // Waiting time is excluded so the estimate does not grow with the queue it is used to judge.
+        
+        Histogram featurisation = modelMetrics.getFeaturisationTime();
+        Histogram forwardPass = modelMetrics.getForwardPassTime();
+        long records = modelMetrics.getBatchSize().getSum();
+        
+        long featurisationNanos = featurisation.getCount()==0 ? 0 : featurisation.getSum()/featurisation.getCount();
+        long forwardPassNanos = records==0 ? 0 : forwardPass.getSum()/records;
+        
+        return featurisationNanos+forwardPassNanos;
+    }
+    
+    public int getInFlight()
+    {
+        return inFlight.get();
+    }
+}
@@ -0,0 +1,324 @@
+package au.gov.nla.dnn.inference;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import au.gov.nla.dnn.inference.metrics.ModelMetrics;
+import au.gov.nla.dnn.model.ModelInstance;
+import au.gov.nla.dnn.sequence.SequenceDataRecord;
+
+public class InferenceBatchScheduler
+{
+    private static final long IDLE_POLL_MILLIS = 100;
+    private static final long REPORT_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+    
+    private String modelId;
+    private ModelReplicaPool pool;
+    private int maxBatchSize;
+    private long maxWaitNanos;
+    private Consumer<Exception> errorHandler;
+    
+    private LinkedBlockingQueue<PendingInference> queue;
+    private ExecutorService dispatcher;
+    private ExecutorService workers;
+    private volatile boolean stopped;
+    
+    private ModelMetrics metrics;
+    private AtomicLong lastReport;
+    
+    public InferenceBatchScheduler(String modelId, ModelReplicaPool pool, int maxBatchSize, long maxWaitNanos, ModelMetrics metrics, Consumer<Exception> errorHandler)
+    {
+        this.modelId = modelId;
+        this.pool = pool;
+        this.maxBatchSize = Math.max(maxBatchSize, 1);
+        this.maxWaitNanos = Math.max(maxWaitNanos, 0);
+        this.errorHandler = errorHandler;
+        this.queue = new LinkedBlockingQueue<PendingInference>();
+        this.metrics = metrics;
+        this.lastReport = new AtomicLong(System.nanoTime());
+        
+        // A single dispatcher gathers every batch and hands it to a worker per replica, so every replica can be running
+        // a batch while the next one is gathered, without several dispatchers each gathering a fraction of the queue
+        
+        workers = Executors.newFixedThreadPool(pool.getSize());
+        dispatcher = Executors.newSingleThreadExecutor();
+        dispatcher.execute(new Runnable(){
+            public void run()
+            {
+                dispatch();
+            }
+        });
+    }
+    
+    public double[] infer(SequenceDataRecord record, long deadlineNanos) throws Exception
+    {
+        try
+        {
+            return inferAsync(record, deadlineNanos).get();
+        }
+        catch(ExecutionException e)
+        {
+            if(e.getCause() instanceof Exception)
+            {
+                throw (Exception)e.getCause();
+            }
+            
+            throw e;
+        }
+    }
+    
+    public CompletableFuture<double[]> inferAsync(SequenceDataRecord record, long deadlineNanos)
+    {
+        PendingInference pending = new PendingInference(record, deadlineNanos);
+        queue.add(pending);
+        
+        // The dispatcher exits once stopped and drained, so reclaim anything enqueued after that and run it directly
+        
+        if(stopped && queue.remove(pending))
+        {
+            try
+            {
+                execute(List.of(pending), pool.checkout());
+            }
+            catch(InterruptedException e)
+            {
+                pending.getResult().completeExceptionally(e);
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        return pending.getResult();
+    }
+    
+    private void dispatch()
+    {
+        try
+        {
+            while(!stopped || !queue.isEmpty())
+            {
+                PendingInference first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                
+                if(first==null)
+                {
+                    continue;
+                }
+                
+                // Fill the batch only once a replica is free, so while every replica is busy the queue builds into the next batch
+                
+                ModelInstance replica = pool.checkout();
+                List<PendingInference> batch = gather(first);
+                
+                try
+                {
+                    workers.execute(new Runnable(){
+                        public void run()
+                        {
+                            execute(batch, replica);
+                        }
+                    });
+                }
+                catch(RejectedExecutionException e)
+                {
+                    execute(batch, replica);
+                }
+            }
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private List<PendingInference> gather(PendingInference first)
+    {
+        // The wait runs from when the first request arrived, time spent waiting for a replica counts towards it
+        
+        List<PendingInference> batch = new ArrayList<PendingInference>(maxBatchSize);
+        batch.add(first);
+        long deadline = first.getEnqueueTime()+maxWaitNanos;
+        
+        while(batch.size()<maxBatchSize)
+        {
+            long remaining = deadline-System.nanoTime();
+            PendingInference next = null;
+            
+            try
+            {
+                next = remaining>0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+            }
+            catch(InterruptedException e)
+            {
+                // Still run what was gathered, the dispatcher exits at its next wait
+                Thread.currentThread().interrupt();
+            }
+            if(next==null)
+            {
+                break;
+            }
+            
+            batch.add(next);
+        }
+        
+        return batch;
+    }
+    
+    private void execute(List<PendingInference> batch, ModelInstance replica)
+    {
+        // Drop requests whose client deadline passed while they were queued, nobody is waiting for the answer
+        
+        long now = System.nanoTime();
+        List<PendingInference> live = new ArrayList<PendingInference>(batch.size());
+        
+        for(PendingInference pending: batch)
+        {
+            if(pending.getDeadline()!=0 && now-pending.getDeadline()>=0)
+            {
+                pending.getResult().completeExceptionally(new OverloadedException("Deadline expired while waiting for a batch of model ["+modelId+"]."));
+            }
+            else
+            {
+                live.add(pending);
+            }
+        }
+        if(live.isEmpty())
+        {
+            pool.release(replica);
+            return;
+        }
+        
+        batch = live;
+        SequenceDataRecord[] records = new SequenceDataRecord[batch.size()];
+        
+        for(int i=0; i<batch.size(); i++)
+        {
+            records[i] = batch.get(i).getRecord();
+            metrics.getQueueWaitTime().recordSince(batch.get(i).getEnqueueTime());
+        }
+        
+        try
+        {
+            double[][] results;
+            
+            try
+            {
+                results = pool.inferBatch(replica, records);
+            }
+            finally
+            {
+                pool.release(replica);
+            }
+            
+            for(int i=0; i<batch.size(); i++)
+            {
+                batch.get(i).getResult().complete(results[i]);
+            }
+        }
+        catch(Exception e)
+        {
+            for(PendingInference pending: batch)
+            {
+                pending.getResult().completeExceptionally(e);
+            }
+        }
+        
+        reportBatches();
+    }
+    
+    private void reportBatches()
+    {
+        long now = System.nanoTime();
+        long last = lastReport.get();
+        
+        if(now-last>=REPORT_INTERVAL_NANOS && lastReport.compareAndSet(last, now))
+        {
+            System.out.println("[InferenceBatchScheduler] Model ["+modelId+"] batches: "+getBatchCount()
+                    +", rows: "+getRowCount()+", mean batch size: "+getMeanBatchSize());
+        }
+    }
+    
+    public long getBatchCount()
+    {
+        return metrics.getBatchSize().getCount();
+    }
+    
+    public long getRowCount()
+    {
+        return metrics.getBatchSize().getSum();
+    }
+    
+    public double getMeanBatchSize()
+    {
+        long batches = getBatchCount();
+        return batches==0 ? 0d : ((double)getRowCount())/((double)batches);
+    }
+    
+    public int getMaxBatchSize()
+    {
+        return maxBatchSize;
+    }
+    
+    public void dispose()
+    {
+        if(!stopped)
+        {
+            stopped = true;
+            dispatcher.shutdown();
+            
+            try
+            {
+                dispatcher.awaitTermination(IDLE_POLL_MILLIS*10, TimeUnit.MILLISECONDS);
+                workers.shutdown();
+                workers.awaitTermination(IDLE_POLL_MILLIS*10, TimeUnit.MILLISECONDS);
+            }
+            catch(InterruptedException e)
+            {
+                errorHandler.accept(e);
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+    
+    private static class PendingInference
+    {
+        private SequenceDataRecord record;
+        private CompletableFuture<double[]> result;
+        private long enqueueTime;
+        private long deadline;
+        
+        private PendingInference(SequenceDataRecord record, long deadline)
+        {
+            this.record = record;
+            this.result = new CompletableFuture<double[]>();
+            this.enqueueTime = System.nanoTime();
+            this.deadline = deadline;
+        }
+        
+        private long getDeadline()
+        {
+            return deadline;
+        }
+        
+        private long getEnqueueTime()
+        {
+            return enqueueTime;
+        }
+        
+        private SequenceDataRecord getRecord()
+        {
+            return record;
+        }
+        
+        private CompletableFuture<double[]> getResult()
+        {
+            return result;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package au.gov.nla.dnn.inference;
+
+import java.nio.charset.StandardCharsets;
+
+import org.json.JSONObject;
+
+public class InferenceLabels
+{
+    private String[] labels;
+    private byte[][] encodedLabels;
+    
+    public InferenceLabels(String[] labels)
+    {
+        // Labels are quoted and encoded once per model so responses can be written without per-request string handling
+        
+        this.labels = labels;
+        this.encodedLabels = new byte[labels.length][];
+        
+        for(int i=0; i<labels.length; i++)
+        {
+            encodedLabels[i] = JSONObject.quote(labels[i]).getBytes(StandardCharsets.UTF_8);
+        }
+    }
+    
+    public int size()
+    {
+        return labels.length;
+    }
+    
+    public String getLabel(int index)
+    {
+        return labels[index];
+    }
+    
+    public String[] getLabels()
+    {
+        return labels;
+    }
+    
+    public byte[] getEncodedLabel(int index)
+    {
+        return encodedLabels[index];
+    }
+}
@@ -0,0 +1,175 @@
+package au.gov.nla.dnn.inference;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import au.gov.nla.dnn.inference.metrics.ModelMetrics;
+import au.gov.nla.dnn.record.RawDataRecord;
+import au.gov.nla.dnn.sequence.InputSequenceInstance;
+import au.gov.nla.dnn.sequence.SequenceDataRecord;
+
+public class InferenceModel
+{
+    private static final int DEFAULT_BATCH_SIZE = 32;
+    private static final AtomicLong GENERATIONS = new AtomicLong();
+    
+    private long generation;
+    private ModelReplicaPool pool;
+    private InferenceBatchScheduler scheduler;
+    private InputSequenceInstance sequence;
+    private InferenceLabels labels;
+    private ExecutorService executionService;
+    
+    private ModelMetrics metrics;
+    
+    public InferenceModel(ModelReplicaPool pool, InferenceBatchScheduler scheduler, InputSequenceInstance sequence, String[] labels, ModelMetrics metrics)
+    {
+        this.generation = GENERATIONS.incrementAndGet();
+        this.pool = pool;
+        this.scheduler = scheduler;
+        this.sequence = sequence;
+        this.labels = new InferenceLabels(labels);
+        this.metrics = metrics;
+        
+        // Forward passes for asynchronous callers without micro-batching, one thread per replica so none wait for a replica
+        
+        if(scheduler==null)
+        {
+            this.executionService = Executors.newFixedThreadPool(pool.getSize());
+        }
+    }
+    
+    public SequenceDataRecord featurise(byte[] record) throws Exception
+    {
+        long start = System.nanoTime();
+        SequenceDataRecord features = sequence.process(new RawDataRecord(record, new double[labels.size()]));
+        metrics.getFeaturisationTime().recordSince(start);
+        return features;
+    }
+    
+    public double[] infer(SequenceDataRecord features) throws Exception
+    {
+        return infer(features, 0);
+    }
+    
+    public double[] infer(SequenceDataRecord features, long deadlineNanos) throws Exception
+    {
+        if(scheduler!=null)
+        {
+            return scheduler.infer(features, deadlineNanos);
+        }
+        
+        return pool.infer(features);
+    }
+    
+    // The returned future completes on a model thread, so callers should not do blocking work in its callbacks
+    
+    public CompletableFuture<double[]> inferAsync(SequenceDataRecord features, long deadlineNanos)
+    {
+        if(scheduler!=null)
+        {
+            return scheduler.inferAsync(features, deadlineNanos);
+        }
+        
+        CompletableFuture<double[]> result = new CompletableFuture<double[]>();
+        Runnable forwardPass = new Runnable(){
+            public void run()
+            {
+                try
+                {
+                    result.complete(pool.infer(features));
+                }
+                catch(Exception e)
+                {
+                    result.completeExceptionally(e);
+                }
+            }
+        };
+        
+        try
+        {
+            executionService.execute(forwardPass);
+        }
+        catch(RejectedExecutionException e)
+        {
+            // The model was replaced or evicted after this request fetched it, the replicas still work so run it here
+            
+            forwardPass.run();
+        }
+        
+        return result;
+    }
+    
+    public double[][] inferBatch(SequenceDataRecord[] features) throws Exception
+    {
+        // Callers have already batched, so bypass the scheduler but keep each forward pass to a bounded size
+        
+        int batchSize = scheduler==null ? DEFAULT_BATCH_SIZE : scheduler.getMaxBatchSize();
+        double[][] results = new double[features.length][];
+        
+        for(int offset=0; offset<features.length; offset+=batchSize)
+        {
+            int end = Math.min(offset+batchSize, features.length);
+            System.arraycopy(pool.inferBatch(Arrays.copyOfRange(features, offset, end)), 0, results, offset, end-offset);
+        }
+        
+        return results;
+    }
+    
+    public InferenceResult createResult(double[] result)
+    {
+        return new InferenceResult(labels, result);
+    }
+    
+    public long getMemoryFootprint()
+    {
+        return pool.getMemoryFootprint()+sequence.getMemoryFootprint();
+    }
+    
+    public void dispose()
+    {
+        if(scheduler!=null)
+        {
+            scheduler.dispose();
+        }
+        if(executionService!=null)
+        {
+            // Queued forward passes still run, and later ones run on the caller (see inferAsync), the model is only replaced, not broken
+            
+            executionService.shutdown();
+        }
+    }
+
+    public long getGeneration()
+    {
+        return generation;
+    }
+
+    public ModelMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    public ModelReplicaPool getPool()
+    {
+        return pool;
+    }
+    
+    public InferenceBatchScheduler getScheduler()
+    {
+        return scheduler;
+    }
+
+    public InputSequenceInstance getSequence()
+    {
+        return sequence;
+    }
+    
+    public String[] getLabels()
+    {
+        return labels.getLabels();
+    }
+}
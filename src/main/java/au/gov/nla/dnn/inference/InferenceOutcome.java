@@ -0,0 +1,77 @@
+package au.gov.nla.dnn.inference;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import org.json.JSONObject;
+
+public class InferenceOutcome
+{
+    private InferenceResult result;
+    private Exception exception;
+    
+    public InferenceOutcome(InferenceResult result)
+    {
+        this.result = result;
+    }
+    
+    public InferenceOutcome(Exception exception)
+    {
+        this.exception = exception;
+    }
+    
+    // For the arguments of a CompletableFuture callback, which may wrap the original exception
+    
+    public static InferenceOutcome of(InferenceResult result, Throwable t)
+    {
+        if(t==null)
+        {
+            return new InferenceOutcome(result);
+        }
+        
+        while((t instanceof CompletionException || t instanceof ExecutionException) && t.getCause()!=null)
+        {
+            t = t.getCause();
+        }
+        
+        return new InferenceOutcome(t instanceof Exception ? (Exception)t : new Exception(t));
+    }
+    
+    public boolean isSuccess()
+    {
+        return exception==null;
+    }
+
+    public InferenceResult getResult()
+    {
+        return result;
+    }
+
+    public Exception getException()
+    {
+        return exception;
+    }
+    
+    public JSONObject toJSON()
+    {
+        JSONObject response = new JSONObject();
+        
+        if(isSuccess())
+        {
+            response.put("success", true);
+            response.put("result", result.toJSON());
+        }
+        else
+        {
+            response.put("success", false);
+            
+            if(exception instanceof OverloadedException)
+            {
+                response.put("overloaded", true);
+            }
+            
+            response.put("exception", exception.getClass().getName()+": "+exception.getMessage());
+        }
+        
+        return response;
+    }
+}
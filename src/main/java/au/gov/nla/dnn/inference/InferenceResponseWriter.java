@@ -0,0 +1,337 @@
+package au.gov.nla.dnn.inference;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class InferenceResponseWriter
+{
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+    private static final int MAX_RETAINED_BUFFER_SIZE = 1024*1024;
+    private static final int MAX_POOLED_WRITERS = 256;
+    private static final int SIGNIFICANT_DIGITS = 9; // enough to round-trip the single precision scores models produce
+    
+    private static final byte[] SUCCESS_PREFIX = "{\"success\":true,\"result\":{\"highest-label\":".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HIGHEST_CONFIDENCE = ",\"highest-confidence\":".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SCORES = ",\"scores\":[".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SUCCESS_SUFFIX = "]}}".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] RECORD_PREFIX = "{\"record\":".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] RESPONSE = ",\"response\":".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+    
+    // A shared pool rather than one writer per thread, virtual threads are never reused so would allocate every time
+    
+    private static final ConcurrentLinkedQueue<InferenceResponseWriter> POOL = new ConcurrentLinkedQueue<InferenceResponseWriter>();
+    private static final AtomicInteger POOLED = new AtomicInteger();
+    
+    private byte[] buffer;
+    private int length;
+    private int[] ranking;
+    private byte[] digits;
+    
+    private InferenceResponseWriter()
+    {
+        this.buffer = new byte[INITIAL_BUFFER_SIZE];
+        this.ranking = new int[0];
+        this.digits = new byte[SIGNIFICANT_DIGITS];
+    }
+    
+    // Returns an empty writer from the pool. Once its contents are written out, release() hands the buffer to
+    // the next acquire, a writer that is never released is simply left to the garbage collector.
+    
+    public static InferenceResponseWriter acquire()
+    {
+        InferenceResponseWriter writer = POOL.poll();
+        
+        if(writer==null)
+        {
+            return new InferenceResponseWriter();
+        }
+        
+        POOLED.decrementAndGet();
+        writer.length = 0;
+        return writer;
+    }
+    
+    public void release()
+    {
+        if(buffer.length>MAX_RETAINED_BUFFER_SIZE)
+        {
+            buffer = new byte[INITIAL_BUFFER_SIZE];
+        }
+        if(POOLED.incrementAndGet()<=MAX_POOLED_WRITERS)
+        {
+            POOL.offer(this);
+        }
+        else
+        {
+            POOLED.decrementAndGet();
+        }
+    }
+    
+    public InferenceResponseWriter writeOutcome(InferenceOutcome outcome, int topK, double minScore)
+    {
+        if(outcome.isSuccess())
+        {
+            return writeSuccess(outcome.getResult(), topK, minScore);
+        }
+        
+        return writeFailure(outcome.getException());
+    }
+    
+    // Wraps an outcome with the position of its record, for bulk output where records have no other identity
+    
+    public InferenceResponseWriter writeRecordOutcome(long record, InferenceOutcome outcome, int topK, double minScore)
+    {
+        write(RECORD_PREFIX);
+        write(Long.toString(record).getBytes(StandardCharsets.US_ASCII));
+        write(RESPONSE);
+        writeOutcome(outcome, topK, minScore);
+        write((byte)'}');
+        return this;
+    }
+    
+    // Writes the same document as InferenceResult.toJSON() wrapped in a success response. Scores are
+    // in label order, or in descending score order when only the top K are requested.
+    
+    public InferenceResponseWriter writeSuccess(InferenceResult result, int topK, double minScore)
+    {
+        InferenceLabels labels = result.getLabels();
+        double[] scores = result.getScoreArray();
+        
+        write(SUCCESS_PREFIX);
+        write(labels.getEncodedLabel(result.getHighestIndex()));
+        write(HIGHEST_CONFIDENCE);
+        writeNumber(result.getHighestConfidence());
+        write(SCORES);
+        
+        int count = topK>0 ? rank(scores, Math.min(topK, scores.length)) : scores.length;
+        boolean first = true;
+        
+        for(int i=0; i<count; i++)
+        {
+            int index = topK>0 ? ranking[i] : i;
+            
+            if(scores[index]<minScore)
+            {
+                continue;
+            }
+            if(!first)
+            {
+                write((byte)',');
+            }
+            
+            write((byte)'{');
+            write(labels.getEncodedLabel(index));
+            write((byte)':');
+            writeNumber(scores[index]);
+            write((byte)'}');
+            first = false;
+        }
+        
+        write(SUCCESS_SUFFIX);
+        return this;
+    }
+    
+    public InferenceResponseWriter writeFailure(Exception e)
+    {
+        write(new InferenceOutcome(e).toJSON().toString().getBytes(StandardCharsets.UTF_8));
+        return this;
+    }
+    
+    public InferenceResponseWriter writeNewline()
+    {
+        write((byte)'\n');
+        return this;
+    }
+    
+    public byte[] getBuffer()
+    {
+        return buffer;
+    }
+    
+    public int getLength()
+    {
+        return length;
+    }
+    
+    public void writeTo(OutputStream out) throws IOException
+    {
+        out.write(buffer, 0, length);
+    }
+    
+    private int rank(double[] scores, int topK)
+    {
+        // Insertion into a K sized ranking, label sets are small enough that this beats sorting
+        
+        if(ranking.length<topK)
+        {
+            ranking = new int[topK];
+        }
+        
+        int count = 0;
+        
+        for(int i=0; i<scores.length; i++)
+        {
+            if(count==topK && scores[i]<=scores[ranking[count-1]])
+            {
+                continue;
+            }
+            
+            int position = count==topK ? count-1 : count++;
+            
+            while(position>0 && scores[ranking[position-1]]<scores[i])
+            {
+                ranking[position] = ranking[position-1];
+                position--;
+            }
+            
+            ranking[position] = i;
+        }
+        
+        return count;
+    }
+    
+    private void writeNumber(double value)
+    {
+        if(Double.isNaN(value) || Double.isInfinite(value))
+        {
+            write(NULL);
+            return;
+        }
+        if(value==0d)
+        {
+            write((byte)'0');
+            return;
+        }
+        if(value<0d)
+        {
+            write((byte)'-');
+            value = -value;
+        }
+        
+        // Reduce to SIGNIFICANT_DIGITS decimal digits and a base 10 exponent, correcting for log10 rounding at the edges
+        
+        int exponent = (int)Math.floor(Math.log10(value));
+        long significand = getSignificand(value, exponent);
+        
+        if(significand>=1000000000L)
+        {
+            exponent++;
+            significand = getSignificand(value, exponent);
+        }
+        else if(significand<100000000L)
+        {
+            exponent--;
+            significand = getSignificand(value, exponent);
+        }
+        
+        int digitCount = SIGNIFICANT_DIGITS;
+        
+        while(digitCount>1 && significand%10==0)
+        {
+            significand = significand/10;
+            digitCount--;
+        }
+        for(int i=digitCount-1; i>=0; i--)
+        {
+            digits[i] = (byte)('0'+(significand%10));
+            significand = significand/10;
+        }
+        
+        if(exponent>=0 && exponent<7)
+        {
+            for(int i=0; i<=exponent; i++)
+            {
+                write(i<digitCount ? digits[i] : (byte)'0');
+            }
+            if(digitCount>exponent+1)
+            {
+                write((byte)'.');
+                write(digits, exponent+1, digitCount-(exponent+1));
+            }
+        }
+        else if(exponent<0 && exponent>=-3)
+        {
+            write((byte)'0');
+            write((byte)'.');
+            
+            for(int i=-1; i>exponent; i--)
+            {
+                write((byte)'0');
+            }
+            
+            write(digits, 0, digitCount);
+        }
+        else
+        {
+            write(digits[0]);
+            
+            if(digitCount>1)
+            {
+                write((byte)'.');
+                write(digits, 1, digitCount-1);
+            }
+            
+            write((byte)'E');
+            writeInteger(exponent);
+        }
+    }
+    
+    private static long getSignificand(double value, int exponent)
+    {
+        // Below about 1E-300 the power of ten itself underflows, so scale the value up first
+        
+        if(exponent<-300)
+        {
+            return Math.round((value*1E300)/Math.pow(10d, exponent+300-(SIGNIFICANT_DIGITS-1)));
+        }
+        
+        return Math.round(value/Math.pow(10d, exponent-(SIGNIFICANT_DIGITS-1)));
+    }
+    
+    private void writeInteger(int value)
+    {
+        if(value<0)
+        {
+            write((byte)'-');
+            value = -value;
+        }
+        if(value>=10)
+        {
+            writeInteger(value/10);
+        }
+        
+        write((byte)('0'+(value%10)));
+    }
+    
+    private void write(byte b)
+    {
+        ensureCapacity(1);
+        buffer[length++] = b;
+    }
+    
+    private void write(byte[] bytes)
+    {
+        write(bytes, 0, bytes.length);
+    }
+    
+    private void write(byte[] bytes, int offset, int count)
+    {
+        ensureCapacity(count);
+        System.arraycopy(bytes, offset, buffer, length, count);
+        length = length+count;
+    }
+    
+    private void ensureCapacity(int count)
+    {
+        if(length+count>buffer.length)
+        {
+            byte[] grown = new byte[Math.max(buffer.length*2, length+count)];
+            System.arraycopy(buffer, 0, grown, 0, length);
+            buffer = grown;
+        }
+    }
+}
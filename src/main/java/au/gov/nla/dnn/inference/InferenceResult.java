@@ -7,20 +7,36 @@ import org.json.JSONObject;
 
 public class InferenceResult
 {
-    private String highestLabel;
+    private InferenceLabels labels;
+    private double[] scores;
+    private int highestIndex;
     private double highestConfidence;
-    private HashMap<String, Double> scores;
     
-    public InferenceResult(String highestLabel, double highestConfidence, HashMap<String, Double> scores)
+    public InferenceResult(InferenceLabels labels, double[] scores)
     {
-        this.highestLabel = highestLabel;
-        this.highestConfidence = highestConfidence;
+        this.labels = labels;
         this.scores = scores;
+        this.highestIndex = 0;
+        this.highestConfidence = 0d;
+        
+        for(int i=0; i<scores.length; i++)
+        {
+            if(scores[i]>highestConfidence)
+            {
+                highestConfidence = scores[i];
+                highestIndex = i;
+            }
+        }
     }
 
     public String getHighestLabel()
     {
-        return highestLabel;
+        return labels.getLabel(highestIndex);
+    }
+    
+    public int getHighestIndex()
+    {
+        return highestIndex;
     }
 
     public double getHighestConfidence()
@@ -28,19 +44,36 @@ public class InferenceResult
         return highestConfidence;
     }
     
-    public HashMap<String, Double> getScores()
+    public InferenceLabels getLabels()
+    {
+        return labels;
+    }
+    
+    public double[] getScoreArray()
     {
         return scores;
     }
+    
+    public HashMap<String, Double> getScores()
+    {
+        HashMap<String, Double> map = new HashMap<String, Double>();
+        
+        for(int i=0; i<scores.length; i++)
+        {
+            map.put(labels.getLabel(i), scores[i]);
+        }
+        
+        return map;
+    }
 
     public JSONObject toJSON()
     {
         JSONArray s = new JSONArray();
         
-        for(String label: getScores().keySet())
+        for(int i=0; i<scores.length; i++)
         {
             JSONObject o = new JSONObject();
-            o.put(label, getScores().get(label));
+            o.put(labels.getLabel(i), scores[i]);
             s.put(o);
         }
         
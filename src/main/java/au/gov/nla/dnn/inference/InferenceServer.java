@@ -1,26 +1,25 @@
 package au.gov.nla.dnn.inference;
 
-import java.io.ByteArrayInputStream;
-import java.io.FileInputStream;
 import java.io.FileReader;
-import java.io.ObjectInputStream;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Properties;
-import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
+import java.util.function.DoubleSupplier;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import au.gov.nla.dnn.inference.api.InferenceApiAdapter;
-import au.gov.nla.dnn.model.ModelInstance;
-import au.gov.nla.dnn.model.SerializedModelState;
-import au.gov.nla.dnn.record.RawDataRecord;
-import au.gov.nla.dnn.sequence.InputSequenceInstance;
+import au.gov.nla.dnn.inference.cache.InferenceResultCache;
+import au.gov.nla.dnn.inference.metrics.MetricsRegistry;
 
 public class InferenceServer
 {
-    private HashMap<String, InferenceModel> models;
-    private List<InferenceApiAdapter> apiAdapters;
+    private ModelRegistry models;
+    private List<InferenceApiAdapter> apiAdapters = new ArrayList<InferenceApiAdapter>();
+    private InferenceResultCache resultCache;
+    private ModelFileWatcher modelFileWatcher;
+    private ModelInferenceService inferenceService;
+    private MetricsRegistry metrics = new MetricsRegistry();
     
     public void start(JSONObject serverConfig) throws Exception
     {
@@ -47,6 +46,37 @@ public class InferenceServer
                         errorHandler.accept(e);
                     }
                 }
+                if(inferenceService!=null)
+                {
+                    try
+                    {
+                        inferenceService.dispose();
+                    }
+                    catch(Exception e)
+                    {
+                        errorHandler.accept(e);
+                    }
+                }
+                if(modelFileWatcher!=null)
+                {
+                    try
+                    {
+                        modelFileWatcher.dispose();
+                    }
+                    catch(Exception e)
+                    {
+                        errorHandler.accept(e);
+                    }
+                }
+                if(models!=null)
+                {
+                    models.dispose();
+                }
+                if(resultCache!=null)
+                {
+                    System.out.println("[InferenceServer] Result cache hits: "+resultCache.getHits()+", misses: "+resultCache.getMisses()
+                            +", evictions: "+resultCache.getEvictions());
+                }
             }
         }));
         
@@ -55,59 +85,48 @@ public class InferenceServer
         JSONArray adapterListConfig = serverConfig.getJSONArray("api-adapters");
         JSONArray modelListConfig = serverConfig.getJSONArray("models");
         
-        // Create Inference Service
-        
-        InferenceService inferenceService = new InferenceService(){
-            public InferenceResult infer(String modelId, byte[] record) throws Exception
-            {
-                InferenceModel model = models.get(modelId);
-                
-                if(model==null)
+        if(serverConfig.has("result-cache"))
+        {
+            resultCache = new InferenceResultCache(serverConfig.getJSONObject("result-cache").getLong("max-bytes"));
+            
+            metrics.counter("dnn_inference_cache_hits_total", "Inference results served from the result cache.", new DoubleSupplier(){
+                public double getAsDouble()
                 {
-                    throw new Exception("Model ["+modelId+"] is not loaded.");
+                    return resultCache.getHits();
                 }
-                
-                model.getLock().lock();
-                double[] result;
-                
-                try
+            });
+            metrics.counter("dnn_inference_cache_misses_total", "Inference requests not found in the result cache.", new DoubleSupplier(){
+                public double getAsDouble()
                 {
-                    result = model.getModel().infer(model.getSequence().process(
-                            new RawDataRecord(record, new double[model.getLabels().length])).getFeatures());
+                    return resultCache.getMisses();
                 }
-                finally
+            });
+            metrics.counter("dnn_inference_cache_evictions_total", "Results evicted from the result cache to stay within its memory budget.", new DoubleSupplier(){
+                public double getAsDouble()
                 {
-                    model.getLock().unlock();
+                    return resultCache.getEvictions();
                 }
-                
-                int highest = 0;
-                double highestValue = 0d;
-                HashMap<String, Double> scores = new HashMap<String, Double>();
-                
-                for(int i=0; i<result.length; i++)
+            });
+            metrics.gauge("dnn_inference_cache_bytes", "Estimated memory used by the result cache.", new DoubleSupplier(){
+                public double getAsDouble()
                 {
-                    double value = result[i];
-                    scores.put(model.getLabels()[i], value);
-                    
-                    if(value>highestValue)
-                    {
-                        highestValue = value;
-                        highest = i;
-                    }
+                    return resultCache.getBytes();
                 }
-                
-                return new InferenceResult(model.getLabels()[highest], highestValue, scores);
-            }
-        };
+            });
+        }
         
         // Load models
         
-        for(int i=0; i<modelListConfig.length(); i++)
+        models = new ModelRegistry(modelListConfig, serverConfig.optJSONObject("model-loading"), resultCache, metrics, errorHandler);
+        
+        if(!models.getModelFiles().isEmpty())
         {
-            JSONObject modelEntry = modelListConfig.getJSONObject(i);
-            models.put(modelEntry.getString("id"), loadModel(modelEntry.getString("file")));
+            modelFileWatcher = new ModelFileWatcher(models, models.getModelFiles(), errorHandler);
         }
         
+        inferenceService = new ModelInferenceService(models, resultCache, metrics, 
+                serverConfig.optInt("featurisation-threads", Runtime.getRuntime().availableProcessors()));
+        
         // Initialise API adapters
         
         for(int i=0; i<adapterListConfig.length(); i++)
@@ -122,56 +141,7 @@ public class InferenceServer
             }
             
             adapter.initialise(properties, inferenceService, errorHandler);
-        }
-    }
-    
-    private InferenceModel loadModel(String path) throws Exception
-    {
-        try(ObjectInputStream in = new ObjectInputStream(new FileInputStream(path)))
-        {
-            SerializedModelState state = (SerializedModelState)in.readObject();
-            
-            try(ByteArrayInputStream bytes = new ByteArrayInputStream(state.getModel()))
-            {
-                ModelInstance instance = ((ModelInstance.Builder<?>)Class.forName(state.getBuilderClass()).getConstructor().newInstance()).load(bytes);
-                return new InferenceModel(instance, state.getSequenceInstance(), state.getLabels());
-            }
-        }
-    }
-    
-    public class InferenceModel
-    {
-        private ModelInstance model;
-        private InputSequenceInstance sequence;
-        private String[] labels;
-        private ReentrantLock lock;
-        
-        public InferenceModel(ModelInstance model, InputSequenceInstance sequence, String[] labels)
-        {
-            this.model = model;
-            this.sequence = sequence;
-            this.labels = labels;
-            this.lock = new ReentrantLock(true);
-        }
-
-        public ModelInstance getModel()
-        {
-            return model;
-        }
-
-        public InputSequenceInstance getSequence()
-        {
-            return sequence;
-        }
-        
-        public String[] getLabels()
-        {
-            return labels;
-        }
-
-        public ReentrantLock getLock()
-        {
-            return lock;
+            apiAdapters.add(adapter);
         }
     }
 }
\ No newline at end of file
@@ -1,6 +1,18 @@
 package au.gov.nla.dnn.inference;
 
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import au.gov.nla.dnn.inference.metrics.MetricsRegistry;
+
 public interface InferenceService
 {
     public InferenceResult infer(String modelId, byte[] record) throws Exception;
+    public InferenceResult infer(String modelId, byte[] record, long deadlineNanos) throws Exception;
+    public CompletableFuture<InferenceResult> inferAsync(String modelId, byte[] record, long deadlineNanos);
+    public List<InferenceOutcome> inferBatch(String modelId, List<byte[]> records) throws Exception;
+    public List<InferenceOutcome> inferBatch(String modelId, List<byte[]> records, long deadlineNanos) throws Exception;
+    public void reload(String modelId) throws Exception;
+    public MetricsRegistry getMetrics();
+    public Set<String> getModelIds();
 }
\ No newline at end of file
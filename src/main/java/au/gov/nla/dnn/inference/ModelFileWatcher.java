@@ -0,0 +1,139 @@
+package au.gov.nla.dnn.inference;
+
+import java.io.File;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+public class ModelFileWatcher
+{
+    private static final long QUIET_PERIOD_MILLIS = 2000;
+    
+    private ModelRegistry registry;
+    private Consumer<Exception> errorHandler;
+    private WatchService watchService;
+    private HashMap<Path, List<String>> modelsByFile;
+    private HashMap<String, Long> pendingReloads;
+    private Thread thread;
+    private volatile boolean stopped;
+    
+    public ModelFileWatcher(ModelRegistry registry, Map<String, String> modelFiles, Consumer<Exception> errorHandler) throws Exception
+    {
+        this.registry = registry;
+        this.errorHandler = errorHandler;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.modelsByFile = new HashMap<Path, List<String>>();
+        this.pendingReloads = new HashMap<String, Long>();
+        
+        List<Path> directories = new ArrayList<Path>();
+        
+        for(Map.Entry<String, String> entry: modelFiles.entrySet())
+        {
+            Path file = new File(entry.getValue()).getAbsoluteFile().toPath();
+            
+            if(!modelsByFile.containsKey(file))
+            {
+                modelsByFile.put(file, new ArrayList<String>());
+            }
+            
+            modelsByFile.get(file).add(entry.getKey());
+            
+            if(!directories.contains(file.getParent()))
+            {
+                directories.add(file.getParent());
+                file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            }
+        }
+        
+        thread = new Thread(new Runnable(){
+            public void run()
+            {
+                watch();
+            }
+        }, "model-file-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    private void watch()
+    {
+        while(!stopped)
+        {
+            try
+            {
+                WatchKey key = watchService.poll(QUIET_PERIOD_MILLIS/4, TimeUnit.MILLISECONDS);
+                
+                if(key!=null)
+                {
+                    Path directory = (Path)key.watchable();
+                    
+                    for(WatchEvent<?> event: key.pollEvents())
+                    {
+                        if(event.context() instanceof Path)
+                        {
+                            List<String> modelIds = modelsByFile.get(directory.resolve((Path)event.context()));
+                            
+                            if(modelIds!=null)
+                            {
+                                for(String modelId: modelIds)
+                                {
+                                    pendingReloads.put(modelId, System.currentTimeMillis());
+                                }
+                            }
+                        }
+                    }
+                    
+                    key.reset();
+                }
+                
+                // Files are usually written in several steps, so wait until one has been left alone before reloading it
+                
+                Iterator<Map.Entry<String, Long>> iterator = pendingReloads.entrySet().iterator();
+                
+                while(iterator.hasNext())
+                {
+                    Map.Entry<String, Long> pending = iterator.next();
+                    
+                    if(System.currentTimeMillis()-pending.getValue()>=QUIET_PERIOD_MILLIS)
+                    {
+                        iterator.remove();
+                        
+                        try
+                        {
+                            registry.reload(pending.getKey());
+                        }
+                        catch(Exception e)
+                        {
+                            errorHandler.accept(e);
+                        }
+                    }
+                }
+            }
+            catch(InterruptedException e)
+            {
+                return;
+            }
+            catch(Exception e)
+            {
+                errorHandler.accept(e);
+            }
+        }
+    }
+    
+    public void dispose() throws Exception
+    {
+        stopped = true;
+        thread.interrupt();
+        watchService.close();
+    }
+}
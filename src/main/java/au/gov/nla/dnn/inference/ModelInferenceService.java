@@ -0,0 +1,284 @@
+package au.gov.nla.dnn.inference;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import au.gov.nla.dnn.inference.cache.InferenceResultCache;
+import au.gov.nla.dnn.inference.cache.RecordHash;
+import au.gov.nla.dnn.inference.metrics.MetricsRegistry;
+import au.gov.nla.dnn.sequence.SequenceDataRecord;
+
+public class ModelInferenceService implements InferenceService
+{
+    private ModelRegistry models;
+    private InferenceResultCache resultCache;
+    private MetricsRegistry metrics;
+    private ExecutorService featurisationService;
+    
+    public ModelInferenceService(ModelRegistry models, InferenceResultCache resultCache, MetricsRegistry metrics, int featurisationThreads)
+    {
+        this.models = models;
+        this.resultCache = resultCache;
+        this.metrics = metrics;
+        this.featurisationService = Executors.newFixedThreadPool(featurisationThreads);
+    }
+    
+    public InferenceResult infer(String modelId, byte[] record) throws Exception
+    {
+        return infer(modelId, record, 0);
+    }
+    
+    public InferenceResult infer(String modelId, byte[] record, long deadlineNanos) throws Exception
+    {
+        InferenceModel model = models.getModel(modelId);
+        RecordHash hash = null;
+        
+        // Cache hits cost next to nothing, so they are served even when the model itself is overloaded
+        
+        if(resultCache!=null)
+        {
+            hash = RecordHash.of(record);
+            double[] cached = resultCache.get(modelId, model.getGeneration(), hash);
+            
+            if(cached!=null)
+            {
+                return model.createResult(cached);
+            }
+        }
+        
+        AdmissionController admission = models.getAdmissionController(modelId);
+        admission.admit(deadlineNanos);
+        double[] result;
+        
+        try
+        {
+            result = model.infer(model.featurise(record), deadlineNanos);
+        }
+        finally
+        {
+            admission.complete();
+        }
+        
+        if(resultCache!=null)
+        {
+            resultCache.put(modelId, model.getGeneration(), hash, result);
+        }
+        
+        return model.createResult(result);
+    }
+    
+    // Featurisation runs on a pool sized to the CPU, the forward pass on the model's own threads or micro-batcher,
+    // so no thread is held waiting between the two stages
+    
+    public CompletableFuture<InferenceResult> inferAsync(String modelId, byte[] record, long deadlineNanos)
+    {
+        CompletableFuture<InferenceResult> response = new CompletableFuture<InferenceResult>();
+        AdmissionController admission;
+        RecordHash hash = null;
+        
+        // Admission runs before the request joins the shared featurisation queue, so the per-model bound holds there too.
+        // Cache hits are still served when overloaded, only a resident model can have any.
+        
+        try
+        {
+            InferenceModel loaded = models.getLoadedModel(modelId);
+            
+            if(resultCache!=null && loaded!=null)
+            {
+                hash = RecordHash.of(record);
+                double[] cached = resultCache.get(modelId, loaded.getGeneration(), hash);
+                
+                if(cached!=null)
+                {
+                    response.complete(loaded.createResult(cached));
+                    return response;
+                }
+            }
+            
+            admission = models.getAdmissionController(modelId);
+            admission.admit(deadlineNanos);
+        }
+        catch(Exception e)
+        {
+            response.completeExceptionally(e);
+            return response;
+        }
+        
+        RecordHash recordHash = hash;
+        
+        try
+        {
+            featurisationService.execute(new Runnable(){
+                public void run()
+                {
+                    featurise(modelId, record, recordHash, deadlineNanos, admission, response);
+                }
+            });
+        }
+        catch(RejectedExecutionException e)
+        {
+            admission.complete();
+            response.completeExceptionally(new OverloadedException("Inference service is shutting down."));
+        }
+        
+        return response;
+    }
+    
+    private void featurise(String modelId, byte[] record, RecordHash hash, long deadlineNanos, AdmissionController admission, 
+            CompletableFuture<InferenceResult> response)
+    {
+        boolean inferring = false;
+        
+        try
+        {
+            // Requests which expired while queued are never featurised
+            
+            admission.checkDeadline(deadlineNanos);
+            InferenceModel model = models.getModel(modelId);
+            
+            if(resultCache!=null)
+            {
+                hash = hash==null ? RecordHash.of(record) : hash;
+                double[] cached = resultCache.get(modelId, model.getGeneration(), hash);
+                
+                if(cached!=null)
+                {
+                    response.complete(model.createResult(cached));
+                    return;
+                }
+            }
+            
+            SequenceDataRecord features = model.featurise(record);
+            RecordHash recordHash = hash;
+            
+            model.inferAsync(features, deadlineNanos).whenComplete(new BiConsumer<double[], Throwable>(){
+                public void accept(double[] result, Throwable t)
+                {
+                    admission.complete();
+                    
+                    if(t!=null)
+                    {
+                        InferenceOutcome outcome = InferenceOutcome.of(null, t);
+                        response.completeExceptionally(outcome.getException());
+                        return;
+                    }
+                    if(resultCache!=null)
+                    {
+                        resultCache.put(modelId, model.getGeneration(), recordHash, result);
+                    }
+                    
+                    response.complete(model.createResult(result));
+                }
+            });
+            
+            inferring = true;
+        }
+        catch(Exception e)
+        {
+            response.completeExceptionally(e);
+        }
+        finally
+        {
+            // Once the forward pass is underway its callback releases the slot
+            
+            if(!inferring)
+            {
+                admission.complete();
+            }
+        }
+    }
+    
+    public List<InferenceOutcome> inferBatch(String modelId, List<byte[]> records) throws Exception
+    {
+        return inferBatch(modelId, records, 0);
+    }
+    
+    public List<InferenceOutcome> inferBatch(String modelId, List<byte[]> records, long deadlineNanos) throws Exception
+    {
+        InferenceModel model = models.getModel(modelId);
+        InferenceOutcome[] outcomes = new InferenceOutcome[records.size()];
+        List<SequenceDataRecord> features = new ArrayList<SequenceDataRecord>(records.size());
+        List<Integer> featureIndexes = new ArrayList<Integer>(records.size());
+        
+        RecordHash[] hashes = new RecordHash[records.size()];
+        AdmissionController admission = models.getAdmissionController(modelId);
+        admission.admit(deadlineNanos);
+        
+        try
+        {
+            // Featurisation failures are reported against their own record, the rest share forward passes
+            
+            for(int i=0; i<records.size(); i++)
+            {
+                if(resultCache!=null)
+                {
+                    hashes[i] = RecordHash.of(records.get(i));
+                    double[] cached = resultCache.get(modelId, model.getGeneration(), hashes[i]);
+                    
+                    if(cached!=null)
+                    {
+                        outcomes[i] = new InferenceOutcome(model.createResult(cached));
+                        continue;
+                    }
+                }
+                
+                try
+                {
+                    features.add(model.featurise(records.get(i)));
+                    featureIndexes.add(i);
+                }
+                catch(Exception e)
+                {
+                    outcomes[i] = new InferenceOutcome(e);
+                }
+            }
+            
+            double[][] results = model.inferBatch(features.toArray(new SequenceDataRecord[features.size()]));
+            
+            for(int i=0; i<results.length; i++)
+            {
+                int index = featureIndexes.get(i);
+                outcomes[index] = new InferenceOutcome(model.createResult(results[i]));
+                
+                if(resultCache!=null)
+                {
+                    resultCache.put(modelId, model.getGeneration(), hashes[index], results[i]);
+                }
+            }
+        }
+        finally
+        {
+            admission.complete();
+        }
+        
+        return Arrays.asList(outcomes);
+    }
+    
+    public void reload(String modelId) throws Exception
+    {
+        models.reload(modelId);
+    }
+    
+    public MetricsRegistry getMetrics()
+    {
+        return metrics;
+    }
+    
+    public Set<String> getModelIds()
+    {
+        return models.getModelIds();
+    }
+    
+    public void dispose() throws Exception
+    {
+        featurisationService.shutdown();
+        featurisationService.awaitTermination(10, TimeUnit.SECONDS);
+    }
+}
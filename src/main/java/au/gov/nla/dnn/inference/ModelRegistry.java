@@ -0,0 +1,379 @@
+package au.gov.nla.dnn.inference;
+
+import java.io.File;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+import java.util.function.Consumer;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import au.gov.nla.dnn.inference.cache.InferenceResultCache;
+import au.gov.nla.dnn.inference.metrics.MetricsRegistry;
+import au.gov.nla.dnn.inference.metrics.ModelMetrics;
+import au.gov.nla.dnn.model.SerializedModelState;
+
+public class ModelRegistry
+{
+    private LinkedHashMap<String, ModelSlot> slots;
+    private boolean lazy;
+    private long memoryBudget;
+    private InferenceResultCache resultCache;
+    private MetricsRegistry metrics;
+    private Consumer<Exception> errorHandler;
+    private ExecutorService disposalService;
+    
+    public ModelRegistry(JSONArray modelListConfig, JSONObject loadingConfig, InferenceResultCache resultCache, MetricsRegistry metrics, 
+            Consumer<Exception> errorHandler) throws Exception
+    {
+        this.slots = new LinkedHashMap<String, ModelSlot>();
+        this.lazy = loadingConfig!=null && loadingConfig.optString("mode", "eager").equals("lazy");
+        this.memoryBudget = loadingConfig==null ? 0 : loadingConfig.optLong("memory-budget-bytes", 0);
+        this.resultCache = resultCache;
+        this.metrics = metrics;
+        this.errorHandler = errorHandler;
+        this.disposalService = Executors.newSingleThreadExecutor();
+        
+        for(int i=0; i<modelListConfig.length(); i++)
+        {
+            JSONObject modelEntry = modelListConfig.getJSONObject(i);
+            ModelMetrics modelMetrics = new ModelMetrics(metrics, modelEntry.getString("id"));
+            JSONObject admissionConfig = modelEntry.optJSONObject("admission");
+            AdmissionController admission = new AdmissionController(modelEntry.getString("id"), 
+                    admissionConfig==null ? 0 : admissionConfig.optInt("max-queued", 0), 
+                    Math.max(modelEntry.optInt("replicas", 1), 1), 
+                    modelMetrics, metrics);
+            ModelSlot slot = new ModelSlot(modelEntry, modelMetrics, admission);
+            slots.put(modelEntry.getString("id"), slot);
+            
+            metrics.gauge("dnn_inference_model_loaded", "Whether the model is currently loaded (1) or not (0).", 
+                    new DoubleSupplier(){
+                        public double getAsDouble()
+                        {
+                            return slot.model==null ? 0d : 1d;
+                        }
+                    }, "model", modelEntry.getString("id"));
+            metrics.gauge("dnn_inference_model_memory_bytes", "Estimated memory footprint of the loaded model.", 
+                    new DoubleSupplier(){
+                        public double getAsDouble()
+                        {
+                            return slot.model==null ? 0d : slot.footprint;
+                        }
+                    }, "model", modelEntry.getString("id"));
+        }
+        if(!lazy)
+        {
+            for(String modelId: slots.keySet())
+            {
+                getModel(modelId);
+            }
+        }
+    }
+    
+    public InferenceModel getModel(String modelId) throws Exception
+    {
+        ModelSlot slot = getSlot(modelId);
+        slot.lastAccess = System.nanoTime();
+        InferenceModel model = slot.model;
+        
+        if(model!=null)
+        {
+            return model;
+        }
+        
+        // Concurrent first requests queue on the slot so the model is only loaded once
+        
+        synchronized(slot)
+        {
+            model = slot.model;
+            
+            if(model==null)
+            {
+                System.out.println("[ModelRegistry] Loading model ["+modelId+"]");
+                model = loadModel(slot.config, slot.metrics);
+                slot.footprint = model.getMemoryFootprint();
+                slot.model = model;
+                
+                if(resultCache!=null)
+                {
+                    resultCache.invalidate(modelId);
+                }
+            }
+        }
+        
+        if(lazy && memoryBudget>0)
+        {
+            enforceMemoryBudget(slot);
+        }
+        
+        return model;
+    }
+    
+    // The model if it is resident, without loading it or counting as an access
+    
+    public InferenceModel getLoadedModel(String modelId) throws Exception
+    {
+        return getSlot(modelId).model;
+    }
+    
+    public Set<String> getModelIds()
+    {
+        return Collections.unmodifiableSet(slots.keySet());
+    }
+    
+    public AdmissionController getAdmissionController(String modelId) throws Exception
+    {
+        return getSlot(modelId).admission;
+    }
+    
+    public void reload(String modelId) throws Exception
+    {
+        ModelSlot slot = getSlot(modelId);
+        
+        // Only one reload per model at a time, requests keep using the current model while the new one loads and warms up
+        
+        synchronized(slot.reloadLock)
+        {
+            if(slot.model==null)
+            {
+                // Not resident, the next request will load the new file
+                
+                if(resultCache!=null)
+                {
+                    resultCache.invalidate(modelId);
+                }
+                
+                return;
+            }
+            
+            System.out.println("[ModelRegistry] Reloading model ["+modelId+"]");
+            InferenceModel model = loadModel(slot.config, slot.metrics);
+            InferenceModel previous;
+            
+            synchronized(slot)
+            {
+                previous = slot.model;
+                slot.footprint = model.getMemoryFootprint();
+                slot.model = model;
+            }
+            
+            if(resultCache!=null)
+            {
+                resultCache.invalidate(modelId);
+            }
+            
+            // Requests already running against the previous model complete normally
+            
+            if(previous!=null)
+            {
+                previous.dispose();
+            }
+            
+            System.out.println("[ModelRegistry] Reloaded model ["+modelId+"]");
+        }
+        
+        if(lazy && memoryBudget>0)
+        {
+            enforceMemoryBudget(slot);
+        }
+    }
+    
+    private ModelSlot getSlot(String modelId) throws Exception
+    {
+        ModelSlot slot = slots.get(modelId);
+        
+        if(slot==null)
+        {
+            throw new Exception("Model ["+modelId+"] is not loaded.");
+        }
+        
+        return slot;
+    }
+    
+    public Map<String, String> getModelFiles()
+    {
+        LinkedHashMap<String, String> files = new LinkedHashMap<String, String>();
+        
+        for(Map.Entry<String, ModelSlot> entry: slots.entrySet())
+        {
+            if(entry.getValue().config.optBoolean("watch", false))
+            {
+                files.put(entry.getKey(), entry.getValue().config.getString("file"));
+            }
+        }
+        
+        return files;
+    }
+    
+    private synchronized void enforceMemoryBudget(ModelSlot keep)
+    {
+        while(true)
+        {
+            long total = 0;
+            ModelSlot leastRecent = null;
+            
+            for(ModelSlot slot: slots.values())
+            {
+                if(slot.model!=null)
+                {
+                    total = total+slot.footprint;
+                    
+                    if(slot!=keep && (leastRecent==null || slot.lastAccess<leastRecent.lastAccess))
+                    {
+                        leastRecent = slot;
+                    }
+                }
+            }
+            
+            if(total<=memoryBudget || leastRecent==null)
+            {
+                return;
+            }
+            
+            evict(leastRecent);
+        }
+    }
+    
+    private void evict(ModelSlot slot)
+    {
+        InferenceModel model = detach(slot);
+        
+        // Only the slot is swapped out under the registry lock. Disposing waits for the model's scheduler to drain,
+        // so it runs in the background rather than holding up every request that needs the lock.
+        
+        if(model!=null)
+        {
+            System.out.println("[ModelRegistry] Evicting model ["+slot.config.getString("id")+"] ("+slot.footprint+" bytes)");
+            disposalService.execute(new Runnable(){
+                public void run()
+                {
+                    dispose(slot, model);
+                }
+            });
+        }
+    }
+    
+    private InferenceModel detach(ModelSlot slot)
+    {
+        synchronized(slot)
+        {
+            InferenceModel model = slot.model;
+            slot.model = null;
+            return model;
+        }
+    }
+    
+    private void dispose(ModelSlot slot, InferenceModel model)
+    {
+        // Requests already holding the model finish against it, its memory is reclaimed once they are done
+        
+        model.dispose();
+        
+        if(resultCache!=null)
+        {
+            resultCache.invalidate(slot.config.getString("id"));
+        }
+    }
+    
+    private InferenceModel loadModel(JSONObject modelEntry, ModelMetrics modelMetrics) throws Exception
+    {
+        SerializedModelState state = SerializedModelState.read(new File(modelEntry.getString("file")));
+        ModelReplicaPool pool = ModelReplicaPool.create(state.createModelInstance(), Math.max(modelEntry.optInt("replicas", 1), 1), modelMetrics);
+        InferenceBatchScheduler scheduler = null;
+        
+        if(modelEntry.has("batching"))
+        {
+            JSONObject batchingConfig = modelEntry.getJSONObject("batching");
+            scheduler = new InferenceBatchScheduler(modelEntry.getString("id"), pool, 
+                    batchingConfig.optInt("max-batch-size", 32), 
+                    (long)(batchingConfig.optDouble("max-wait-millis", 2d)*1000000d), 
+                    modelMetrics, 
+                    errorHandler);
+        }
+        
+        InferenceModel model = new InferenceModel(pool, scheduler, state.getSequenceInstance(), state.getLabels(), modelMetrics);
+        
+        if(modelEntry.has("warm-up-directory"))
+        {
+            warmUp(modelEntry, model);
+        }
+        
+        return model;
+    }
+    
+    private void warmUp(JSONObject modelEntry, InferenceModel model) throws Exception
+    {
+        // Run representative records through the model before it takes traffic, so JIT compilation
+        // and ND4J initialisation happen here rather than on the first client requests
+        
+        int iterations = modelEntry.optInt("warm-up-iterations", 1);
+        int count = 0;
+        
+        for(int i=0; i<iterations; i++)
+        {
+            try(DirectoryStream<Path> stream = Files.newDirectoryStream(new File(modelEntry.getString("warm-up-directory")).toPath()))
+            {
+                for(Path entry: stream)
+                {
+                    if(Files.isRegularFile(entry))
+                    {
+                        model.infer(model.featurise(Files.readAllBytes(entry)));
+                        count++;
+                    }
+                }
+            }
+        }
+        
+        System.out.println("[ModelRegistry] Warmed up model ["+modelEntry.getString("id")+"] with "+count+" records");
+    }
+    
+    public void dispose()
+    {
+        disposalService.shutdown();
+        
+        try
+        {
+            disposalService.awaitTermination(10, TimeUnit.SECONDS);
+        }
+        catch(InterruptedException e)
+        {
+            errorHandler.accept(e);
+            Thread.currentThread().interrupt();
+        }
+        
+        for(ModelSlot slot: slots.values())
+        {
+            InferenceModel model = detach(slot);
+            
+            if(model!=null)
+            {
+                dispose(slot, model);
+            }
+        }
+    }
+    
+    private static class ModelSlot
+    {
+        private JSONObject config;
+        private ModelMetrics metrics;
+        private AdmissionController admission;
+        private Object reloadLock = new Object();
+        private volatile InferenceModel model;
+        private volatile long lastAccess;
+        private volatile long footprint;
+        
+        private ModelSlot(JSONObject config, ModelMetrics metrics, AdmissionController admission)
+        {
+            this.config = config;
+            this.metrics = metrics;
+            this.admission = admission;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package au.gov.nla.dnn.inference;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import au.gov.nla.dnn.inference.metrics.ModelMetrics;
+import au.gov.nla.dnn.model.ModelInstance;
+import au.gov.nla.dnn.sequence.SequenceDataRecord;
+
+public class ModelReplicaPool
+{
+    private List<ModelInstance> replicas;
+    private ConcurrentLinkedQueue<ModelInstance> idle;
+    private Semaphore available;
+    private int size;
+    private ModelMetrics metrics;
+    
+    public ModelReplicaPool(List<ModelInstance> replicas, ModelMetrics metrics)
+    {
+        // Non-fair semaphore and non-blocking queue, so checkout only blocks when every replica is busy
+        this.replicas = replicas;
+        this.idle = new ConcurrentLinkedQueue<ModelInstance>(replicas);
+        this.available = new Semaphore(replicas.size(), false);
+        this.size = replicas.size();
+        this.metrics = metrics;
+    }
+    
+    public static ModelReplicaPool create(ModelInstance instance, int replicaCount, ModelMetrics metrics) throws Exception
+    {
+        List<ModelInstance> replicas = new ArrayList<ModelInstance>();
+        replicas.add(instance);
+        
+        for(int i=1; i<replicaCount; i++)
+        {
+            replicas.add(instance.replicate());
+        }
+        
+        return new ModelReplicaPool(replicas, metrics);
+    }
+    
+    public double[] infer(SequenceDataRecord record) throws Exception
+    {
+        ModelInstance replica = checkout();
+        
+        try
+        {
+            long start = System.nanoTime();
+            double[] result = replica.inferRecords(new SequenceDataRecord[]{record})[0];
+            metrics.getForwardPassTime().recordSince(start);
+            metrics.getBatchSize().record(1);
+            return result;
+        }
+        finally
+        {
+            release(replica);
+        }
+    }
+    
+    public double[][] inferBatch(SequenceDataRecord[] records) throws Exception
+    {
+        ModelInstance replica = checkout();
+        
+        try
+        {
+            return inferBatch(replica, records);
+        }
+        finally
+        {
+            release(replica);
+        }
+    }
+    
+    // Runs on a replica the caller has already checked out, and leaves releasing it to the caller
+    
+    public double[][] inferBatch(ModelInstance replica, SequenceDataRecord[] records) throws Exception
+    {
+        long start = System.nanoTime();
+        double[][] results = replica.inferRecords(records);
+        metrics.getForwardPassTime().recordSince(start);
+        metrics.getBatchSize().record(records.length);
+        return results;
+    }
+    
+    public ModelInstance checkout() throws InterruptedException
+    {
+        long start = System.nanoTime();
+        available.acquire();
+        metrics.getReplicaWaitTime().recordSince(start);
+        return idle.poll();
+    }
+    
+    public void release(ModelInstance replica)
+    {
+        idle.offer(replica);
+        available.release();
+    }
+    
+    public long getMemoryFootprint()
+    {
+        long bytes = 0;
+        
+        for(ModelInstance replica: replicas)
+        {
+            bytes = bytes+replica.getMemoryFootprint();
+        }
+        
+        return bytes;
+    }
+    
+    public int getSize()
+    {
+        return size;
+    }
+}
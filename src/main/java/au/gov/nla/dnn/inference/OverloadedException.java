@@ -0,0 +1,11 @@
+package au.gov.nla.dnn.inference;
+
+public class OverloadedException extends Exception
+{
+    private static final long serialVersionUID = 1L;
+    
+    public OverloadedException(String message)
+    {
+        super(message);
+    }
+}
@@ -0,0 +1,21 @@
+package au.gov.nla.dnn.inference.api;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class VirtualThreads
+{
+    // Virtual threads arrived in Java 21, looked up reflectively so the build still targets Java 11
+    
+    public static ExecutorService newPerTaskExecutor() throws Exception
+    {
+        try
+        {
+            return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch(NoSuchMethodException e)
+        {
+            throw new UnsupportedOperationException("Virtual threads require Java 21 or later.", e);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package au.gov.nla.dnn.inference.api.framed;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import au.gov.nla.dnn.inference.InferenceLabels;
+import au.gov.nla.dnn.inference.InferenceOutcome;
+import au.gov.nla.dnn.inference.InferenceResponseWriter;
+import au.gov.nla.dnn.inference.InferenceResult;
+import au.gov.nla.dnn.inference.OverloadedException;
+
+class FrameEncoder
+{
+    static final byte STATUS_SUCCESS = 0;
+    static final byte STATUS_FAILURE = 1;
+    static final byte STATUS_OVERLOADED = 2;
+    
+    static ByteBuffer encodeHello(byte version, byte format)
+    {
+        ByteBuffer frame = ByteBuffer.allocate(4+1+1+1);
+        frame.putInt(1+1+1);
+        frame.put(FramedInferenceApiAdapter.FRAME_HELLO);
+        frame.put(version);
+        frame.put(format);
+        frame.flip();
+        return frame;
+    }
+    
+    static ByteBuffer encodeJSONResult(int requestId, InferenceOutcome outcome)
+    {
+        InferenceResponseWriter writer = InferenceResponseWriter.acquire().writeOutcome(outcome, 0, Double.NEGATIVE_INFINITY);
+        ByteBuffer frame = ByteBuffer.allocate(4+1+4+writer.getLength());
+        frame.putInt(1+4+writer.getLength());
+        frame.put(FramedInferenceApiAdapter.FRAME_RESULT);
+        frame.putInt(requestId);
+        frame.put(writer.getBuffer(), 0, writer.getLength());
+        frame.flip();
+        writer.release();
+        return frame;
+    }
+    
+    static ByteBuffer encodeBinaryResult(int requestId, InferenceOutcome outcome)
+    {
+        if(!outcome.isSuccess())
+        {
+            Exception e = outcome.getException();
+            byte[] message = (e.getClass().getName()+": "+e.getMessage()).getBytes(StandardCharsets.UTF_8);
+            ByteBuffer frame = ByteBuffer.allocate(4+1+4+1+message.length);
+            frame.putInt(1+4+1+message.length);
+            frame.put(FramedInferenceApiAdapter.FRAME_BINARY_RESULT);
+            frame.putInt(requestId);
+            frame.put(e instanceof OverloadedException ? STATUS_OVERLOADED : STATUS_FAILURE);
+            frame.put(message);
+            frame.flip();
+            return frame;
+        }
+        
+        // Scores are float32, the label names were sent once beforehand in a labels frame
+        
+        InferenceResult result = outcome.getResult();
+        double[] scores = result.getScoreArray();
+        ByteBuffer frame = ByteBuffer.allocate(4+1+4+1+4+(scores.length*4));
+        frame.putInt(1+4+1+4+(scores.length*4));
+        frame.put(FramedInferenceApiAdapter.FRAME_BINARY_RESULT);
+        frame.putInt(requestId);
+        frame.put(STATUS_SUCCESS);
+        frame.putInt(result.getHighestIndex());
+        
+        for(int i=0; i<scores.length; i++)
+        {
+            frame.putFloat((float)scores[i]);
+        }
+        
+        frame.flip();
+        return frame;
+    }
+    
+    static ByteBuffer encodeLabels(String modelId, InferenceLabels labels)
+    {
+        byte[] encodedModelId = modelId.getBytes(StandardCharsets.UTF_8);
+        byte[][] encodedLabels = new byte[labels.size()][];
+        int length = 1+2+encodedModelId.length+4;
+        
+        for(int i=0; i<encodedLabels.length; i++)
+        {
+            encodedLabels[i] = labels.getLabel(i).getBytes(StandardCharsets.UTF_8);
+            length = length+2+encodedLabels[i].length;
+        }
+        
+        ByteBuffer frame = ByteBuffer.allocate(4+length);
+        frame.putInt(length);
+        frame.put(FramedInferenceApiAdapter.FRAME_LABELS);
+        frame.putShort((short)encodedModelId.length);
+        frame.put(encodedModelId);
+        frame.putInt(encodedLabels.length);
+        
+        for(int i=0; i<encodedLabels.length; i++)
+        {
+            frame.putShort((short)encodedLabels[i].length);
+            frame.put(encodedLabels[i]);
+        }
+        
+        frame.flip();
+        return frame;
+    }
+}
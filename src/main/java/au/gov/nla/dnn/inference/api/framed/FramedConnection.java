@@ -0,0 +1,232 @@
+package au.gov.nla.dnn.inference.api.framed;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import au.gov.nla.dnn.inference.InferenceLabels;
+import au.gov.nla.dnn.inference.InferenceOutcome;
+
+class FramedConnection
+{
+    private static final int INITIAL_BUFFER_SIZE = 16384;
+    private static final int INFER_HEADER_LENGTH = 1+4+2+4;
+    
+    private FramedInferenceApiAdapter adapter;
+    private SocketChannel channel;
+    private SelectionKey key;
+    private ByteBuffer readBuffer;
+    private ConcurrentLinkedQueue<ByteBuffer> writes;
+    private AtomicInteger inFlight;
+    private int maxInFlight;
+    private boolean endOfInput;
+    private volatile boolean binary;
+    private HashMap<String, InferenceLabels> sentLabels;
+    
+    FramedConnection(FramedInferenceApiAdapter adapter, SocketChannel channel, SelectionKey key, int maxInFlight)
+    {
+        this.adapter = adapter;
+        this.channel = channel;
+        this.key = key;
+        this.readBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        this.writes = new ConcurrentLinkedQueue<ByteBuffer>();
+        this.inFlight = new AtomicInteger();
+        this.maxInFlight = maxInFlight;
+        this.sentLabels = new HashMap<String, InferenceLabels>();
+    }
+    
+    // Called on the selector thread only
+    
+    void read() throws IOException
+    {
+        if(channel.read(readBuffer)==-1)
+        {
+            endOfInput = true;
+            updateInterest();
+            return;
+        }
+        
+        readBuffer.flip();
+        int required = 0;
+        
+        while(readBuffer.remaining()>=4)
+        {
+            int length = readBuffer.getInt(readBuffer.position());
+            
+            if(length<1 || length>adapter.getMaxFrameBytes())
+            {
+                throw new IOException("Invalid frame length: "+length);
+            }
+            if(readBuffer.remaining()<4+length)
+            {
+                required = 4+length;
+                break;
+            }
+            
+            readBuffer.getInt();
+            int end = readBuffer.position()+length;
+            readFrame(length);
+            readBuffer.position(end);
+        }
+        
+        readBuffer.compact();
+        
+        if(required>readBuffer.capacity())
+        {
+            ByteBuffer larger = ByteBuffer.allocate(required);
+            readBuffer.flip();
+            larger.put(readBuffer);
+            readBuffer = larger;
+        }
+        else if(required==0 && readBuffer.position()==0 && readBuffer.capacity()>INITIAL_BUFFER_SIZE)
+        {
+            readBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        }
+        
+        updateInterest();
+    }
+    
+    private void readFrame(int length) throws IOException
+    {
+        byte type = readBuffer.get();
+        
+        if(type==FramedInferenceApiAdapter.FRAME_HELLO && length==3)
+        {
+            readHello();
+            return;
+        }
+        if(type!=FramedInferenceApiAdapter.FRAME_INFER || length<INFER_HEADER_LENGTH)
+        {
+            // Without a well formed header there is no request ID to answer, so the connection can not continue
+            
+            throw new IOException("Unsupported frame type "+type+" of length "+length+".");
+        }
+        
+        int requestId = readBuffer.getInt();
+        int modelIdLength = readBuffer.getShort() & 0xFFFF;
+        
+        if(length<INFER_HEADER_LENGTH+modelIdLength)
+        {
+            throw new IOException("Model ID length "+modelIdLength+" exceeds frame length "+length+".");
+        }
+        
+        byte[] modelId = new byte[modelIdLength];
+        readBuffer.get(modelId);
+        int deadlineMillis = readBuffer.getInt();
+        byte[] payload = new byte[length-INFER_HEADER_LENGTH-modelIdLength];
+        readBuffer.get(payload);
+        
+        long deadline = deadlineMillis>0 ? System.nanoTime()+TimeUnit.MILLISECONDS.toNanos(deadlineMillis) : 0;
+        inFlight.incrementAndGet();
+        adapter.dispatch(this, requestId, new String(modelId, StandardCharsets.UTF_8), deadline, payload);
+    }
+    
+    private void readHello()
+    {
+        // The client asks for a response format, the reply confirms the one which will be used from now on
+        
+        byte version = readBuffer.get();
+        byte format = readBuffer.get();
+        binary = version>=1 && format==FramedInferenceApiAdapter.FORMAT_BINARY;
+        
+        writes.add(FrameEncoder.encodeHello(FramedInferenceApiAdapter.PROTOCOL_VERSION, 
+                binary ? FramedInferenceApiAdapter.FORMAT_BINARY : FramedInferenceApiAdapter.FORMAT_JSON));
+    }
+    
+    // Called on the selector thread only
+    
+    void flush() throws IOException
+    {
+        ByteBuffer buffer;
+        
+        while((buffer=writes.peek())!=null)
+        {
+            channel.write(buffer);
+            
+            if(buffer.hasRemaining())
+            {
+                break;
+            }
+            
+            writes.poll();
+        }
+        
+        updateInterest();
+    }
+    
+    private void updateInterest() throws IOException
+    {
+        if(!key.isValid())
+        {
+            return;
+        }
+        if(endOfInput && inFlight.get()==0 && writes.isEmpty())
+        {
+            close();
+            return;
+        }
+        
+        // Stop reading while too many requests are outstanding, so a fast client can not queue unbounded work
+        
+        int ops = 0;
+        
+        if(!endOfInput && inFlight.get()<maxInFlight)
+        {
+            ops = ops | SelectionKey.OP_READ;
+        }
+        if(!writes.isEmpty())
+        {
+            ops = ops | SelectionKey.OP_WRITE;
+        }
+        
+        key.interestOps(ops);
+    }
+    
+    // Called from processing threads as requests complete, in any order
+    
+    void send(int requestId, String modelId, InferenceOutcome outcome)
+    {
+        if(binary)
+        {
+            // Labels go out the first time a model answers on this connection, and again if a reload changed them.
+            // Synchronized so a result can not overtake the labels frame it depends on.
+            
+            synchronized(sentLabels)
+            {
+                if(outcome.isSuccess() && sentLabels.get(modelId)!=outcome.getResult().getLabels())
+                {
+                    sentLabels.put(modelId, outcome.getResult().getLabels());
+                    writes.add(FrameEncoder.encodeLabels(modelId, outcome.getResult().getLabels()));
+                }
+                
+                writes.add(FrameEncoder.encodeBinaryResult(requestId, outcome));
+            }
+        }
+        else
+        {
+            writes.add(FrameEncoder.encodeJSONResult(requestId, outcome));
+        }
+        
+        inFlight.decrementAndGet();
+        adapter.requestFlush(this);
+    }
+    
+    void close()
+    {
+        key.cancel();
+        
+        try
+        {
+            channel.close();
+        }
+        catch(IOException e)
+        {
+            adapter.getErrorHandler().accept(e);
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package au.gov.nla.dnn.inference.api.framed;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import au.gov.nla.dnn.inference.InferenceOutcome;
+import au.gov.nla.dnn.inference.InferenceResult;
+import au.gov.nla.dnn.inference.InferenceService;
+import au.gov.nla.dnn.inference.api.InferenceApiAdapter;
+import au.gov.nla.dnn.inference.metrics.AdapterMetrics;
+import au.gov.nla.dnn.inference.metrics.AdapterMetrics.RequestMetrics;
+
+public abstract class FramedInferenceApiAdapter implements InferenceApiAdapter
+{
+    // Every frame is a 4 byte big-endian length followed by that many bytes, starting with the frame type
+    
+    public static final byte FRAME_INFER = 1;
+    public static final byte FRAME_RESULT = 2;
+    public static final byte FRAME_HELLO = 3;
+    public static final byte FRAME_LABELS = 4;
+    public static final byte FRAME_BINARY_RESULT = 5;
+    
+    public static final byte PROTOCOL_VERSION = 1;
+    public static final byte FORMAT_JSON = 0;
+    public static final byte FORMAT_BINARY = 1;
+    
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private ExecutorService selectorService;
+    private AtomicInteger outstanding;
+    private ConcurrentLinkedQueue<FramedConnection> pendingWrites;
+    private InferenceService service;
+    private Consumer<Exception> errorHandler;
+    private AdapterMetrics metrics;
+    private int maxFrameBytes;
+    private int maxInFlight;
+    private long shutdownWaitMax;
+    private volatile boolean stopped;
+    private volatile boolean selecting;
+    
+    protected abstract ServerSocketChannel openServerChannel(Properties properties) throws Exception;
+    protected abstract String getAdapterName();
+    
+    public void initialise(Properties properties, InferenceService service, Consumer<Exception> errorHandler) throws Exception
+    {
+        maxFrameBytes = Integer.parseInt(properties.getProperty("max-frame-bytes", "67108864"));
+        maxInFlight = Integer.parseInt(properties.getProperty("max-in-flight", "256"));
+        shutdownWaitMax = Long.parseLong(properties.getProperty("max-shutdown-delay", "10000"));
+        
+        this.service = service;
+        this.errorHandler = errorHandler;
+        this.pendingWrites = new ConcurrentLinkedQueue<FramedConnection>();
+        this.metrics = new AdapterMetrics(service.getMetrics(), service.getModelIds(), getAdapterName());
+        
+        selectorService = Executors.newSingleThreadExecutor();
+        outstanding = new AtomicInteger();
+        
+        selector = Selector.open();
+        serverChannel = openServerChannel(properties);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        selecting = true;
+        
+        selectorService.execute(new Runnable(){
+            public void run()
+            {
+                select();
+            }
+        });
+    }
+    
+    private void select()
+    {
+        // One thread owns the selector and does all reads and writes, inference runs on the processing pool
+        
+        try
+        {
+            while(selecting)
+            {
+                selector.select();
+                flushPending();
+                
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                
+                while(keys.hasNext())
+                {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    
+                    if(!key.isValid())
+                    {
+                        continue;
+                    }
+                    if(key.isAcceptable())
+                    {
+                        accept();
+                        continue;
+                    }
+                    
+                    FramedConnection connection = (FramedConnection)key.attachment();
+                    
+                    try
+                    {
+                        if(key.isReadable())
+                        {
+                            connection.read();
+                        }
+                        if(key.isValid() && key.isWritable())
+                        {
+                            connection.flush();
+                        }
+                    }
+                    catch(IOException e)
+                    {
+                        connection.close();
+                    }
+                }
+            }
+        }
+        catch(Exception e)
+        {
+            errorHandler.accept(e);
+        }
+        finally
+        {
+            // Best effort for responses completed during shutdown, a partially written frame is abandoned
+            
+            flushPending();
+            
+            for(SelectionKey key: selector.keys())
+            {
+                try
+                {
+                    key.channel().close();
+                }
+                catch(IOException e)
+                {
+                    errorHandler.accept(e);
+                }
+            }
+        }
+    }
+    
+    private void flushPending()
+    {
+        FramedConnection connection;
+        
+        while((connection=pendingWrites.poll())!=null)
+        {
+            try
+            {
+                connection.flush();
+            }
+            catch(IOException e)
+            {
+                connection.close();
+            }
+        }
+    }
+    
+    private void accept() throws IOException
+    {
+        SocketChannel channel = serverChannel.accept();
+        
+        if(channel!=null)
+        {
+            channel.configureBlocking(false);
+            configureChannel(channel);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            key.attach(new FramedConnection(this, channel, key, maxInFlight));
+        }
+    }
+    
+    protected void configureChannel(SocketChannel channel) throws IOException
+    {
+    }
+    
+    void dispatch(FramedConnection connection, int requestId, String modelId, long deadline, byte[] payload)
+    {
+        // Called on the selector thread, which only hands the request over. The response is encoded and queued
+        // on whichever thread completes the inference, as encoding is cheap and writing happens back here.
+        
+        RequestMetrics requestMetrics = metrics.getRequestMetrics(modelId);
+        requestMetrics.getRequests().increment();
+        metrics.getPayloadSize().record(payload.length);
+        long start = System.nanoTime();
+        outstanding.incrementAndGet();
+        
+        service.inferAsync(modelId, payload, deadline).whenComplete(new BiConsumer<InferenceResult, Throwable>(){
+            public void accept(InferenceResult result, Throwable t)
+            {
+                InferenceOutcome outcome = InferenceOutcome.of(result, t);
+                requestMetrics.getLatency().recordSince(start);
+                
+                if(!outcome.isSuccess())
+                {
+                    requestMetrics.getErrors().increment();
+                }
+                
+                connection.send(requestId, modelId, outcome);
+                outstanding.decrementAndGet();
+            }
+        });
+    }
+    
+    void requestFlush(FramedConnection connection)
+    {
+        pendingWrites.add(connection);
+        selector.wakeup();
+    }
+    
+    int getMaxFrameBytes()
+    {
+        return maxFrameBytes;
+    }
+    
+    Consumer<Exception> getErrorHandler()
+    {
+        return errorHandler;
+    }
+    
+    public void dispose() throws Exception
+    {
+        if(!stopped)
+        {
+            stopped = true;
+            serverChannel.close();
+            
+            // Let running requests finish, then stop the selector once their responses have had a chance to be written
+            
+            long waitUntil = System.currentTimeMillis()+shutdownWaitMax;
+            
+            while(outstanding.get()>0 && System.currentTimeMillis()<waitUntil)
+            {
+                Thread.sleep(10);
+            }
+            
+            selecting = false;
+            selector.wakeup();
+            selectorService.shutdown();
+            selectorService.awaitTermination(shutdownWaitMax, TimeUnit.MILLISECONDS);
+            selector.close();
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package au.gov.nla.dnn.inference.api.framed;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Properties;
+
+public class FramedSocketInferenceApiAdapter extends FramedInferenceApiAdapter
+{
+    protected ServerSocketChannel openServerChannel(Properties properties) throws Exception
+    {
+        String hostName = properties.getProperty("host", "");
+        int port = Integer.parseInt(properties.getProperty("port", "2902"));
+        int backlog = Integer.parseInt(properties.getProperty("backlog", "100"));
+        
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        channel.bind((hostName.isEmpty() ? new InetSocketAddress(port) : new InetSocketAddress(hostName, port)), backlog);
+        return channel;
+    }
+    
+    protected void configureChannel(SocketChannel channel) throws IOException
+    {
+        // Responses are small and written as whole frames, so waiting to coalesce them only adds latency
+        
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+    }
+    
+    protected String getAdapterName()
+    {
+        return "framed-socket";
+    }
+}
@@ -0,0 +1,73 @@
+package au.gov.nla.dnn.inference.api.framed;
+
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Properties;
+
+public class UnixDomainSocketInferenceApiAdapter extends FramedInferenceApiAdapter
+{
+    private Path socketPath;
+    
+    protected ServerSocketChannel openServerChannel(Properties properties) throws Exception
+    {
+        String path = properties.getProperty("path");
+        int backlog = Integer.parseInt(properties.getProperty("backlog", "100"));
+        String permissions = properties.getProperty("permissions", "");
+        
+        if(path==null || path.isBlank())
+        {
+            throw new IllegalArgumentException("The path property is required by the Unix domain socket adapter.");
+        }
+        
+        // Unix domain socket channels arrived in Java 16, looked up reflectively so the rest of the server still runs on Java 11
+        
+        ProtocolFamily unix;
+        SocketAddress address;
+        ServerSocketChannel channel;
+        
+        try
+        {
+            unix = StandardProtocolFamily.valueOf("UNIX");
+            address = (SocketAddress)Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", String.class).invoke(null, path);
+            channel = (ServerSocketChannel)ServerSocketChannel.class.getMethod("open", ProtocolFamily.class).invoke(null, unix);
+        }
+        catch(IllegalArgumentException | ReflectiveOperationException e)
+        {
+            throw new UnsupportedOperationException("Unix domain sockets require Java 16 or later.", e);
+        }
+        
+        // A socket file left behind by a previous process would make the bind fail
+        
+        socketPath = Paths.get(path);
+        Files.deleteIfExists(socketPath);
+        channel.bind(address, backlog);
+        
+        if(!permissions.isEmpty())
+        {
+            Files.setPosixFilePermissions(socketPath, PosixFilePermissions.fromString(permissions));
+        }
+        
+        return channel;
+    }
+    
+    protected String getAdapterName()
+    {
+        return "unix-socket";
+    }
+    
+    public void dispose() throws Exception
+    {
+        super.dispose();
+        
+        if(socketPath!=null)
+        {
+            Files.deleteIfExists(socketPath);
+        }
+    }
+}
@@ -1,22 +1,37 @@
 package au.gov.nla.dnn.inference.api.http;
 
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Properties;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.DoubleSupplier;
 
 import org.json.JSONObject;
 
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpServer;
+import au.gov.nla.dnn.inference.InferenceOutcome;
+import au.gov.nla.dnn.inference.InferenceResponseWriter;
 import au.gov.nla.dnn.inference.InferenceResult;
 import au.gov.nla.dnn.inference.InferenceService;
+import au.gov.nla.dnn.inference.OverloadedException;
 import au.gov.nla.dnn.inference.api.InferenceApiAdapter;
+import au.gov.nla.dnn.inference.api.VirtualThreads;
+import au.gov.nla.dnn.inference.metrics.AdapterMetrics;
+import au.gov.nla.dnn.inference.metrics.AdapterMetrics.RequestMetrics;
 
 @SuppressWarnings("restriction")
 public class HTTPInferenceApiAdapter implements InferenceApiAdapter
@@ -29,6 +44,11 @@ public class HTTPInferenceApiAdapter implements InferenceApiAdapter
     private boolean allowCors;
     private String corsAllowedHosts;
     private String corsAllowedHeaders;
+    private int maxBatchRecords;
+    private int maxRecordBytes;
+    private long maxBatchBytes;
+    private boolean allowReload;
+    private AdapterMetrics metrics;
     
     public void initialise(Properties properties, InferenceService service, Consumer<Exception> errorHandler) throws Exception
     {
@@ -40,67 +60,178 @@ public class HTTPInferenceApiAdapter implements InferenceApiAdapter
         allowCors = Boolean.parseBoolean(properties.getProperty("cors-allowed", "false"));
         corsAllowedHosts = properties.getProperty("cors-allowed-hosts", "");
         corsAllowedHeaders = properties.getProperty("cors-allowed-headers", "");
+        maxBatchRecords = Integer.parseInt(properties.getProperty("max-batch-records", "10000"));
+        maxRecordBytes = Integer.parseInt(properties.getProperty("max-record-bytes", "67108864"));
+        maxBatchBytes = Long.parseLong(properties.getProperty("max-batch-bytes", "268435456"));
+        allowReload = Boolean.parseBoolean(properties.getProperty("reload-allowed", "false"));
+        boolean virtualThreads = Boolean.parseBoolean(properties.getProperty("virtual-threads", "false"));
         
-        ExecutorService executor = threadPoolSize == 0 ? Executors.newCachedThreadPool():Executors.newFixedThreadPool(threadPoolSize);
+        metrics = new AdapterMetrics(service.getMetrics(), service.getModelIds(), "http");
+        
+        ExecutorService executor;
+        
+        if(virtualThreads)
+        {
+            // A virtual thread per exchange, so slow uploads only park cheap threads. Featurisation and forward
+            // passes still run on the server's bounded pools, the only platform threads doing CPU work.
+            
+            executor = VirtualThreads.newPerTaskExecutor();
+        }
+        else
+        {
+            ThreadPoolExecutor pool = (ThreadPoolExecutor)(threadPoolSize == 0 ? Executors.newCachedThreadPool():Executors.newFixedThreadPool(threadPoolSize));
+            executor = pool;
+            
+            service.getMetrics().gauge("dnn_inference_executor_queue_depth", "Requests waiting for an adapter thread.", new DoubleSupplier(){
+                public double getAsDouble()
+                {
+                    return pool.getQueue().size();
+                }
+            }, "adapter", "http");
+        }
 
         server = HttpServer.create((hostName.isEmpty() ? new InetSocketAddress(port) : new InetSocketAddress(hostName, port)), backlog);
         server.setExecutor(executor);
         
-        server.createContext("infer", new HttpHandler(){
+        server.createContext("/infer", new HttpHandler(){
             public void handle(HttpExchange exchange) throws IOException
             {
                 try
                 {
-                    if(allowCors)
+                    String modelId = startExchange(exchange);
+                    
+                    if(modelId==null)
+                    {
+                        return;
+                    }
+                    
+                    RequestMetrics requestMetrics = metrics.getRequestMetrics(modelId);
+                    requestMetrics.getRequests().increment();
+                    
+                    long deadline;
+                    byte[] payload;
+                    int topK;
+                    double minScore;
+                    
+                    try
                     {
-                        exchange.getResponseHeaders().put("Access-Control-Allow-Headers", Arrays.asList(corsAllowedHeaders));
-                        exchange.getResponseHeaders().put("Access-Control-Allow-Origin", Arrays.asList(corsAllowedHosts));
+                        deadline = getDeadline(exchange);
+                        topK = getTopK(exchange);
+                        minScore = getMinScore(exchange);
+                        payload = getPayload(exchange);
+                        metrics.getPayloadSize().record(payload.length);
                     }
-                    if(exchange.getRequestMethod().equals("OPTIONS"))
+                    catch(Exception e)
                     {
-                        if(allowCors)
-                        {
-                            exchange.sendResponseHeaders(200, 0);
-                            exchange.close();
-                            return;
-                        }
-                        else
+                        requestMetrics.getErrors().increment();
+                        sendResponse(exchange, 200, InferenceResponseWriter.acquire().writeFailure(e));
+                        return;
+                    }
+                    
+                    // This thread is released while the record is featurised and run, the response is sent from an adapter thread when it completes
+                    
+                    long start = System.nanoTime();
+                    
+                    service.inferAsync(modelId, payload, deadline).whenCompleteAsync(new BiConsumer<InferenceResult, Throwable>(){
+                        public void accept(InferenceResult result, Throwable t)
                         {
-                            exchange.sendResponseHeaders(400, 0);
-                            exchange.close();
-                            return;
+                            InferenceOutcome outcome = InferenceOutcome.of(result, t);
+                            requestMetrics.getLatency().recordSince(start);
+                            
+                            if(!outcome.isSuccess())
+                            {
+                                requestMetrics.getErrors().increment();
+                            }
+                            
+                            try
+                            {
+                                sendResponse(exchange, outcome.getException() instanceof OverloadedException ? 503 : 200, 
+                                        InferenceResponseWriter.acquire().writeOutcome(outcome, topK, minScore));
+                            }
+                            catch(Exception e)
+                            {
+                                exchange.close();
+                                errorHandler.accept(e);
+                            }
                         }
-                    }
+                    }, executor);
                     
-                    String modelId = exchange.getRequestHeaders().getFirst("dnn-model-id");
+                    return;
+                }
+                catch(Exception e)
+                {
+                    exchange.sendResponseHeaders(500, 0);
+                    exchange.close();
+                    errorHandler.accept(e);
+                    throw new IOException(e);
+                }
+            }
+        });
+        
+        server.createContext("/infer-batch", new HttpHandler(){
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                try
+                {
+                    String modelId = startExchange(exchange);
                     
-                    if(modelId==null || modelId.isBlank())
+                    if(modelId==null)
                     {
-                        exchange.sendResponseHeaders(400, 0);
-                        exchange.close();
-                        throw new IOException("Missing header: dnn-model-id");
+                        return;
                     }
                     
-                    JSONObject response = new JSONObject();
+                    // Request body is a sequence of records, each prefixed by its length as a 4 byte big-endian integer.
+                    // Response body is one JSON document per line, in the same order as the records.
+                    
+                    RequestMetrics requestMetrics = metrics.getRequestMetrics(modelId);
+                    requestMetrics.getRequests().increment();
+                    InferenceResponseWriter writer;
+                    int status = 200;
+                    long start = 0;
                     
                     try
                     {
-                        InferenceResult result = service.infer(modelId, getPayload(exchange));
-                        response.put("success", true);
-                        response.put("result", result.toJSON());
+                        // Headers are checked first so a malformed one does not cost a batch of forward passes
+                        
+                        long deadline = getDeadline(exchange);
+                        int topK = getTopK(exchange);
+                        double minScore = getMinScore(exchange);
+                        List<byte[]> records = getBatchPayload(exchange);
+                        start = System.nanoTime();
+                        
+                        List<InferenceOutcome> outcomes = service.inferBatch(modelId, records, deadline);
+                        writer = InferenceResponseWriter.acquire();
+                        
+                        for(InferenceOutcome outcome: outcomes)
+                        {
+                            writer.writeOutcome(outcome, topK, minScore).writeNewline();
+                        }
+                    }
+                    catch(OverloadedException e)
+                    {
+                        requestMetrics.getErrors().increment();
+                        writer = InferenceResponseWriter.acquire().writeFailure(e).writeNewline();
+                        status = 503;
+                    }
+                    catch(InvalidPayloadException e)
+                    {
+                        requestMetrics.getErrors().increment();
+                        writer = InferenceResponseWriter.acquire().writeFailure(e).writeNewline();
+                        status = e.getStatus();
                     }
                     catch(Exception e)
                     {
-                        response.put("success", false);
-                        response.put("exception", e.getClass().getName()+": "+e.getMessage());
+                        requestMetrics.getErrors().increment();
+                        writer = InferenceResponseWriter.acquire().writeFailure(e).writeNewline();
                     }
                     
-                    byte[] bytes = response.toString().getBytes();
+                    if(start>0)
+                    {
+                        requestMetrics.getLatency().recordSince(start);
+                    }
                     
-                    exchange.sendResponseHeaders(200, bytes.length);
-                    exchange.getResponseBody().write(bytes);
-                    exchange.getResponseBody().flush();
-                    exchange.close();
+                    exchange.getResponseHeaders().put("Content-Type", Arrays.asList("application/x-ndjson"));
+                    sendResponse(exchange, status, writer);
                     return;
                 }
                 catch(Exception e)
@@ -111,27 +242,230 @@ public class HTTPInferenceApiAdapter implements InferenceApiAdapter
                     throw new IOException(e);
                 }
             }
-            
-            private byte[] getPayload(HttpExchange exchange) throws IOException
+        });
+        
+        server.createContext("/metrics", new HttpHandler(){
+            public void handle(HttpExchange exchange) throws IOException
             {
-                try(ByteArrayOutputStream buffer = new ByteArrayOutputStream())
+                try
                 {
-                    int nRead;
-                    byte[] data = new byte[BYTE_BUFFER_SIZE];
-
-                    while((nRead=exchange.getRequestBody().read(data, 0, data.length))!=-1)
-                    {
-                        buffer.write(data, 0, nRead);
-                    }
-
-                    return buffer.toByteArray();
+                    byte[] bytes = service.getMetrics().toPrometheus().getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().put("Content-Type", Arrays.asList("text/plain; version=0.0.4; charset=utf-8"));
+                    sendResponse(exchange, bytes);
+                }
+                catch(Exception e)
+                {
+                    exchange.sendResponseHeaders(500, 0);
+                    exchange.close();
+                    errorHandler.accept(e);
+                    throw new IOException(e);
                 }
             }
         });
         
+        if(allowReload)
+        {
+            server.createContext("/reload", new HttpHandler(){
+                public void handle(HttpExchange exchange) throws IOException
+                {
+                    try
+                    {
+                        String modelId = startExchange(exchange);
+                        
+                        if(modelId==null)
+                        {
+                            return;
+                        }
+                        
+                        // Responds once the new model has been loaded, warmed up, and swapped in
+                        
+                        JSONObject response = new JSONObject();
+                        
+                        try
+                        {
+                            service.reload(modelId);
+                            response.put("success", true);
+                        }
+                        catch(Exception e)
+                        {
+                            response.put("success", false);
+                            response.put("exception", e.getClass().getName()+": "+e.getMessage());
+                        }
+                        
+                        sendResponse(exchange, response.toString().getBytes(StandardCharsets.UTF_8));
+                        return;
+                    }
+                    catch(Exception e)
+                    {
+                        exchange.sendResponseHeaders(500, 0);
+                        exchange.close();
+                        errorHandler.accept(e);
+                        throw new IOException(e);
+                    }
+                }
+            });
+        }
+        
         server.start();
     }
     
+    private String startExchange(HttpExchange exchange) throws IOException
+    {
+        if(allowCors)
+        {
+            exchange.getResponseHeaders().put("Access-Control-Allow-Headers", Arrays.asList(corsAllowedHeaders));
+            exchange.getResponseHeaders().put("Access-Control-Allow-Origin", Arrays.asList(corsAllowedHosts));
+        }
+        if(exchange.getRequestMethod().equals("OPTIONS"))
+        {
+            exchange.sendResponseHeaders(allowCors ? 200 : 400, 0);
+            exchange.close();
+            return null;
+        }
+        
+        String modelId = exchange.getRequestHeaders().getFirst("dnn-model-id");
+        
+        if(modelId==null || modelId.isBlank())
+        {
+            exchange.sendResponseHeaders(400, 0);
+            exchange.close();
+            throw new IOException("Missing header: dnn-model-id");
+        }
+        
+        return modelId;
+    }
+    
+    private int getTopK(HttpExchange exchange)
+    {
+        String value = exchange.getRequestHeaders().getFirst("dnn-top-k");
+        return value==null || value.isBlank() ? 0 : Integer.parseInt(value.trim());
+    }
+    
+    private double getMinScore(HttpExchange exchange)
+    {
+        String value = exchange.getRequestHeaders().getFirst("dnn-min-score");
+        return value==null || value.isBlank() ? Double.NEGATIVE_INFINITY : Double.parseDouble(value.trim());
+    }
+    
+    private long getDeadline(HttpExchange exchange)
+    {
+        // Relative to when the request reached a handler thread, 0 means no deadline
+        
+        String value = exchange.getRequestHeaders().getFirst("dnn-deadline-millis");
+        return value==null || value.isBlank() ? 0 : System.nanoTime()+TimeUnit.MILLISECONDS.toNanos(Long.parseLong(value.trim()));
+    }
+    
+    private void sendResponse(HttpExchange exchange, int status, InferenceResponseWriter writer) throws IOException
+    {
+        try
+        {
+            exchange.sendResponseHeaders(status, writer.getLength());
+            writer.writeTo(exchange.getResponseBody());
+            exchange.getResponseBody().flush();
+            exchange.close();
+        }
+        finally
+        {
+            writer.release();
+        }
+    }
+    
+    private void sendResponse(HttpExchange exchange, byte[] bytes) throws IOException
+    {
+        exchange.sendResponseHeaders(200, bytes.length);
+        exchange.getResponseBody().write(bytes);
+        exchange.getResponseBody().flush();
+        exchange.close();
+    }
+    
+    private byte[] getPayload(HttpExchange exchange) throws IOException
+    {
+        try(ByteArrayOutputStream buffer = new ByteArrayOutputStream())
+        {
+            int nRead;
+            byte[] data = new byte[BYTE_BUFFER_SIZE];
+
+            while((nRead=exchange.getRequestBody().read(data, 0, data.length))!=-1)
+            {
+                buffer.write(data, 0, nRead);
+            }
+
+            return buffer.toByteArray();
+        }
+    }
+    
+    private List<byte[]> getBatchPayload(HttpExchange exchange) throws IOException
+    {
+        List<byte[]> records = new ArrayList<byte[]>();
+        DataInputStream in = new DataInputStream(exchange.getRequestBody());
+        long payloadSize = 0;
+        
+        while(true)
+        {
+            int length;
+            
+            try
+            {
+                length = in.readInt();
+            }
+            catch(EOFException e)
+            {
+                metrics.getPayloadSize().record(payloadSize);
+                return records;
+            }
+            
+            // Lengths come from the client, so they are checked before anything is allocated for them
+            
+            if(length<0)
+            {
+                throw new InvalidPayloadException(400, "Invalid record length: "+length);
+            }
+            if(records.size()==maxBatchRecords)
+            {
+                throw new InvalidPayloadException(413, "Batch exceeds the maximum of "+maxBatchRecords+" records.");
+            }
+            if(length>maxRecordBytes)
+            {
+                throw new InvalidPayloadException(413, "Record of "+length+" bytes exceeds the maximum of "+maxRecordBytes+" bytes.");
+            }
+            if(payloadSize+4+length>maxBatchBytes)
+            {
+                throw new InvalidPayloadException(413, "Batch exceeds the maximum of "+maxBatchBytes+" bytes.");
+            }
+            
+            byte[] record = new byte[length];
+            
+            try
+            {
+                in.readFully(record);
+            }
+            catch(EOFException e)
+            {
+                throw new InvalidPayloadException(400, "Request body ends part way through a record.");
+            }
+            
+            records.add(record);
+            payloadSize = payloadSize+4+length;
+        }
+    }
+    
+    private static class InvalidPayloadException extends IOException
+    {
+        private static final long serialVersionUID = 1L;
+        private int status;
+        
+        private InvalidPayloadException(int status, String message)
+        {
+            super(message);
+            this.status = status;
+        }
+        
+        private int getStatus()
+        {
+            return status;
+        }
+    }
+    
     public void dispose() throws Exception
     {
         server.stop(shutdownDelay<=0 ? Integer.MAX_VALUE:shutdownDelay);
@@ -1,33 +1,48 @@
 package au.gov.nla.dnn.inference.api.socket;
 
-import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.nio.charset.StandardCharsets;
 import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
-import org.json.JSONObject;
+import java.util.function.DoubleSupplier;
+import au.gov.nla.dnn.inference.InferenceOutcome;
+import au.gov.nla.dnn.inference.InferenceResponseWriter;
 import au.gov.nla.dnn.inference.InferenceResult;
 import au.gov.nla.dnn.inference.InferenceService;
+import au.gov.nla.dnn.inference.OverloadedException;
 import au.gov.nla.dnn.inference.api.InferenceApiAdapter;
+import au.gov.nla.dnn.inference.api.VirtualThreads;
+import au.gov.nla.dnn.inference.metrics.AdapterMetrics;
+import au.gov.nla.dnn.inference.metrics.AdapterMetrics.RequestMetrics;
 
 public class SocketInferenceApiAdapter implements InferenceApiAdapter
 {
     private static final int BYTE_BUFFER_SIZE = 1024;
+    private static final int MAX_HEADER_LENGTH = 4096;
     
     private ServerSocket serverSocket;
     private ExecutorService listenService;
     private ExecutorService processingService;
+    private ExecutorService writerService;
+    private Executor writerExecutor;
     private long shutdownWaitMax;
     private boolean stopped;
+    private AdapterMetrics metrics;
     
     public void initialise(Properties properties, InferenceService service, Consumer<Exception> errorHandler) throws Exception
     {
@@ -35,10 +50,57 @@ public class SocketInferenceApiAdapter implements InferenceApiAdapter
         int port = Integer.parseInt(properties.getProperty("port", "2901"));
         int backlog = Integer.parseInt(properties.getProperty("backlog", "100"));
         int threadPoolSize = Integer.parseInt(properties.getProperty("thread-pool", "10"));
+        int queueCapacity = Integer.parseInt(properties.getProperty("queue-capacity", "0"));
+        boolean virtualThreads = Boolean.parseBoolean(properties.getProperty("virtual-threads", "false"));
         shutdownWaitMax = Long.parseLong(properties.getProperty("max-shutdown-delay", "10000"));
         
         listenService = Executors.newSingleThreadExecutor();
-        processingService = threadPoolSize==0?Executors.newCachedThreadPool():Executors.newFixedThreadPool(threadPoolSize);
+        
+        metrics = new AdapterMetrics(service.getMetrics(), service.getModelIds(), "socket");
+        
+        if(virtualThreads)
+        {
+            // A virtual thread per connection, so slow clients only park cheap threads. Featurisation and forward
+            // passes still run on the server's bounded pools, the only platform threads doing CPU work.
+            
+            processingService = VirtualThreads.newPerTaskExecutor();
+            writerService = VirtualThreads.newPerTaskExecutor();
+        }
+        else
+        {
+            // A bounded queue turns overload into immediate rejections instead of unbounded latency
+            
+            ThreadPoolExecutor executor = threadPoolSize==0 ? (ThreadPoolExecutor)Executors.newCachedThreadPool() : 
+                new ThreadPoolExecutor(threadPoolSize, threadPoolSize, 0L, TimeUnit.MILLISECONDS, 
+                    queueCapacity>0 ? new ArrayBlockingQueue<Runnable>(queueCapacity) : new LinkedBlockingQueue<Runnable>());
+            processingService = executor;
+            writerService = threadPoolSize==0 ? Executors.newCachedThreadPool() : Executors.newFixedThreadPool(threadPoolSize);
+            
+            service.getMetrics().gauge("dnn_inference_executor_queue_depth", "Requests waiting for an adapter thread.", new DoubleSupplier(){
+                public double getAsDouble()
+                {
+                    return executor.getQueue().size();
+                }
+            }, "adapter", "socket");
+        }
+        
+        // Responses are written on the adapter's own threads, never on the model threads which complete inference.
+        // The writer queue is unbounded, so only a shut down pool rejects, and then the response is written directly.
+        
+        writerExecutor = new Executor(){
+            public void execute(Runnable task)
+            {
+                try
+                {
+                    writerService.execute(task);
+                }
+                catch(RejectedExecutionException e)
+                {
+                    task.run();
+                }
+            }
+        };
+        
         serverSocket = new ServerSocket(port, backlog, InetAddress.getByName(hostName));
         
         listenService.execute(new Runnable(){
@@ -49,13 +111,21 @@ public class SocketInferenceApiAdapter implements InferenceApiAdapter
                     while(!stopped)
                     {
                         Socket socket = serverSocket.accept();
+                        long accepted = System.nanoTime();
                         
-                        processingService.execute(new Runnable() {
-                            public void run()
-                            {
-                                process(socket, service, errorHandler);
-                            }
-                        });
+                        try
+                        {
+                            processingService.execute(new Runnable() {
+                                public void run()
+                                {
+                                    process(socket, accepted, service, errorHandler);
+                                }
+                            });
+                        }
+                        catch(RejectedExecutionException e)
+                        {
+                            reject(socket, errorHandler);
+                        }
                     }
                 }
                 catch(Exception e)
@@ -66,31 +136,65 @@ public class SocketInferenceApiAdapter implements InferenceApiAdapter
         });
     }
     
-    private void process(Socket socket, InferenceService service, Consumer<Exception> errorHandler)
+    private void process(Socket socket, long accepted, InferenceService service, Consumer<Exception> errorHandler)
     {
+        RequestMetrics requestMetrics = null;
+        
         try
         {
-            try(BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream())))
-            {
-                JSONObject response = new JSONObject();
-                
-                try
-                {
-                    InferenceResult result = service.infer(reader.readLine(), getPayload(socket.getInputStream()));
-                    response.put("success", true);
-                    response.put("result", result.toJSON());
-                }
-                catch(Exception e)
+            // Header line is the model ID, optionally followed by a tab and a deadline in milliseconds from connection
+            
+            String[] header = readHeader(socket.getInputStream()).split("\\t", 2);
+            String modelId = header[0];
+            requestMetrics = metrics.getRequestMetrics(modelId);
+            requestMetrics.getRequests().increment();
+            
+            long deadline = header.length>1 ? accepted+TimeUnit.MILLISECONDS.toNanos(Long.parseLong(header[1].trim())) : 0;
+            byte[] payload = getPayload(socket.getInputStream());
+            metrics.getPayloadSize().record(payload.length);
+            long start = System.nanoTime();
+            RequestMetrics modelMetrics = requestMetrics;
+            
+            // This thread moves on to the next connection, the response is written from a writer thread once inference completes
+            
+            service.inferAsync(modelId, payload, deadline).whenCompleteAsync(new BiConsumer<InferenceResult, Throwable>(){
+                public void accept(InferenceResult result, Throwable t)
                 {
-                    response.put("success", false);
-                    response.put("exception", e.getClass().getName()+": "+e.getMessage());
+                    InferenceOutcome outcome = InferenceOutcome.of(result, t);
+                    modelMetrics.getLatency().recordSince(start);
+                    
+                    if(!outcome.isSuccess())
+                    {
+                        modelMetrics.getErrors().increment();
+                    }
+                    
+                    respond(socket, InferenceResponseWriter.acquire().writeOutcome(outcome, 0, Double.NEGATIVE_INFINITY), errorHandler);
                 }
-                
-                socket.getOutputStream().write(response.toString().getBytes(StandardCharsets.UTF_8));
+            }, writerExecutor);
+        }
+        catch(Exception e)
+        {
+            if(requestMetrics!=null)
+            {
+                requestMetrics.getErrors().increment();
+            }
+            
+            respond(socket, InferenceResponseWriter.acquire().writeFailure(e), errorHandler);
+        }
+    }
+    
+    private void respond(Socket socket, InferenceResponseWriter writer, Consumer<Exception> errorHandler)
+    {
+        try
+        {
+            try
+            {
+                writer.writeTo(socket.getOutputStream());
                 socket.getOutputStream().flush();
             }
             finally
             {
+                writer.release();
                 socket.close();
             }
         }
@@ -100,6 +204,36 @@ public class SocketInferenceApiAdapter implements InferenceApiAdapter
         }
     }
     
+    private void reject(Socket socket, Consumer<Exception> errorHandler)
+    {
+        respond(socket, InferenceResponseWriter.acquire().writeFailure(new OverloadedException("Socket adapter queue is full.")), errorHandler);
+    }
+    
+    private String readHeader(InputStream in) throws IOException
+    {
+        // Read byte by byte so nothing after the line is buffered away from the payload
+        
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        int b;
+        
+        while((b=in.read())!='\n')
+        {
+            if(b==-1)
+            {
+                throw new EOFException("Connection closed before the header line was complete.");
+            }
+            if(buffer.size()==MAX_HEADER_LENGTH)
+            {
+                throw new IOException("Header line exceeds "+MAX_HEADER_LENGTH+" bytes.");
+            }
+            
+            buffer.write(b);
+        }
+        
+        String header = new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+        return header.endsWith("\r") ? header.substring(0, header.length()-1) : header;
+    }
+    
     private byte[] getPayload(InputStream in) throws IOException
     {
         try(ByteArrayOutputStream buffer = new ByteArrayOutputStream())
@@ -127,6 +261,9 @@ public class SocketInferenceApiAdapter implements InferenceApiAdapter
             
             processingService.shutdown();
             processingService.awaitTermination(shutdownWaitMax, TimeUnit.MILLISECONDS);  
+            
+            writerService.shutdown();
+            writerService.awaitTermination(shutdownWaitMax, TimeUnit.MILLISECONDS);
         }
     }
 }
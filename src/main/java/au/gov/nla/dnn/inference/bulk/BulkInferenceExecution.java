@@ -0,0 +1,292 @@
+package au.gov.nla.dnn.inference.bulk;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import org.json.JSONObject;
+
+import au.gov.nla.dnn.inference.InferenceLabels;
+import au.gov.nla.dnn.inference.InferenceOutcome;
+import au.gov.nla.dnn.inference.InferenceResponseWriter;
+import au.gov.nla.dnn.inference.InferenceResult;
+import au.gov.nla.dnn.inference.ModelReplicaPool;
+import au.gov.nla.dnn.inference.metrics.MetricsRegistry;
+import au.gov.nla.dnn.inference.metrics.ModelMetrics;
+import au.gov.nla.dnn.model.SerializedModelState;
+import au.gov.nla.dnn.record.RawDataRecord;
+import au.gov.nla.dnn.record.RawDataRecordProvider;
+import au.gov.nla.dnn.sequence.InputSequenceInstance;
+import au.gov.nla.dnn.sequence.SequenceDataRecord;
+
+public class BulkInferenceExecution
+{
+    public static final int BINARY_MAGIC = 0x444E4E42; // "DNNB"
+    public static final int BINARY_VERSION = 1;
+    
+    private boolean binary;
+    private int topK;
+    private double minScore;
+    private ModelReplicaPool pool;
+    private InputSequenceInstance sequence;
+    private InferenceLabels labels;
+    
+    public void execute(JSONObject config, String outputFile) throws Exception
+    {
+        Consumer<Exception> errorHandler = new Consumer<Exception>(){
+            public void accept(Exception e)
+            {
+                e.printStackTrace();
+            }
+        };
+        
+        int threads = config.optInt("threads", Runtime.getRuntime().availableProcessors());
+        int batchSize = config.optInt("batch-size", 32);
+        long checkpointInterval = config.optLong("checkpoint-interval", 10000);
+        binary = config.optString("output-format", "jsonl").equals("binary");
+        topK = config.optInt("top-k", 0);
+        minScore = config.optDouble("min-score", Double.NEGATIVE_INFINITY);
+        
+        System.out.println("Loading model...");
+        
+        // The replicas are used directly, bulk mode batches its own records and needs none of the serving machinery
+        
+        SerializedModelState state = SerializedModelState.read(new File(config.getString("model-file")));
+        pool = ModelReplicaPool.create(state.createModelInstance(), threads, new ModelMetrics(new MetricsRegistry(), "bulk"));
+        sequence = state.getSequenceInstance();
+        labels = new InferenceLabels(state.getLabels());
+        
+        RawDataRecordProvider recordProvider = (RawDataRecordProvider)Class.forName(config.getString("record-provider")).getConstructor().newInstance();
+        recordProvider.initialise(config.getJSONObject("record-provider-config"), Arrays.asList(labels.getLabels()), errorHandler);
+        
+        // Progress is only recorded once the output up to that point has been flushed, so resuming truncates
+        // the output back to the last checkpoint and skips the records which were written before it
+        
+        File output = new File(outputFile);
+        File checkpoint = new File(outputFile+".checkpoint");
+        long record = 0;
+        long offset = 0;
+        
+        if(checkpoint.exists())
+        {
+            JSONObject progress = new JSONObject(new String(Files.readAllBytes(checkpoint.toPath()), StandardCharsets.UTF_8));
+            record = progress.getLong("records");
+            offset = progress.getLong("bytes");
+            
+            try(RandomAccessFile file = new RandomAccessFile(output, "rw"))
+            {
+                file.setLength(offset);
+            }
+            
+            System.out.println("Resuming from record "+record+".");
+            
+            for(long i=0; i<record && recordProvider.hasMoreRecords(); i++)
+            {
+                recordProvider.getNextRecord();
+            }
+        }
+        else
+        {
+            Files.deleteIfExists(output.toPath());
+        }
+        
+        // Batches are featurised and scored in parallel, and written in submission order so output order matches the corpus
+        
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+        ArrayDeque<Integer> pendingSizes = new ArrayDeque<Integer>();
+        long resumedAt = record;
+        long written = record;
+        long lastCheckpoint = record;
+        long start = System.currentTimeMillis();
+        
+        try(FileOutputStream fileOut = new FileOutputStream(output, true);
+                BufferedOutputStream out = new BufferedOutputStream(fileOut, 1024*1024))
+        {
+            if(offset==0 && binary)
+            {
+                // Counted in the offset, checkpoints record the length of the whole file
+                
+                byte[] header = createBinaryHeader(labels.getLabels());
+                out.write(header);
+                offset = header.length;
+            }
+            
+            while(recordProvider.hasMoreRecords() || !pending.isEmpty())
+            {
+                if(recordProvider.hasMoreRecords() && pending.size()<threads*2)
+                {
+                    List<byte[]> batch = new ArrayList<byte[]>(batchSize);
+                    
+                    while(batch.size()<batchSize && recordProvider.hasMoreRecords())
+                    {
+                        batch.add(recordProvider.getNextRecord().getData());
+                    }
+                    
+                    long first = record;
+                    record = record+batch.size();
+                    
+                    pending.add(executor.submit(new Callable<byte[]>(){
+                        public byte[] call() throws Exception
+                        {
+                            return process(first, batch);
+                        }
+                    }));
+                    pendingSizes.add(batch.size());
+                    
+                    continue;
+                }
+                
+                byte[] bytes = pending.poll().get();
+                out.write(bytes);
+                offset = offset+bytes.length;
+                written = written+pendingSizes.poll();
+                
+                if(written-lastCheckpoint>=checkpointInterval)
+                {
+                    out.flush();
+                    fileOut.getFD().sync();
+                    saveCheckpoint(checkpoint, written, offset);
+                    lastCheckpoint = written;
+                    
+                    long elapsed = Math.max(System.currentTimeMillis()-start, 1);
+                    System.out.println("Processed "+written+" records ("+((written-resumedAt)*1000/elapsed)+" records/s).");
+                }
+            }
+            
+            out.flush();
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+        
+        Files.deleteIfExists(checkpoint.toPath());
+        System.out.println("Bulk inference complete. "+written+" records written to "+outputFile+".");
+    }
+    
+    private byte[] process(long first, List<byte[]> batch) throws Exception
+    {
+        // Featurisation failures are reported against their own record, the rest share forward passes
+        
+        InferenceOutcome[] outcomes = new InferenceOutcome[batch.size()];
+        List<SequenceDataRecord> features = new ArrayList<SequenceDataRecord>(batch.size());
+        List<Integer> featureIndexes = new ArrayList<Integer>(batch.size());
+        
+        for(int i=0; i<batch.size(); i++)
+        {
+            try
+            {
+                features.add(sequence.process(new RawDataRecord(batch.get(i), new double[labels.size()])));
+                featureIndexes.add(i);
+            }
+            catch(Exception e)
+            {
+                outcomes[i] = new InferenceOutcome(e);
+            }
+        }
+        
+        double[][] results = features.isEmpty() ? new double[0][] : pool.inferBatch(features.toArray(new SequenceDataRecord[features.size()]));
+        
+        for(int i=0; i<results.length; i++)
+        {
+            outcomes[featureIndexes.get(i)] = new InferenceOutcome(new InferenceResult(labels, results[i]));
+        }
+        
+        return binary ? encodeBinary(first, outcomes) : encodeJSONL(first, outcomes);
+    }
+    
+    private byte[] encodeJSONL(long first, InferenceOutcome[] outcomes)
+    {
+        InferenceResponseWriter writer = InferenceResponseWriter.acquire();
+        
+        for(int i=0; i<outcomes.length; i++)
+        {
+            writer.writeRecordOutcome(first+i, outcomes[i], topK, minScore).writeNewline();
+        }
+        
+        byte[] bytes = Arrays.copyOf(writer.getBuffer(), writer.getLength());
+        writer.release();
+        return bytes;
+    }
+    
+    private byte[] encodeBinary(long first, InferenceOutcome[] outcomes) throws Exception
+    {
+        // Per record: record number (8 bytes), status (1 byte), then the best label index (4 bytes) and float32
+        // scores in label order on success, or the UTF-8 failure message prefixed by its length (4 bytes)
+        
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(outcomes.length*64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        
+        for(int i=0; i<outcomes.length; i++)
+        {
+            out.writeLong(first+i);
+            
+            if(outcomes[i].isSuccess())
+            {
+                InferenceResult result = outcomes[i].getResult();
+                double[] scores = result.getScoreArray();
+                out.writeByte(0);
+                out.writeInt(result.getHighestIndex());
+                
+                for(int j=0; j<scores.length; j++)
+                {
+                    out.writeFloat((float)scores[j]);
+                }
+            }
+            else
+            {
+                Exception e = outcomes[i].getException();
+                byte[] message = (e.getClass().getName()+": "+e.getMessage()).getBytes(StandardCharsets.UTF_8);
+                out.writeByte(1);
+                out.writeInt(message.length);
+                out.write(message);
+            }
+        }
+        
+        out.flush();
+        return bytes.toByteArray();
+    }
+    
+    private byte[] createBinaryHeader(String[] labels) throws Exception
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(BINARY_MAGIC);
+        out.writeInt(BINARY_VERSION);
+        out.writeInt(labels.length);
+        
+        for(String label: labels)
+        {
+            out.writeUTF(label);
+        }
+        
+        out.flush();
+        return bytes.toByteArray();
+    }
+    
+    private void saveCheckpoint(File checkpoint, long records, long bytes) throws Exception
+    {
+        JSONObject progress = new JSONObject();
+        progress.put("records", records);
+        progress.put("bytes", bytes);
+        
+        File temp = new File(checkpoint.getAbsolutePath()+".tmp");
+        Files.write(temp.toPath(), progress.toString().getBytes(StandardCharsets.UTF_8));
+        Files.move(temp.toPath(), checkpoint.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
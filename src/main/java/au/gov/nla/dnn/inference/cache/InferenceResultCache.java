@@ -0,0 +1,222 @@
+package au.gov.nla.dnn.inference.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+public class InferenceResultCache
+{
+    private static final int SEGMENT_COUNT = 16;
+    private static final long ENTRY_OVERHEAD_BYTES = 112; // key, map entry, and array header
+    
+    private Segment[] segments;
+    private LongAdder hits;
+    private LongAdder misses;
+    private LongAdder evictions;
+    
+    public InferenceResultCache(long maxBytes)
+    {
+        this.segments = new Segment[SEGMENT_COUNT];
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.evictions = new LongAdder();
+        
+        for(int i=0; i<segments.length; i++)
+        {
+            segments[i] = new Segment(maxBytes/SEGMENT_COUNT);
+        }
+    }
+    
+    public double[] get(String modelId, long modelGeneration, RecordHash hash)
+    {
+        Key key = new Key(modelId, modelGeneration, hash);
+        float[] scores = getSegment(key).get(key);
+        
+        if(scores==null)
+        {
+            misses.increment();
+            return null;
+        }
+        
+        hits.increment();
+        double[] result = new double[scores.length];
+        
+        for(int i=0; i<scores.length; i++)
+        {
+            result[i] = scores[i];
+        }
+        
+        return result;
+    }
+    
+    public void put(String modelId, long modelGeneration, RecordHash hash, double[] result)
+    {
+        // Model output is single precision, so storing floats halves the footprint without losing anything
+        
+        float[] scores = new float[result.length];
+        
+        for(int i=0; i<result.length; i++)
+        {
+            scores[i] = (float)result[i];
+        }
+        
+        Key key = new Key(modelId, modelGeneration, hash);
+        getSegment(key).put(key, scores);
+    }
+    
+    public void invalidate(String modelId)
+    {
+        for(Segment segment: segments)
+        {
+            segment.removeModel(modelId);
+        }
+    }
+    
+    private Segment getSegment(Key key)
+    {
+        return segments[(int)(key.low>>>32)&(SEGMENT_COUNT-1)];
+    }
+    
+    public long getHits()
+    {
+        return hits.sum();
+    }
+    
+    public long getMisses()
+    {
+        return misses.sum();
+    }
+    
+    public long getEvictions()
+    {
+        return evictions.sum();
+    }
+    
+    public long getSize()
+    {
+        long size = 0;
+        
+        for(Segment segment: segments)
+        {
+            size = size+segment.getSize();
+        }
+        
+        return size;
+    }
+    
+    public long getBytes()
+    {
+        long bytes = 0;
+        
+        for(Segment segment: segments)
+        {
+            bytes = bytes+segment.getBytes();
+        }
+        
+        return bytes;
+    }
+    
+    private static long getEntryBytes(float[] scores)
+    {
+        return ENTRY_OVERHEAD_BYTES+(4L*scores.length);
+    }
+    
+    private class Segment
+    {
+        private LinkedHashMap<Key, float[]> entries;
+        private long maxBytes;
+        private long bytes;
+        
+        private Segment(long maxBytes)
+        {
+            this.entries = new LinkedHashMap<Key, float[]>(16, 0.75f, true);
+            this.maxBytes = maxBytes;
+        }
+        
+        private synchronized float[] get(Key key)
+        {
+            return entries.get(key);
+        }
+        
+        private synchronized void put(Key key, float[] scores)
+        {
+            float[] previous = entries.put(key, scores);
+            bytes = bytes+getEntryBytes(scores);
+            
+            if(previous!=null)
+            {
+                bytes = bytes-getEntryBytes(previous);
+            }
+            
+            // Evict least recently used entries until back under budget
+            
+            Iterator<Map.Entry<Key, float[]>> iterator = entries.entrySet().iterator();
+            
+            while(bytes>maxBytes && iterator.hasNext())
+            {
+                bytes = bytes-getEntryBytes(iterator.next().getValue());
+                iterator.remove();
+                evictions.increment();
+            }
+        }
+        
+        private synchronized void removeModel(String modelId)
+        {
+            Iterator<Map.Entry<Key, float[]>> iterator = entries.entrySet().iterator();
+            
+            while(iterator.hasNext())
+            {
+                Map.Entry<Key, float[]> entry = iterator.next();
+                
+                if(entry.getKey().modelId.equals(modelId))
+                {
+                    bytes = bytes-getEntryBytes(entry.getValue());
+                    iterator.remove();
+                }
+            }
+        }
+        
+        private synchronized int getSize()
+        {
+            return entries.size();
+        }
+        
+        private synchronized long getBytes()
+        {
+            return bytes;
+        }
+    }
+    
+    private static class Key
+    {
+        private String modelId;
+        private long modelGeneration;
+        private long high;
+        private long low;
+        
+        private Key(String modelId, long modelGeneration, RecordHash hash)
+        {
+            this.modelId = modelId;
+            this.modelGeneration = modelGeneration;
+            this.high = hash.getHigh();
+            this.low = hash.getLow();
+        }
+        
+        public int hashCode()
+        {
+            return (int)(high^(high>>>32))*31+modelId.hashCode();
+        }
+        
+        public boolean equals(Object o)
+        {
+            if(!(o instanceof Key))
+            {
+                return false;
+            }
+            
+            Key k = (Key)o;
+            return high==k.high && low==k.low && modelGeneration==k.modelGeneration && modelId.equals(k.modelId);
+        }
+    }
+}
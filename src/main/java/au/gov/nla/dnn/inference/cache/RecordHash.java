@@ -0,0 +1,117 @@
+package au.gov.nla.dnn.inference.cache;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+public class RecordHash
+{
+    private static final VarHandle LONG_LE = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+    
+    private long high;
+    private long low;
+    
+    private RecordHash(long high, long low)
+    {
+        this.high = high;
+        this.low = low;
+    }
+    
+    public long getHigh()
+    {
+        return high;
+    }
+    
+    public long getLow()
+    {
+        return low;
+    }
+    
+    // 128 bit MurmurHash3 (x64 variant) of the record bytes
+    
+    public static RecordHash of(byte[] data)
+    {
+        long h1 = 0;
+        long h2 = 0;
+        int length = data.length;
+        int blocks = length/16;
+        
+        for(int i=0; i<blocks; i++)
+        {
+            long k1 = (long)LONG_LE.get(data, i*16);
+            long k2 = (long)LONG_LE.get(data, i*16+8);
+            
+            h1 ^= mixK1(k1);
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1*5+0x52dce729;
+            
+            h2 ^= mixK2(k2);
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2*5+0x38495ab5;
+        }
+        
+        int offset = blocks*16;
+        long k1 = 0;
+        long k2 = 0;
+        
+        int tail = length&15;
+        
+        // The last 1-15 bytes, little endian, with bytes 9-15 in k2 and 1-8 in k1
+        
+        for(int i=tail-1; i>=8; i--)
+        {
+            k2 ^= ((long)(data[offset+i]&0xff))<<((i-8)*8);
+        }
+        if(tail>8)
+        {
+            h2 ^= mixK2(k2);
+        }
+        for(int i=Math.min(tail, 8)-1; i>=0; i--)
+        {
+            k1 ^= ((long)(data[offset+i]&0xff))<<(i*8);
+        }
+        if(tail>0)
+        {
+            h1 ^= mixK1(k1);
+        }
+        
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = finalMix(h1);
+        h2 = finalMix(h2);
+        h1 += h2;
+        h2 += h1;
+        
+        return new RecordHash(h1, h2);
+    }
+    
+    private static long mixK1(long k1)
+    {
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        return k1*C2;
+    }
+    
+    private static long mixK2(long k2)
+    {
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        return k2*C1;
+    }
+    
+    private static long finalMix(long k)
+    {
+        k ^= k>>>33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k>>>33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k>>>33;
+        return k;
+    }
+}
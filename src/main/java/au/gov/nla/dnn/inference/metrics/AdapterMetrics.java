@@ -0,0 +1,74 @@
+package au.gov.nla.dnn.inference.metrics;
+
+import java.util.Collection;
+import java.util.HashMap;
+
+public class AdapterMetrics
+{
+    private MetricsRegistry registry;
+    private String adapter;
+    private Histogram payloadSize;
+    private HashMap<String, RequestMetrics> requestMetrics;
+    private RequestMetrics unknownModelMetrics;
+    
+    public AdapterMetrics(MetricsRegistry registry, Collection<String> modelIds, String adapter)
+    {
+        this.registry = registry;
+        this.adapter = adapter;
+        this.payloadSize = registry.histogram("dnn_inference_payload_bytes", 
+                "Size of request payloads.", Histogram.bytes(), "adapter", adapter);
+        
+        // Series exist only for configured models, created up front and never added to, so the model IDs
+        // clients send cannot grow the heap or the label cardinality
+        
+        this.requestMetrics = new HashMap<String, RequestMetrics>();
+        
+        for(String modelId: modelIds)
+        {
+            requestMetrics.put(modelId, new RequestMetrics(modelId));
+        }
+        
+        this.unknownModelMetrics = new RequestMetrics("unknown");
+    }
+    
+    public Histogram getPayloadSize()
+    {
+        return payloadSize;
+    }
+    
+    public RequestMetrics getRequestMetrics(String modelId)
+    {
+        RequestMetrics metrics = requestMetrics.get(modelId);
+        return metrics==null ? unknownModelMetrics : metrics;
+    }
+    
+    public class RequestMetrics
+    {
+        private Counter requests;
+        private Counter errors;
+        private Histogram latency;
+        
+        private RequestMetrics(String modelId)
+        {
+            requests = registry.counter("dnn_inference_requests_total", "Inference requests received.", "adapter", adapter, "model", modelId);
+            errors = registry.counter("dnn_inference_errors_total", "Inference requests which failed.", "adapter", adapter, "model", modelId);
+            latency = registry.histogram("dnn_inference_request_seconds", "Time to serve an inference request, excluding reading the payload.", 
+                    Histogram.nanoseconds(), "adapter", adapter, "model", modelId);
+        }
+        
+        public Counter getRequests()
+        {
+            return requests;
+        }
+        
+        public Counter getErrors()
+        {
+            return errors;
+        }
+        
+        public Histogram getLatency()
+        {
+            return latency;
+        }
+    }
+}
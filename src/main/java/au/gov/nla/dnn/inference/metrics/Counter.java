@@ -0,0 +1,23 @@
+package au.gov.nla.dnn.inference.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+public class Counter
+{
+    private LongAdder count = new LongAdder();
+    
+    public void increment()
+    {
+        count.increment();
+    }
+    
+    public void add(long value)
+    {
+        count.add(value);
+    }
+    
+    public long get()
+    {
+        return count.sum();
+    }
+}
@@ -0,0 +1,107 @@
+package au.gov.nla.dnn.inference.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+public class Histogram
+{
+    // One bucket per power of 2, so recording is a leading zero count and a striped add
+    
+    private static final int BUCKET_COUNT = 64;
+    
+    private LongAdder[] buckets;
+    private LongAdder sum;
+    private LongAdder count;
+    private double unitScale;
+    private int minExposedBucket;
+    private int maxExposedBucket;
+    
+    public Histogram(double unitScale, long minExposedValue, long maxExposedValue)
+    {
+        this.buckets = new LongAdder[BUCKET_COUNT];
+        this.sum = new LongAdder();
+        this.count = new LongAdder();
+        this.unitScale = unitScale;
+        this.minExposedBucket = getBucket(minExposedValue);
+        this.maxExposedBucket = getBucket(maxExposedValue);
+        
+        for(int i=0; i<buckets.length; i++)
+        {
+            buckets[i] = new LongAdder();
+        }
+    }
+    
+    public static Histogram nanoseconds()
+    {
+        // Exposed in seconds, from 1 microsecond to about 1 minute
+        return new Histogram(1e-9, 1000L, 60000000000L);
+    }
+    
+    public static Histogram bytes()
+    {
+        // Exposed from 64 bytes to 1 gigabyte
+        return new Histogram(1d, 64L, 1073741824L);
+    }
+    
+    public static Histogram sizes()
+    {
+        return new Histogram(1d, 1L, 65536L);
+    }
+    
+    public void record(long value)
+    {
+        buckets[getBucket(value)].increment();
+        sum.add(value);
+        count.increment();
+    }
+    
+    public void recordSince(long startNanos)
+    {
+        record(System.nanoTime()-startNanos);
+    }
+    
+    public long getCount()
+    {
+        return count.sum();
+    }
+    
+    public long getSum()
+    {
+        return sum.sum();
+    }
+    
+    // Bucket i holds values up to 2^i inclusive
+    
+    private static int getBucket(long value)
+    {
+        if(value<=1)
+        {
+            return 0;
+        }
+        
+        return Math.min(64-Long.numberOfLeadingZeros(value-1), BUCKET_COUNT-1);
+    }
+    
+    void write(StringBuilder out, String name, String labels)
+    {
+        long cumulative = 0;
+        
+        for(int i=0; i<BUCKET_COUNT; i++)
+        {
+            cumulative = cumulative+buckets[i].sum();
+            
+            if(i>=minExposedBucket && i<=maxExposedBucket)
+            {
+                out.append(name).append("_bucket{").append(labels).append(labels.isEmpty() ? "" : ",")
+                        .append("le=\"").append(MetricsRegistry.formatValue(Math.pow(2d, i)*unitScale)).append("\"} ")
+                        .append(cumulative).append("\n");
+            }
+        }
+        
+        long total = count.sum();
+        
+        out.append(name).append("_bucket{").append(labels).append(labels.isEmpty() ? "" : ",").append("le=\"+Inf\"} ").append(total).append("\n");
+        out.append(name).append("_sum").append(labels.isEmpty() ? "" : "{"+labels+"}").append(" ")
+                .append(MetricsRegistry.formatValue(sum.sum()*unitScale)).append("\n");
+        out.append(name).append("_count").append(labels.isEmpty() ? "" : "{"+labels+"}").append(" ").append(total).append("\n");
+    }
+}
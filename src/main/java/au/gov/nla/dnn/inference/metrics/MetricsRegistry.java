@@ -0,0 +1,147 @@
+package au.gov.nla.dnn.inference.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.DoubleSupplier;
+
+public class MetricsRegistry
+{
+    private ConcurrentSkipListMap<String, Family> families = new ConcurrentSkipListMap<String, Family>();
+    
+    public Counter counter(String name, String help, String... labels)
+    {
+        return (Counter)getFamily(name, help, "counter").get(labels, new Counter());
+    }
+    
+    public Histogram histogram(String name, String help, Histogram histogram, String... labels)
+    {
+        return (Histogram)getFamily(name, help, "histogram").get(labels, histogram);
+    }
+    
+    public void gauge(String name, String help, DoubleSupplier supplier, String... labels)
+    {
+        getFamily(name, help, "gauge").put(labels, supplier);
+    }
+    
+    public void counter(String name, String help, DoubleSupplier supplier, String... labels)
+    {
+        getFamily(name, help, "counter").put(labels, supplier);
+    }
+    
+    // Prometheus text exposition format, version 0.0.4
+    
+    public String toPrometheus()
+    {
+        StringBuilder out = new StringBuilder();
+        
+        for(Family family: families.values())
+        {
+            out.append("# HELP ").append(family.name).append(" ").append(family.help).append("\n");
+            out.append("# TYPE ").append(family.name).append(" ").append(family.type).append("\n");
+            
+            for(Map.Entry<String, Object> entry: family.metrics.entrySet())
+            {
+                String labels = entry.getKey();
+                Object metric = entry.getValue();
+                
+                if(metric instanceof Histogram)
+                {
+                    ((Histogram)metric).write(out, family.name, labels);
+                    continue;
+                }
+                
+                out.append(family.name).append(labels.isEmpty() ? "" : "{"+labels+"}").append(" ");
+                
+                if(metric instanceof Counter)
+                {
+                    out.append(((Counter)metric).get());
+                }
+                else
+                {
+                    out.append(formatValue(((DoubleSupplier)metric).getAsDouble()));
+                }
+                
+                out.append("\n");
+            }
+        }
+        
+        return out.toString();
+    }
+    
+    private Family getFamily(String name, String help, String type)
+    {
+        Family family = families.get(name);
+        
+        if(family==null)
+        {
+            families.putIfAbsent(name, new Family(name, help, type));
+            family = families.get(name);
+        }
+        
+        return family;
+    }
+    
+    static String formatValue(double value)
+    {
+        if(Double.isNaN(value))
+        {
+            return "NaN";
+        }
+        if(Double.isInfinite(value))
+        {
+            return value>0 ? "+Inf" : "-Inf";
+        }
+        if(value==Math.rint(value) && Math.abs(value)<1e15)
+        {
+            return Long.toString((long)value);
+        }
+        
+        return Double.toString(value);
+    }
+    
+    private static String formatLabels(String[] labels)
+    {
+        StringBuilder b = new StringBuilder();
+        
+        for(int i=0; i+1<labels.length; i+=2)
+        {
+            if(b.length()>0)
+            {
+                b.append(",");
+            }
+            
+            b.append(labels[i]).append("=\"").append(labels[i+1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n")).append("\"");
+        }
+        
+        return b.toString();
+    }
+    
+    private static class Family
+    {
+        private String name;
+        private String help;
+        private String type;
+        private ConcurrentHashMap<String, Object> metrics;
+        
+        private Family(String name, String help, String type)
+        {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.metrics = new ConcurrentHashMap<String, Object>();
+        }
+        
+        private Object get(String[] labels, Object metric)
+        {
+            String key = formatLabels(labels);
+            Object existing = metrics.putIfAbsent(key, metric);
+            return existing==null ? metric : existing;
+        }
+        
+        private void put(String[] labels, Object metric)
+        {
+            metrics.put(formatLabels(labels), metric);
+        }
+    }
+}
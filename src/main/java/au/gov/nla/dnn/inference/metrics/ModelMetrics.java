@@ -0,0 +1,49 @@
+package au.gov.nla.dnn.inference.metrics;
+
+public class ModelMetrics
+{
+    private Histogram featurisationTime;
+    private Histogram forwardPassTime;
+    private Histogram replicaWaitTime;
+    private Histogram queueWaitTime;
+    private Histogram batchSize;
+    
+    public ModelMetrics(MetricsRegistry registry, String modelId)
+    {
+        featurisationTime = registry.histogram("dnn_inference_featurisation_seconds", 
+                "Time spent converting a raw record into model features.", Histogram.nanoseconds(), "model", modelId);
+        forwardPassTime = registry.histogram("dnn_inference_forward_pass_seconds", 
+                "Time spent in a single forward pass of the model, per batch.", Histogram.nanoseconds(), "model", modelId);
+        replicaWaitTime = registry.histogram("dnn_inference_replica_wait_seconds", 
+                "Time spent waiting for a free model replica.", Histogram.nanoseconds(), "model", modelId);
+        queueWaitTime = registry.histogram("dnn_inference_batch_queue_wait_seconds", 
+                "Time a request spent in the micro-batching queue before its batch started.", Histogram.nanoseconds(), "model", modelId);
+        batchSize = registry.histogram("dnn_inference_batch_size", 
+                "Number of records per forward pass.", Histogram.sizes(), "model", modelId);
+    }
+    
+    public Histogram getFeaturisationTime()
+    {
+        return featurisationTime;
+    }
+    
+    public Histogram getForwardPassTime()
+    {
+        return forwardPassTime;
+    }
+    
+    public Histogram getReplicaWaitTime()
+    {
+        return replicaWaitTime;
+    }
+    
+    public Histogram getQueueWaitTime()
+    {
+        return queueWaitTime;
+    }
+    
+    public Histogram getBatchSize()
+    {
+        return batchSize;
+    }
+}
@@ -6,6 +6,7 @@ import java.util.List;
 import java.util.function.Consumer;
 import org.json.JSONObject;
 import au.gov.nla.dnn.evaluation.ModelEvaluationResult;
+import au.gov.nla.dnn.sequence.SequenceDataRecord;
 import au.gov.nla.dnn.sequence.SequenceDataRecordProvider;
 import au.gov.nla.dnn.training.TrainingHyperParameters;
 import au.gov.nla.dnn.training.TrainingListener;
@@ -20,6 +21,10 @@ public interface ModelInstance
     public ModelEvaluationResult evaluate(SequenceDataRecordProvider evaluationRecordProvider, int batchSize, int featureCount, 
             List<String> labels, Consumer<Exception> errorHandler) throws Exception;
     public double[] infer(double[] features) throws Exception;
+    public double[][] inferBatch(double[][] features) throws Exception;
+    public double[][] inferRecords(SequenceDataRecord[] records) throws Exception;
+    public ModelInstance replicate() throws Exception;
+    public long getMemoryFootprint();
     public void save(OutputStream stream) throws Exception;
     
     public interface Builder<T extends ModelInstance>
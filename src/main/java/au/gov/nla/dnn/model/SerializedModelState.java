@@ -1,5 +1,9 @@
 package au.gov.nla.dnn.model;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 
 import au.gov.nla.dnn.sequence.InputSequenceInstance;
@@ -40,4 +44,22 @@ public class SerializedModelState implements Serializable
     {
         return labels;
     }
+    
+    public static SerializedModelState read(File file) throws Exception
+    {
+        try(ObjectInputStream in = new ObjectInputStream(new FileInputStream(file)))
+        {
+            return (SerializedModelState)in.readObject();
+        }
+    }
+    
+    // Loads the model through the builder it was saved with, so any model format (e.g. quantized) is handled here
+    
+    public ModelInstance createModelInstance() throws Exception
+    {
+        try(ByteArrayInputStream bytes = new ByteArrayInputStream(model))
+        {
+            return ((ModelInstance.Builder<?>)Class.forName(builderClass).getConstructor().newInstance()).load(bytes);
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,747 @@
+package au.gov.nla.dnn.model.mln;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import org.deeplearning4j.nn.api.Layer;
+import org.deeplearning4j.nn.conf.layers.BaseLayer;
+import org.deeplearning4j.nn.conf.layers.DenseLayer;
+import org.deeplearning4j.nn.conf.layers.OutputLayer;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.nd4j.linalg.activations.IActivation;
+import org.nd4j.linalg.activations.impl.ActivationELU;
+import org.nd4j.linalg.activations.impl.ActivationIdentity;
+import org.nd4j.linalg.activations.impl.ActivationLReLU;
+import org.nd4j.linalg.activations.impl.ActivationReLU;
+import org.nd4j.linalg.activations.impl.ActivationSigmoid;
+import org.nd4j.linalg.activations.impl.ActivationSoftPlus;
+import org.nd4j.linalg.activations.impl.ActivationSoftmax;
+import org.nd4j.linalg.activations.impl.ActivationTanH;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import au.gov.nla.dnn.sequence.SequenceDataRecord;
+import au.gov.nla.dnn.sequence.SparseSequenceDataRecord;
+
+public class DenseInferenceEngine
+{
+    private static final int ACTIVATION_IDENTITY = 0;
+    private static final int ACTIVATION_RELU = 1;
+    private static final int ACTIVATION_LEAKY_RELU = 2;
+    private static final int ACTIVATION_ELU = 3;
+    private static final int ACTIVATION_SIGMOID = 4;
+    private static final int ACTIVATION_TANH = 5;
+    private static final int ACTIVATION_SOFTPLUS = 6;
+    private static final int ACTIVATION_SOFTMAX = 7;
+    
+    public static final int FORMAT_FLOAT = 0;
+    public static final int FORMAT_INT8 = 1;
+    public static final int FORMAT_FLOAT16 = 2;
+    
+    private static final int MAGIC = 0x444E4E51;
+    private static final int VERSION = 1;
+    
+    private DenseLayerWeights[] layers;
+    private int maxWidth;
+    private ThreadLocal<float[][]> scratch;
+    
+    private DenseInferenceEngine(DenseLayerWeights[] layers)
+    {
+        this.layers = layers;
+        
+        for(DenseLayerWeights layer: layers)
+        {
+            maxWidth = Math.max(maxWidth, layer.nOut);
+        }
+        
+        // Two activation buffers per thread, each layer reads one and writes the other
+        
+        this.scratch = new ThreadLocal<float[][]>(){
+            protected float[][] initialValue()
+            {
+                return new float[2][maxWidth];
+            }
+        };
+    }
+    
+    // Returns null when the network has anything other than dense and output layers with supported activations,
+    // in which case the caller keeps using ND4J
+    
+    public static DenseInferenceEngine create(MultiLayerNetwork network)
+    {
+        if(!isSupported(network))
+        {
+            return null;
+        }
+        
+        Layer[] networkLayers = network.getLayers();
+        DenseLayerWeights[] layers = new DenseLayerWeights[networkLayers.length];
+        
+        for(int i=0; i<networkLayers.length; i++)
+        {
+            IActivation activationFn = ((BaseLayer)networkLayers[i].conf().getLayer()).getActivationFn();
+            INDArray weights = networkLayers[i].getParam("W");
+            INDArray bias = networkLayers[i].getParam("b");
+            
+            DenseLayerWeights layer = new DenseLayerWeights();
+            layer.nIn = (int)weights.size(0);
+            layer.nOut = (int)weights.size(1);
+            layer.format = FORMAT_FLOAT;
+            layer.weights = weights.castTo(DataType.FLOAT).dup('c').data().asFloat(); // row-major, one row per input
+            layer.bias = bias==null ? new float[layer.nOut] : bias.castTo(DataType.FLOAT).dup('c').data().asFloat();
+            layer.activation = getActivation(activationFn);
+            layer.alpha = (float)getAlpha(activationFn);
+            layers[i] = layer;
+            
+            if(i>0 && layers[i-1].nOut!=layer.nIn)
+            {
+                return null;
+            }
+        }
+        
+        return new DenseInferenceEngine(layers);
+    }
+    
+    // Checks the configuration only, without copying any parameters
+    
+    public static boolean isSupported(MultiLayerNetwork network)
+    {
+        if(network.params()==null || network.params().dataType()!=DataType.FLOAT)
+        {
+            return false;
+        }
+        
+        Layer[] networkLayers = network.getLayers();
+        
+        for(int i=0; i<networkLayers.length; i++)
+        {
+            org.deeplearning4j.nn.conf.layers.Layer config = networkLayers[i].conf().getLayer();
+            
+            if(network.getLayerWiseConfigurations().getInputPreProcess(i)!=null)
+            {
+                return false;
+            }
+            if(!(config instanceof DenseLayer) && !(config instanceof OutputLayer))
+            {
+                return false;
+            }
+            if(getActivation(((BaseLayer)config).getActivationFn())<0)
+            {
+                return false;
+            }
+        }
+        
+        return networkLayers.length>0;
+    }
+    
+    private static int getActivation(IActivation activationFn)
+    {
+        if(activationFn instanceof ActivationIdentity)
+        {
+            return ACTIVATION_IDENTITY;
+        }
+        if(activationFn instanceof ActivationReLU)
+        {
+            ActivationReLU relu = (ActivationReLU)activationFn;
+            boolean standard = relu.getMax()==null && (relu.getThreshold()==null || relu.getThreshold()==0d) 
+                    && (relu.getNegativeSlope()==null || relu.getNegativeSlope()==0d);
+            return standard ? ACTIVATION_RELU : -1;
+        }
+        if(activationFn instanceof ActivationLReLU)
+        {
+            return ACTIVATION_LEAKY_RELU;
+        }
+        if(activationFn instanceof ActivationELU)
+        {
+            return ACTIVATION_ELU;
+        }
+        if(activationFn instanceof ActivationSigmoid)
+        {
+            return ACTIVATION_SIGMOID;
+        }
+        if(activationFn instanceof ActivationTanH)
+        {
+            return ACTIVATION_TANH;
+        }
+        if(activationFn instanceof ActivationSoftPlus)
+        {
+            return ACTIVATION_SOFTPLUS;
+        }
+        if(activationFn instanceof ActivationSoftmax)
+        {
+            return ACTIVATION_SOFTMAX;
+        }
+        
+        return -1;
+    }
+    
+    private static double getAlpha(IActivation activationFn)
+    {
+        if(activationFn instanceof ActivationLReLU)
+        {
+            return ((ActivationLReLU)activationFn).getAlpha();
+        }
+        if(activationFn instanceof ActivationELU)
+        {
+            return ((ActivationELU)activationFn).getAlpha();
+        }
+        
+        return 0d;
+    }
+    
+    public double[] infer(double[] features)
+    {
+        float[][] buffers = scratch.get();
+        DenseLayerWeights first = layers[0];
+        float[] output = buffers[0];
+        
+        // The first layer reads the double features directly and skips zero inputs, which are most of a TF-IDF vector
+        
+        System.arraycopy(first.bias, 0, output, 0, first.nOut);
+        
+        for(int i=0; i<first.nIn; i++)
+        {
+            float x = (float)features[i];
+            
+            if(x!=0f)
+            {
+                accumulate(first, x, i, output);
+            }
+        }
+        
+        return forwardRemaining(buffers, output);
+    }
+    
+    public double[] inferSparse(int[] indices, float[] values)
+    {
+        float[][] buffers = scratch.get();
+        DenseLayerWeights first = layers[0];
+        float[] output = buffers[0];
+        
+        // Sparse times dense, gathering only the weight rows of the features present in the record
+        
+        System.arraycopy(first.bias, 0, output, 0, first.nOut);
+        
+        for(int i=0; i<indices.length; i++)
+        {
+            accumulate(first, values[i], indices[i], output);
+        }
+        
+        return forwardRemaining(buffers, output);
+    }
+    
+    private double[] forwardRemaining(float[][] buffers, float[] output)
+    {
+        activate(layers[0], output);
+        
+        for(int l=1; l<layers.length; l++)
+        {
+            float[] input = output;
+            output = buffers[l%2];
+            forward(layers[l], input, output);
+        }
+        
+        DenseLayerWeights last = layers[layers.length-1];
+        double[] result = new double[last.nOut];
+        
+        for(int j=0; j<last.nOut; j++)
+        {
+            result[j] = output[j];
+        }
+        
+        return result;
+    }
+    
+    public double[][] inferBatch(double[][] features)
+    {
+        double[][] results = new double[features.length][];
+        
+        for(int i=0; i<features.length; i++)
+        {
+            results[i] = infer(features[i]);
+        }
+        
+        return results;
+    }
+    
+    public double[][] inferRecords(SequenceDataRecord[] records)
+    {
+        double[][] results = new double[records.length][];
+        
+        for(int i=0; i<records.length; i++)
+        {
+            if(records[i] instanceof SparseSequenceDataRecord)
+            {
+                SparseSequenceDataRecord sparse = (SparseSequenceDataRecord)records[i];
+                results[i] = inferSparse(sparse.getIndices(), sparse.getValues());
+            }
+            else
+            {
+                results[i] = infer(records[i].getFeatures());
+            }
+        }
+        
+        return results;
+    }
+    
+    private static void forward(DenseLayerWeights layer, float[] input, float[] output)
+    {
+        System.arraycopy(layer.bias, 0, output, 0, layer.nOut);
+        
+        for(int i=0; i<layer.nIn; i++)
+        {
+            float x = input[i];
+            
+            if(x!=0f)
+            {
+                accumulate(layer, x, i, output);
+            }
+        }
+        
+        activate(layer, output);
+    }
+    
+    private static void accumulate(DenseLayerWeights layer, float x, int row, float[] output)
+    {
+        switch(layer.format)
+        {
+            case FORMAT_INT8:
+            {
+                accumulateRowInt8(x*layer.rowScales[row], layer.int8Weights, row*layer.nOut, output, layer.nOut);
+                break;
+            }
+            case FORMAT_FLOAT16:
+            {
+                accumulateRowFloat16(x, layer.halfWeights, row*layer.nOut, output, layer.nOut);
+                break;
+            }
+            default:
+            {
+                accumulateRow(x, layer.weights, row*layer.nOut, output, layer.nOut);
+            }
+        }
+    }
+    
+    // output += x * weights[row], a simple counted loop so C2 compiles it to SIMD instructions
+    
+    static void accumulateRow(float x, float[] weights, int offset, float[] output, int length)
+    {
+        for(int j=0; j<length; j++)
+        {
+            output[j] += x*weights[offset+j];
+        }
+    }
+    
+    // The row scale is folded into x by the caller, so dequantizing is just the byte to float conversion
+    
+    static void accumulateRowInt8(float x, byte[] weights, int offset, float[] output, int length)
+    {
+        for(int j=0; j<length; j++)
+        {
+            output[j] += x*weights[offset+j];
+        }
+    }
+    
+    static void accumulateRowFloat16(float x, short[] weights, int offset, float[] output, int length)
+    {
+        float[] table = HalfPrecision.TO_FLOAT;
+        
+        for(int j=0; j<length; j++)
+        {
+            output[j] += x*table[weights[offset+j]&0xffff];
+        }
+    }
+    
+    private static void activate(DenseLayerWeights layer, float[] values)
+    {
+        int n = layer.nOut;
+        
+        switch(layer.activation)
+        {
+            case ACTIVATION_RELU:
+            {
+                for(int j=0; j<n; j++)
+                {
+                    values[j] = Math.max(values[j], 0f);
+                }
+                
+                break;
+            }
+            case ACTIVATION_LEAKY_RELU:
+            {
+                for(int j=0; j<n; j++)
+                {
+                    values[j] = values[j]<0f ? values[j]*layer.alpha : values[j];
+                }
+                
+                break;
+            }
+            case ACTIVATION_ELU:
+            {
+                for(int j=0; j<n; j++)
+                {
+                    values[j] = values[j]<0f ? (float)(layer.alpha*(Math.exp(values[j])-1d)) : values[j];
+                }
+                
+                break;
+            }
+            case ACTIVATION_SIGMOID:
+            {
+                for(int j=0; j<n; j++)
+                {
+                    values[j] = (float)(1d/(1d+Math.exp(-values[j])));
+                }
+                
+                break;
+            }
+            case ACTIVATION_TANH:
+            {
+                for(int j=0; j<n; j++)
+                {
+                    values[j] = (float)Math.tanh(values[j]);
+                }
+                
+                break;
+            }
+            case ACTIVATION_SOFTPLUS:
+            {
+                for(int j=0; j<n; j++)
+                {
+                    values[j] = (float)Math.log1p(Math.exp(values[j]));
+                }
+                
+                break;
+            }
+            case ACTIVATION_SOFTMAX:
+            {
+                float max = Float.NEGATIVE_INFINITY;
+                
+                for(int j=0; j<n; j++)
+                {
+                    max = Math.max(max, values[j]);
+                }
+                
+                double sum = 0d;
+                
+                for(int j=0; j<n; j++)
+                {
+                    values[j] = (float)Math.exp(values[j]-max);
+                    sum = sum+values[j];
+                }
+                for(int j=0; j<n; j++)
+                {
+                    values[j] = (float)(values[j]/sum);
+                }
+                
+                break;
+            }
+        }
+    }
+    
+    public long getMemoryFootprint()
+    {
+        long bytes = 0;
+        
+        for(DenseLayerWeights layer: layers)
+        {
+            bytes = bytes+layer.getWeightBytes()+(4L*layer.bias.length);
+        }
+        
+        return bytes;
+    }
+    
+    // Post-training quantization of every layer's weights. Biases and activations stay in float.
+    
+    public DenseInferenceEngine quantize(int format)
+    {
+        DenseLayerWeights[] quantized = new DenseLayerWeights[layers.length];
+        
+        for(int l=0; l<layers.length; l++)
+        {
+            DenseLayerWeights layer = layers[l];
+            float[] weights = layer.getFloatWeights();
+            
+            DenseLayerWeights target = new DenseLayerWeights();
+            target.nIn = layer.nIn;
+            target.nOut = layer.nOut;
+            target.bias = layer.bias;
+            target.activation = layer.activation;
+            target.alpha = layer.alpha;
+            target.format = format;
+            
+            switch(format)
+            {
+                case FORMAT_INT8:
+                {
+                    // One symmetric scale per input row, so a rare term with small weights keeps its precision
+                    
+                    target.rowScales = new float[layer.nIn];
+                    target.int8Weights = new byte[weights.length];
+                    
+                    for(int i=0; i<layer.nIn; i++)
+                    {
+                        int offset = i*layer.nOut;
+                        float max = 0f;
+                        
+                        for(int j=0; j<layer.nOut; j++)
+                        {
+                            max = Math.max(max, Math.abs(weights[offset+j]));
+                        }
+                        
+                        float scale = max/127f;
+                        target.rowScales[i] = scale;
+                        
+                        for(int j=0; j<layer.nOut; j++)
+                        {
+                            int value = scale==0f ? 0 : Math.round(weights[offset+j]/scale);
+                            target.int8Weights[offset+j] = (byte)Math.max(-127, Math.min(127, value));
+                        }
+                    }
+                    
+                    break;
+                }
+                case FORMAT_FLOAT16:
+                {
+                    target.halfWeights = new short[weights.length];
+                    
+                    for(int i=0; i<weights.length; i++)
+                    {
+                        target.halfWeights[i] = HalfPrecision.fromFloat(weights[i]);
+                    }
+                    
+                    break;
+                }
+                case FORMAT_FLOAT:
+                {
+                    target.weights = weights;
+                    break;
+                }
+                default:
+                {
+                    throw new IllegalArgumentException("Unknown weight format: "+format);
+                }
+            }
+            
+            quantized[l] = target;
+        }
+        
+        return new DenseInferenceEngine(quantized);
+    }
+    
+    public int getFeatureCount()
+    {
+        return layers[0].nIn;
+    }
+    
+    public int getLabelCount()
+    {
+        return layers[layers.length-1].nOut;
+    }
+    
+    public void write(OutputStream stream) throws IOException
+    {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(layers.length);
+        
+        for(DenseLayerWeights layer: layers)
+        {
+            out.writeInt(layer.nIn);
+            out.writeInt(layer.nOut);
+            out.writeInt(layer.activation);
+            out.writeFloat(layer.alpha);
+            out.writeInt(layer.format);
+            
+            for(float b: layer.bias)
+            {
+                out.writeFloat(b);
+            }
+            
+            switch(layer.format)
+            {
+                case FORMAT_INT8:
+                {
+                    for(float scale: layer.rowScales)
+                    {
+                        out.writeFloat(scale);
+                    }
+                    
+                    out.write(layer.int8Weights);
+                    break;
+                }
+                case FORMAT_FLOAT16:
+                {
+                    for(short w: layer.halfWeights)
+                    {
+                        out.writeShort(w);
+                    }
+                    
+                    break;
+                }
+                default:
+                {
+                    for(float w: layer.weights)
+                    {
+                        out.writeFloat(w);
+                    }
+                }
+            }
+        }
+        
+        out.flush();
+    }
+    
+    public static DenseInferenceEngine read(InputStream stream) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+        
+        if(in.readInt()!=MAGIC)
+        {
+            throw new IOException("Not a dense inference engine model.");
+        }
+        
+        int version = in.readInt();
+        
+        if(version!=VERSION)
+        {
+            throw new IOException("Unsupported dense inference engine model version: "+version);
+        }
+        
+        DenseLayerWeights[] layers = new DenseLayerWeights[in.readInt()];
+        
+        for(int l=0; l<layers.length; l++)
+        {
+            DenseLayerWeights layer = new DenseLayerWeights();
+            layer.nIn = in.readInt();
+            layer.nOut = in.readInt();
+            layer.activation = in.readInt();
+            layer.alpha = in.readFloat();
+            layer.format = in.readInt();
+            layer.bias = new float[layer.nOut];
+            
+            for(int j=0; j<layer.nOut; j++)
+            {
+                layer.bias[j] = in.readFloat();
+            }
+            
+            int length = layer.nIn*layer.nOut;
+            
+            switch(layer.format)
+            {
+                case FORMAT_INT8:
+                {
+                    layer.rowScales = new float[layer.nIn];
+                    
+                    for(int i=0; i<layer.nIn; i++)
+                    {
+                        layer.rowScales[i] = in.readFloat();
+                    }
+                    
+                    layer.int8Weights = new byte[length];
+                    in.readFully(layer.int8Weights);
+                    break;
+                }
+                case FORMAT_FLOAT16:
+                {
+                    layer.halfWeights = new short[length];
+                    
+                    for(int i=0; i<length; i++)
+                    {
+                        layer.halfWeights[i] = in.readShort();
+                    }
+                    
+                    break;
+                }
+                case FORMAT_FLOAT:
+                {
+                    layer.weights = new float[length];
+                    
+                    for(int i=0; i<length; i++)
+                    {
+                        layer.weights[i] = in.readFloat();
+                    }
+                    
+                    break;
+                }
+                default:
+                {
+                    throw new IOException("Unknown weight format: "+layer.format);
+                }
+            }
+            
+            layers[l] = layer;
+        }
+        
+        return new DenseInferenceEngine(layers);
+    }
+    
+    private static class DenseLayerWeights
+    {
+        private int nIn;
+        private int nOut;
+        private int format;
+        private float[] weights;
+        private byte[] int8Weights;
+        private float[] rowScales;
+        private short[] halfWeights;
+        private float[] bias;
+        private int activation;
+        private float alpha;
+        
+        private float[] getFloatWeights()
+        {
+            switch(format)
+            {
+                case FORMAT_INT8:
+                {
+                    float[] values = new float[int8Weights.length];
+                    
+                    for(int i=0; i<values.length; i++)
+                    {
+                        values[i] = int8Weights[i]*rowScales[i/nOut];
+                    }
+                    
+                    return values;
+                }
+                case FORMAT_FLOAT16:
+                {
+                    float[] values = new float[halfWeights.length];
+                    
+                    for(int i=0; i<values.length; i++)
+                    {
+                        values[i] = HalfPrecision.TO_FLOAT[halfWeights[i]&0xffff];
+                    }
+                    
+                    return values;
+                }
+                default:
+                {
+                    return weights;
+                }
+            }
+        }
+        
+        private long getWeightBytes()
+        {
+            switch(format)
+            {
+                case FORMAT_INT8:
+                {
+                    return int8Weights.length+(4L*rowScales.length);
+                }
+                case FORMAT_FLOAT16:
+                {
+                    return 2L*halfWeights.length;
+                }
+                default:
+                {
+                    return 4L*weights.length;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package au.gov.nla.dnn.model.mln;
+
+class HalfPrecision
+{
+    // Decoding by table lookup is cheaper than bit manipulation in the inner multiply-add loop
+    
+    static final float[] TO_FLOAT = new float[65536];
+    
+    static
+    {
+        for(int h=0; h<65536; h++)
+        {
+            TO_FLOAT[h] = toFloat(h);
+        }
+    }
+    
+    private static float toFloat(int h)
+    {
+        int sign = (h&0x8000)<<16;
+        int exponent = (h>>>10)&0x1f;
+        int mantissa = h&0x3ff;
+        
+        if(exponent==0)
+        {
+            float value = mantissa*0x1p-24f;
+            return sign==0 ? value : -value;
+        }
+        if(exponent==31)
+        {
+            return Float.intBitsToFloat(sign|0x7f800000|(mantissa<<13));
+        }
+        
+        return Float.intBitsToFloat(sign|((exponent-15+127)<<23)|(mantissa<<13));
+    }
+    
+    // IEEE 754 binary16, rounding to nearest even
+    
+    static short fromFloat(float value)
+    {
+        int bits = Float.floatToRawIntBits(value);
+        int sign = (bits>>>16)&0x8000;
+        int magnitude = bits&0x7fffffff;
+        
+        if(magnitude>=0x7f800000)
+        {
+            return (short)(sign|0x7c00|(magnitude>0x7f800000 ? 0x200 : 0));
+        }
+        if(magnitude>=0x477ff000)
+        {
+            return (short)(sign|0x7c00); // rounds beyond 65504
+        }
+        if(magnitude<0x38800000)
+        {
+            // Subnormal, counted in units of 2^-24. A result of 1024 is the encoding of the smallest normal value.
+            
+            return (short)(sign|(int)Math.rint(Math.abs((double)value)*16777216d));
+        }
+        
+        int half = (((magnitude>>>23)-127+15)<<10)|((magnitude&0x7fffff)>>>13);
+        int remainder = magnitude&0x1fff;
+        
+        if(remainder>0x1000 || (remainder==0x1000 && (half&1)==1))
+        {
+            half++;
+        }
+        
+        return (short)(sign|half);
+    }
+}
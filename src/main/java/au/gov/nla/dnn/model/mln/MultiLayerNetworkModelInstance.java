@@ -18,6 +18,7 @@ import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
 import org.deeplearning4j.util.ModelSerializer;
 import org.nd4j.common.primitives.AtomicDouble;
 import org.nd4j.evaluation.classification.Evaluation;
+import org.nd4j.linalg.api.buffer.DataType;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.dataset.AsyncDataSetIterator;
 import org.nd4j.linalg.dataset.DataSet;
@@ -30,16 +31,28 @@ import au.gov.nla.dnn.evaluation.ModelEvaluationResult.ConfusionStatistics;
 import au.gov.nla.dnn.model.ModelInstance;
 import au.gov.nla.dnn.sequence.SequenceDataRecord;
 import au.gov.nla.dnn.sequence.SequenceDataRecordProvider;
+import au.gov.nla.dnn.sequence.SparseSequenceDataRecord;
 import au.gov.nla.dnn.training.TrainingHyperParameters;
 import au.gov.nla.dnn.training.TrainingListener;
 
 public class MultiLayerNetworkModelInstance implements ModelInstance
 {
+    private static final int DENSE_ENGINE_MAX_BATCH_SIZE = 8; // above this, ND4J's matrix multiply amortises its call overhead
+    
     private MultiLayerNetwork network;
+    private boolean sharedParameters;
+    private DenseEngineReference denseEngine;
     
     public MultiLayerNetworkModelInstance(MultiLayerNetwork network)
+    {
+        this(network, false, new DenseEngineReference(network));
+    }
+    
+    private MultiLayerNetworkModelInstance(MultiLayerNetwork network, boolean sharedParameters, DenseEngineReference denseEngine)
     {
         this.network = network;
+        this.sharedParameters = sharedParameters;
+        this.denseEngine = denseEngine;
     }
     
     public void train(TrainingHyperParameters hyperParameters, int featureCount, List<String> labels, String tempDirectory, 
@@ -101,6 +114,7 @@ public class MultiLayerNetworkModelInstance implements ModelInstance
         }
         
         network = result.getBestModel();
+        denseEngine = new DenseEngineReference(network);
         
         System.gc();
         Nd4j.getMemoryManager().invokeGc();
@@ -172,15 +186,129 @@ public class MultiLayerNetworkModelInstance implements ModelInstance
     
     public double[] infer(double[] features) throws Exception
     {
-        INDArray featureArray = Nd4j.create(1, features.length);
+        return inferBatch(new double[][]{features})[0];
+    }
+    
+    public double[][] inferBatch(double[][] features) throws Exception
+    {
+        if(features.length<=DENSE_ENGINE_MAX_BATCH_SIZE)
+        {
+            DenseInferenceEngine engine = denseEngine.get();
+            
+            if(engine!=null)
+            {
+                return engine.inferBatch(features);
+            }
+        }
         
-        for(int i=0; i<features.length; i++)
+        INDArray featureArray = Nd4j.create(features).castTo(network.params().dataType());
+        INDArray prediction = network.output(featureArray, false);
+        return prediction.toDoubleMatrix();
+    }
+    
+    public double[][] inferRecords(SequenceDataRecord[] records) throws Exception
+    {
+        int sparseCount = 0;
+        
+        for(SequenceDataRecord record: records)
         {
-            featureArray.putScalar(new int[]{0, i}, features[i]);
+            if(record instanceof SparseSequenceDataRecord)
+            {
+                sparseCount++;
+            }
         }
         
+        // The gather only touches the weight rows of non-zero features, so it beats a dense matrix multiply at any batch size
+        
+        if(sparseCount==records.length || records.length<=DENSE_ENGINE_MAX_BATCH_SIZE)
+        {
+            DenseInferenceEngine engine = denseEngine.get();
+            
+            if(engine!=null)
+            {
+                return engine.inferRecords(records);
+            }
+        }
+        
+        int featureCount = records[0].getFeatureCount();
+        float[] data = new float[records.length*featureCount];
+        
+        for(int i=0; i<records.length; i++)
+        {
+            int offset = i*featureCount;
+            
+            if(records[i] instanceof SparseSequenceDataRecord)
+            {
+                SparseSequenceDataRecord sparse = (SparseSequenceDataRecord)records[i];
+                int[] indices = sparse.getIndices();
+                float[] values = sparse.getValues();
+                
+                for(int j=0; j<indices.length; j++)
+                {
+                    data[offset+indices[j]] = values[j];
+                }
+            }
+            else
+            {
+                double[] features = records[i].getFeatures();
+                
+                for(int j=0; j<featureCount; j++)
+                {
+                    data[offset+j] = (float)features[j];
+                }
+            }
+        }
+        
+        INDArray featureArray = Nd4j.create(data, new long[]{records.length, featureCount}, DataType.FLOAT).castTo(network.params().dataType());
         INDArray prediction = network.output(featureArray, false);
-        return new double[(int)prediction.length()];
+        return prediction.toDoubleMatrix();
+    }
+    
+    public QuantizedModelInstance quantize(int format) throws Exception
+    {
+        DenseInferenceEngine engine = denseEngine.get();
+        
+        if(engine==null)
+        {
+            throw new Exception("Only networks of dense and output layers with float parameters and supported activations can be quantized.");
+        }
+        
+        return new QuantizedModelInstance(engine.quantize(format));
+    }
+    
+    public ModelInstance replicate() throws Exception
+    {
+        // Replicas share this network's parameter array read-only, so only activations and workspaces are duplicated.
+        // Fall back to a full copy for configurations that cannot be initialised against an existing parameter view.
+        
+        try
+        {
+            MultiLayerNetwork replica = new MultiLayerNetwork(network.getLayerWiseConfigurations().clone());
+            replica.init(network.params(), false);
+            return new MultiLayerNetworkModelInstance(replica, true, denseEngine);
+        }
+        catch(Exception e)
+        {
+            return new MultiLayerNetworkModelInstance(network.clone(), false, denseEngine);
+        }
+    }
+
+    public long getMemoryFootprint()
+    {
+        long bytes = 0;
+        
+        if(!sharedParameters)
+        {
+            bytes = bytes+(network.params().length()*network.params().dataType().width());
+            bytes = bytes+denseEngine.getMemoryFootprint();
+        }
+        if(network.getUpdater(false)!=null && network.getUpdater(false).getStateViewArray()!=null)
+        {
+            INDArray state = network.getUpdater(false).getStateViewArray();
+            bytes = bytes+(state.length()*state.dataType().width());
+        }
+        
+        return bytes;
     }
 
     public void save(OutputStream stream) throws Exception
@@ -188,6 +316,50 @@ public class MultiLayerNetworkModelInstance implements ModelInstance
         ModelSerializer.writeModel(network, stream, true);
     }
     
+    // The network and its replicas share one engine, built by the first request that takes the dense path rather than
+    // on construction, so models only ever served large dense batches never hold the float copy.
+    
+    private static class DenseEngineReference
+    {
+        private MultiLayerNetwork network;
+        private DenseInferenceEngine engine;
+        private volatile boolean checked;
+        
+        private DenseEngineReference(MultiLayerNetwork network)
+        {
+            this.network = network;
+        }
+        
+        private DenseInferenceEngine get()
+        {
+            if(!checked)
+            {
+                synchronized(this)
+                {
+                    if(!checked)
+                    {
+                        engine = DenseInferenceEngine.create(network);
+                        checked = true;
+                    }
+                }
+            }
+            
+            return engine;
+        }
+        
+        // Estimated before the engine is built, it holds a float copy of the parameters
+        
+        private long getMemoryFootprint()
+        {
+            if(checked)
+            {
+                return engine==null ? 0 : engine.getMemoryFootprint();
+            }
+            
+            return DenseInferenceEngine.isSupported(network) ? 4L*network.params().length() : 0;
+        }
+    }
+    
     public static class SequenceDataRecordIterator implements DataSetIterator
     {
         private static final long serialVersionUID = 1L;
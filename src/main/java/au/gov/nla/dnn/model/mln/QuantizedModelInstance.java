@@ -0,0 +1,75 @@
+package au.gov.nla.dnn.model.mln;
+
+import java.io.OutputStream;
+import java.util.List;
+import java.util.function.Consumer;
+import au.gov.nla.dnn.evaluation.ModelEvaluationResult;
+import au.gov.nla.dnn.model.ModelInstance;
+import au.gov.nla.dnn.sequence.SequenceDataRecord;
+import au.gov.nla.dnn.sequence.SequenceDataRecordProvider;
+import au.gov.nla.dnn.training.TrainingHyperParameters;
+import au.gov.nla.dnn.training.TrainingListener;
+
+public class QuantizedModelInstance implements ModelInstance
+{
+    private DenseInferenceEngine engine;
+    private boolean sharedParameters;
+    
+    public QuantizedModelInstance(DenseInferenceEngine engine)
+    {
+        this(engine, false);
+    }
+    
+    private QuantizedModelInstance(DenseInferenceEngine engine, boolean sharedParameters)
+    {
+        this.engine = engine;
+        this.sharedParameters = sharedParameters;
+    }
+    
+    public void train(TrainingHyperParameters hyperParameters, int featureCount, List<String> labels, String tempDirectory, 
+            TrainingListener listener, 
+            Consumer<Exception> errorHandler,
+            SequenceDataRecordProvider trainingRecordProvider, 
+            SequenceDataRecordProvider evaluationRecordProvider) throws Exception
+    {
+        throw new Exception("Quantized models cannot be trained. Train the full precision model and quantize it again.");
+    }
+    
+    public ModelEvaluationResult evaluate(SequenceDataRecordProvider evaluationRecordProvider, int batchSize, int featureCount, 
+            List<String> labels, Consumer<Exception> errorHandler) throws Exception
+    {
+        throw new Exception("Quantized models are evaluated against their full precision model when they are created.");
+    }
+    
+    public double[] infer(double[] features) throws Exception
+    {
+        return engine.infer(features);
+    }
+    
+    public double[][] inferBatch(double[][] features) throws Exception
+    {
+        return engine.inferBatch(features);
+    }
+    
+    public double[][] inferRecords(SequenceDataRecord[] records) throws Exception
+    {
+        return engine.inferRecords(records);
+    }
+    
+    public ModelInstance replicate() throws Exception
+    {
+        // The engine is read-only apart from its per-thread scratch buffers, so replicas share it
+        
+        return new QuantizedModelInstance(engine, true);
+    }
+    
+    public long getMemoryFootprint()
+    {
+        return sharedParameters ? 0 : engine.getMemoryFootprint();
+    }
+    
+    public void save(OutputStream stream) throws Exception
+    {
+        engine.write(stream);
+    }
+}
@@ -0,0 +1,18 @@
+package au.gov.nla.dnn.model.mln;
+
+import java.io.InputStream;
+import org.json.JSONObject;
+import au.gov.nla.dnn.model.ModelInstance;
+
+public class QuantizedModelInstanceBuilder implements ModelInstance.Builder<QuantizedModelInstance>
+{
+    public QuantizedModelInstance create(JSONObject config, int featureCount, int labelCount, long randomSeed) throws Exception
+    {
+        throw new Exception("Quantized models are created from a trained model with -quantize.");
+    }
+    
+    public QuantizedModelInstance load(InputStream stream) throws Exception
+    {
+        return new QuantizedModelInstance(DenseInferenceEngine.read(stream));
+    }
+}
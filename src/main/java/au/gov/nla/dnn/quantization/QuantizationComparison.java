@@ -0,0 +1,148 @@
+package au.gov.nla.dnn.quantization;
+
+import org.json.JSONObject;
+
+public class QuantizationComparison
+{
+    private String[] labels;
+    private long records;
+    private long agreements;
+    private double totalScoreDifference;
+    private double maxScoreDifference;
+    private long[] expectedTruePositives;
+    private long[] expectedFalsePositives;
+    private long[] actualTruePositives;
+    private long[] actualFalsePositives;
+    private long[] labelledRecords;
+    
+    public QuantizationComparison(String[] labels)
+    {
+        this.labels = labels;
+        this.expectedTruePositives = new long[labels.length];
+        this.expectedFalsePositives = new long[labels.length];
+        this.actualTruePositives = new long[labels.length];
+        this.actualFalsePositives = new long[labels.length];
+        this.labelledRecords = new long[labels.length];
+    }
+    
+    public void add(double[] recordLabels, double[] expected, double[] actual)
+    {
+        int expectedLabel = argMax(expected);
+        int actualLabel = argMax(actual);
+        records++;
+        
+        if(expectedLabel==actualLabel)
+        {
+            agreements++;
+        }
+        for(int i=0; i<expected.length; i++)
+        {
+            double difference = Math.abs(expected[i]-actual[i]);
+            totalScoreDifference = totalScoreDifference+difference;
+            maxScoreDifference = Math.max(maxScoreDifference, difference);
+        }
+        
+        // F1 against the record's own label, for records which have one
+        
+        int trueLabel = argMax(recordLabels);
+        
+        if(trueLabel<0 || recordLabels[trueLabel]<=0d)
+        {
+            return;
+        }
+        
+        labelledRecords[trueLabel]++;
+        
+        if(expectedLabel==trueLabel)
+        {
+            expectedTruePositives[trueLabel]++;
+        }
+        else
+        {
+            expectedFalsePositives[expectedLabel]++;
+        }
+        if(actualLabel==trueLabel)
+        {
+            actualTruePositives[trueLabel]++;
+        }
+        else
+        {
+            actualFalsePositives[actualLabel]++;
+        }
+    }
+    
+    public double getAgreement()
+    {
+        return records==0 ? 1d : ((double)agreements)/((double)records);
+    }
+    
+    public double getF1Delta()
+    {
+        return getMacroF1(actualTruePositives, actualFalsePositives)-getMacroF1(expectedTruePositives, expectedFalsePositives);
+    }
+    
+    public JSONObject toJSON()
+    {
+        JSONObject expectedF1 = new JSONObject();
+        JSONObject actualF1 = new JSONObject();
+        
+        for(int i=0; i<labels.length; i++)
+        {
+            expectedF1.put(labels[i], getF1(expectedTruePositives, expectedFalsePositives, i));
+            actualF1.put(labels[i], getF1(actualTruePositives, actualFalsePositives, i));
+        }
+        
+        JSONObject json = new JSONObject();
+        json.put("records", records);
+        json.put("agreement", getAgreement());
+        json.put("mean-score-difference", records==0 ? 0d : totalScoreDifference/((double)(records*labels.length)));
+        json.put("max-score-difference", maxScoreDifference);
+        json.put("full-precision-f1", getMacroF1(expectedTruePositives, expectedFalsePositives));
+        json.put("quantized-f1", getMacroF1(actualTruePositives, actualFalsePositives));
+        json.put("f1-delta", getF1Delta());
+        json.put("full-precision-label-f1", expectedF1);
+        json.put("quantized-label-f1", actualF1);
+        return json;
+    }
+    
+    private double getMacroF1(long[] truePositives, long[] falsePositives)
+    {
+        double total = 0d;
+        int count = 0;
+        
+        for(int i=0; i<labels.length; i++)
+        {
+            if(labelledRecords[i]>0 || falsePositives[i]>0)
+            {
+                total = total+getF1(truePositives, falsePositives, i);
+                count++;
+            }
+        }
+        
+        return count==0 ? 0d : total/count;
+    }
+    
+    private double getF1(long[] truePositives, long[] falsePositives, int label)
+    {
+        double tp = truePositives[label];
+        double fp = falsePositives[label];
+        double fn = labelledRecords[label]-truePositives[label];
+        
+        return tp==0d ? 0d : (2d*tp)/((2d*tp)+fp+fn);
+    }
+    
+    private static int argMax(double[] values)
+    {
+        int index = -1;
+        
+        for(int i=0; i<values.length; i++)
+        {
+            if(index<0 || values[i]>values[index])
+            {
+                index = i;
+            }
+        }
+        
+        return index;
+    }
+}
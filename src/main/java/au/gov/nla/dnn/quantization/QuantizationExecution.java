@@ -0,0 +1,135 @@
+package au.gov.nla.dnn.quantization;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import org.json.JSONObject;
+
+import au.gov.nla.dnn.model.ModelInstance;
+import au.gov.nla.dnn.model.SerializedModelState;
+import au.gov.nla.dnn.model.mln.DenseInferenceEngine;
+import au.gov.nla.dnn.model.mln.MultiLayerNetworkModelInstance;
+import au.gov.nla.dnn.model.mln.QuantizedModelInstance;
+import au.gov.nla.dnn.model.mln.QuantizedModelInstanceBuilder;
+import au.gov.nla.dnn.record.RawDataRecord;
+import au.gov.nla.dnn.record.RawDataRecordProvider;
+import au.gov.nla.dnn.sequence.InputSequenceInstance;
+import au.gov.nla.dnn.sequence.SequenceDataRecord;
+
+public class QuantizationExecution
+{
+    public void execute(JSONObject config, String modelSaveFile, String evalSaveFile) throws Exception
+    {
+        Consumer<Exception> errorHandler = new Consumer<Exception>(){
+            public void accept(Exception e)
+            {
+                e.printStackTrace();
+            }
+        };
+        
+        int format;
+        
+        switch(config.getString("format"))
+        {
+            case "int8":
+            {
+                format = DenseInferenceEngine.FORMAT_INT8;
+                break;
+            }
+            case "float16":
+            {
+                format = DenseInferenceEngine.FORMAT_FLOAT16;
+                break;
+            }
+            default:
+            {
+                throw new Exception("Quantization format ["+config.getString("format")+"] not defined correctly.");
+            }
+        }
+        
+        System.out.println("Loading model...");
+        
+        SerializedModelState state = SerializedModelState.read(new File(config.getString("model-file")));
+        ModelInstance instance = state.createModelInstance();
+        
+        if(!(instance instanceof MultiLayerNetworkModelInstance))
+        {
+            throw new Exception("Only full precision multi-layer network models can be quantized.");
+        }
+        
+        MultiLayerNetworkModelInstance source = (MultiLayerNetworkModelInstance)instance;
+        
+        System.out.println("Quantizing model...");
+        
+        QuantizedModelInstance quantized = source.quantize(format);
+        
+        System.out.println("Comparing against the full precision model...");
+        
+        RawDataRecordProvider recordProvider = (RawDataRecordProvider)Class.forName(config.getString("evaluation-record-provider")).getConstructor().newInstance();
+        recordProvider.initialise(config.getJSONObject("evaluation-record-provider-config"), Arrays.asList(state.getLabels()), errorHandler);
+        
+        QuantizationComparison comparison = compare(source, quantized, state.getSequenceInstance(), recordProvider,
+                state.getLabels(), config.optInt("batch-size", 32));
+        
+        JSONObject evaluation = comparison.toJSON();
+        evaluation.put("format", config.getString("format"));
+        evaluation.put("full-precision-weight-bytes", source.quantize(DenseInferenceEngine.FORMAT_FLOAT).getMemoryFootprint());
+        evaluation.put("quantized-weight-bytes", quantized.getMemoryFootprint());
+        Files.write(new File(evalSaveFile).toPath(), evaluation.toString().getBytes(StandardCharsets.UTF_8));
+        
+        System.out.println("Agreement with the full precision model: "+comparison.getAgreement()+", F1 delta: "+comparison.getF1Delta()+". Statistics saved to "+evalSaveFile+".");
+        
+        if(config.has("min-agreement") && comparison.getAgreement()<config.getDouble("min-agreement"))
+        {
+            throw new Exception("Quantized model agreement "+comparison.getAgreement()+" is below the configured minimum of "+config.getDouble("min-agreement")+". Model not saved.");
+        }
+        
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        quantized.save(bytes);
+        
+        try(ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(modelSaveFile)))
+        {
+            out.writeObject(new SerializedModelState(bytes.toByteArray(), state.getSequenceInstance(),
+                    QuantizedModelInstanceBuilder.class.getName(), state.getLabels()));
+            out.flush();
+        }
+        
+        System.out.println("Quantization complete. Model saved to "+modelSaveFile+".");
+    }
+    
+    private QuantizationComparison compare(ModelInstance source, ModelInstance quantized, InputSequenceInstance sequence,
+            RawDataRecordProvider recordProvider, String[] labels, int batchSize) throws Exception
+    {
+        QuantizationComparison comparison = new QuantizationComparison(labels);
+        List<SequenceDataRecord> batch = new ArrayList<SequenceDataRecord>(batchSize);
+        
+        while(recordProvider.hasMoreRecords())
+        {
+            RawDataRecord record = recordProvider.getNextRecord();
+            batch.add(sequence.process(record));
+            
+            if(batch.size()==batchSize || !recordProvider.hasMoreRecords())
+            {
+                SequenceDataRecord[] records = batch.toArray(new SequenceDataRecord[batch.size()]);
+                double[][] expected = source.inferRecords(records);
+                double[][] actual = quantized.inferRecords(records);
+                
+                for(int i=0; i<records.length; i++)
+                {
+                    comparison.add(records[i].getLabels(), expected[i], actual[i]);
+                }
+                
+                batch.clear();
+            }
+        }
+        
+        return comparison;
+    }
+}
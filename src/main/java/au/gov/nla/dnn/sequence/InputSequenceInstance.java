@@ -9,6 +9,7 @@ public interface InputSequenceInstance extends Serializable
 {
     public int getFeatureCount();
     public int getLabelCount();
+    public long getMemoryFootprint();
     
     public void preProcess(long randomSeed, RawDataRecordProvider recordProvider) throws Exception;
     public SequenceDataRecord process(RawDataRecord record) throws Exception;
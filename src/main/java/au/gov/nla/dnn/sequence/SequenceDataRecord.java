@@ -19,6 +19,11 @@ public class SequenceDataRecord implements Serializable
     {
         return features;
     }
+    
+    public int getFeatureCount()
+    {
+        return features.length;
+    }
 
     public double[] getLabels()
     {
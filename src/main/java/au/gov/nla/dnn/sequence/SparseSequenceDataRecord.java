@@ -0,0 +1,55 @@
+package au.gov.nla.dnn.sequence;
+
+public class SparseSequenceDataRecord extends SequenceDataRecord
+{
+    private static final long serialVersionUID = 1L;
+    
+    private int featureCount;
+    private int[] indices;
+    private float[] values;
+    private transient double[] denseFeatures;
+    
+    // Only the non-zero features, with indices in ascending order
+    
+    public SparseSequenceDataRecord(int featureCount, int[] indices, float[] values, double[] labels)
+    {
+        super(null, labels);
+        this.featureCount = featureCount;
+        this.indices = indices;
+        this.values = values;
+    }
+    
+    public double[] getFeatures()
+    {
+        // Expanded once on demand for consumers which need every feature, such as training
+        
+        if(denseFeatures==null)
+        {
+            double[] features = new double[featureCount];
+            
+            for(int i=0; i<indices.length; i++)
+            {
+                features[indices[i]] = values[i];
+            }
+            
+            denseFeatures = features;
+        }
+        
+        return denseFeatures;
+    }
+    
+    public int getFeatureCount()
+    {
+        return featureCount;
+    }
+    
+    public int[] getIndices()
+    {
+        return indices;
+    }
+    
+    public float[] getValues()
+    {
+        return values;
+    }
+}
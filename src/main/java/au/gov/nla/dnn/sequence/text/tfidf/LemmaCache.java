@@ -0,0 +1,149 @@
+package au.gov.nla.dnn.sequence.text.tfidf;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class LemmaCache
+{
+    private static final int MAGIC = 0x444E4E4C; // "DNNL"
+    private static final int VERSION = 1;
+    
+    private ConcurrentHashMap<String, String[]> lemmas;
+    private int maxEntries;
+    private AtomicInteger size;
+    private AtomicLong hits;
+    private AtomicLong misses;
+    
+    public LemmaCache(int maxEntries)
+    {
+        this.lemmas = new ConcurrentHashMap<String, String[]>();
+        this.maxEntries = maxEntries;
+        this.size = new AtomicInteger();
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+    }
+    
+    // A word form can tokenize into more than one lemma (e.g. "cannot")
+    
+    public String[] get(String form)
+    {
+        String[] result = lemmas.get(form);
+        
+        if(result==null)
+        {
+            misses.incrementAndGet();
+        }
+        else
+        {
+            hits.incrementAndGet();
+        }
+        
+        return result;
+    }
+    
+    public void put(String form, String[] result)
+    {
+        // Once full, new forms are no longer admitted. The forms which repeat across documents are seen early,
+        // so they are already cached by the time the limit is reached.
+        
+        if(size.get()>=maxEntries)
+        {
+            return;
+        }
+        if(lemmas.putIfAbsent(form, result)==null)
+        {
+            size.incrementAndGet();
+        }
+    }
+    
+    public int size()
+    {
+        return size.get();
+    }
+    
+    public long getHits()
+    {
+        return hits.get();
+    }
+    
+    public long getMisses()
+    {
+        return misses.get();
+    }
+    
+    public double getHitRate()
+    {
+        long lookups = hits.get()+misses.get();
+        return lookups==0 ? 0d : ((double)hits.get())/((double)lookups);
+    }
+    
+    public void load(File file) throws IOException
+    {
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+        {
+            if(in.readInt()!=MAGIC)
+            {
+                throw new IOException("Not a lemma cache file: "+file);
+            }
+            
+            int version = in.readInt();
+            
+            if(version!=VERSION)
+            {
+                throw new IOException("Unsupported lemma cache version: "+version);
+            }
+            
+            int count = in.readInt();
+            
+            for(int i=0; i<count; i++)
+            {
+                String form = in.readUTF();
+                String[] result = new String[in.readInt()];
+                
+                for(int j=0; j<result.length; j++)
+                {
+                    result[j] = in.readUTF();
+                }
+                
+                put(form, result);
+            }
+        }
+    }
+    
+    public void save(File file) throws IOException
+    {
+        File temp = new File(file.getAbsolutePath()+".tmp");
+        
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp))))
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(lemmas.size());
+            
+            for(Map.Entry<String, String[]> entry: lemmas.entrySet())
+            {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().length);
+                
+                for(String lemma: entry.getValue())
+                {
+                    out.writeUTF(lemma);
+                }
+            }
+        }
+        
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -26,6 +26,11 @@ public class TFIDFVectorSpaceInputSequence implements InputSequence
                 config.getInt("word-min-characters"), 
                 config.getInt("word-max-characters"), 
                 config.getInt("word-min-occurrances"), 
-                labels);
+                labels,
+                config.optInt("preprocessing-threads", 1),
+                config.optInt("lemma-cache-size", 0),
+                config.optString("lemma-cache-file", null),
+                config.optInt("max-words-in-memory", 0),
+                config.optString("word-spill-directory", null));
     }
 }
@@ -1,17 +1,35 @@
 package au.gov.nla.dnn.sequence.text.tfidf;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
 import au.gov.nla.dnn.record.RawDataRecord;
 import au.gov.nla.dnn.record.RawDataRecordProvider;
 import au.gov.nla.dnn.sequence.InputSequenceInstance;
 import au.gov.nla.dnn.sequence.SequenceDataRecord;
+import au.gov.nla.dnn.sequence.SparseSequenceDataRecord;
 import edu.stanford.nlp.ling.CoreAnnotations;
 import edu.stanford.nlp.ling.CoreLabel;
 import edu.stanford.nlp.pipeline.Annotation;
@@ -27,12 +45,26 @@ public class TFIDFVectorSpaceInputSequenceInstance implements InputSequenceInsta
     private int maxCharacters;
     private int minOccurrances;
     private List<String> labelList;
+    private int preProcessingThreads;
+    private int lemmaCacheSize;
+    private String lemmaCacheFile;
+    private int maxWordsInMemory;
+    private String wordSpillDirectory;
+    private transient LemmaCache lemmaCache;
+    private transient volatile float[] idf;
+    private transient Pattern wordSplitRegex;
+    private transient Pattern featureSplitRegex;
+    private transient Utf8Tokenizer wordTokenizer;
+    private transient Utf8Tokenizer featureTokenizer;
+    private transient TermFilter termFilter;
     
-    private LinkedHashMap<String, Word> words;
+    private transient Vocabulary vocabulary;
+    private LinkedHashMap<String, Word> words; // only set when reading instances saved before the compact vocabulary
     private double totalProcessedRecords;
     
     public TFIDFVectorSpaceInputSequenceInstance(String wordSplitPattern, List<String> exclusionPatterns, 
-            int minCharacters, int maxCharacters, int minOccurrances, List<String> labelList)
+            int minCharacters, int maxCharacters, int minOccurrances, List<String> labelList, int preProcessingThreads, 
+            int lemmaCacheSize, String lemmaCacheFile, int maxWordsInMemory, String wordSpillDirectory)
     {
         this.wordSplitPattern = wordSplitPattern;
         this.exclusionPatterns = exclusionPatterns;
@@ -40,12 +72,33 @@ public class TFIDFVectorSpaceInputSequenceInstance implements InputSequenceInsta
         this.maxCharacters = maxCharacters;
         this.minOccurrances = minOccurrances;
         this.labelList = labelList;
-        this.words = new LinkedHashMap<String, Word>();
+        this.preProcessingThreads = preProcessingThreads;
+        this.lemmaCacheSize = lemmaCacheSize;
+        this.lemmaCacheFile = lemmaCacheFile;
+        this.maxWordsInMemory = maxWordsInMemory;
+        this.wordSpillDirectory = wordSpillDirectory;
+        this.vocabulary = Vocabulary.build(new ArrayList<String>(), new int[0]);
+        initialiseTextProcessing();
+    }
+    
+    private void initialiseTextProcessing()
+    {
+        termFilter = new TermFilter(exclusionPatterns);
+        
+        // The byte tokenizers are used where they give exactly the String.split result, the compiled patterns otherwise
+        
+        wordSplitRegex = Pattern.compile(wordSplitPattern);
+        featureSplitRegex = Pattern.compile("\\s+");
+        featureTokenizer = minCharacters>0 ? Utf8Tokenizer.forPattern("\\s+") : null;
+        
+        String language = Locale.getDefault().getLanguage();
+        boolean asciiLowerCase = !language.equals("tr") && !language.equals("az");
+        wordTokenizer = minCharacters>0 && asciiLowerCase ? Utf8Tokenizer.forPattern(wordSplitPattern) : null;
     }
 
     public int getFeatureCount()
     {
-        return words.size();
+        return vocabulary.size();
     }
     
     public int getLabelCount()
@@ -53,144 +106,511 @@ public class TFIDFVectorSpaceInputSequenceInstance implements InputSequenceInsta
         return labelList.size();
     }
     
+    public long getMemoryFootprint()
+    {
+        return vocabulary.getMemoryFootprint()+(4L*vocabulary.size()); // plus the IDF weights
+    }
+    
     public void preProcess(long randomSeed, RawDataRecordProvider recordProvider) throws Exception
     {
-        boolean exclude;
-        words.clear();
+        totalProcessedRecords = 0;
+        lemmaCache = null;
+        idf = null;
         
-        Properties props = new Properties();
-        props.setProperty("annotators", "tokenize,ssplit,pos,lemma");
+        if(lemmaCacheSize>0)
+        {
+            lemmaCache = new LemmaCache(lemmaCacheSize);
+            
+            if(lemmaCacheFile!=null && new File(lemmaCacheFile).exists())
+            {
+                lemmaCache.load(new File(lemmaCacheFile));
+                System.out.println("[TFIDFVectorSpaceInputSequenceInstance] Loaded "+lemmaCache.size()+" cached lemmas from "+lemmaCacheFile);
+            }
+        }
+        
+        // With max-words-in-memory set, each counter spills its counts to the spill directory whenever it holds its
+        // share of that many distinct words, and the vocabulary is merged from disk before pruning
         
-        StanfordCoreNLP pipeline = new StanfordCoreNLP(props);
+        int counterCount = Math.max(preProcessingThreads, 1);
+        int maxWords = maxWordsInMemory>0 ? Math.max(maxWordsInMemory/counterCount, 1) : 0;
+        File spillDirectory = new File(wordSpillDirectory!=null ? wordSpillDirectory : System.getProperty("java.io.tmpdir"));
+        List<VocabularyCounter> counters = new ArrayList<VocabularyCounter>();
+        
+        for(int i=0; i<counterCount; i++)
+        {
+            counters.add(new VocabularyCounter(maxWords, spillDirectory));
+        }
         
-        while(recordProvider.hasMoreRecords())
+        try
         {
-            RawDataRecord record = recordProvider.getNextRecord();
-            totalProcessedRecords++;
+            if(preProcessingThreads>1)
+            {
+                preProcessParallel(recordProvider, counters);
+            }
+            else
+            {
+                StanfordCoreNLP pipeline = createPipeline();
+                VocabularyCounter counter = counters.get(0);
+                
+                while(recordProvider.hasMoreRecords())
+                {
+                    RawDataRecord record = recordProvider.getNextRecord();
+                    int position = 0;
+                    
+                    for(String w: extractTerms(record, pipeline))
+                    {
+                        counter.add(w, (long)totalProcessedRecords, position);
+                        position++;
+                    }
+                    
+                    totalProcessedRecords++;
+                    System.out.println("[TFIDFVectorSpaceInputSequenceInstance] Preprocessed text record: "+totalProcessedRecords);
+                }
+            }
             
-            // Build list of unique words
+            int spills = 0;
             
-            HashSet<String> wordSet = new HashSet<String>();
-            String data = new String(record.getData());
+            for(VocabularyCounter counter: counters)
+            {
+                spills = spills+counter.getSpillCount();
+            }
+            if(spills>0)
+            {
+                System.out.println("[TFIDFVectorSpaceInputSequenceInstance] Merging "+spills+" word count spills from "+spillDirectory);
+            }
             
-            for(String segment: data.split(wordSplitPattern))
+            vocabulary = VocabularyCounter.buildVocabulary(counters, minOccurrances);
+        }
+        finally
+        {
+            for(VocabularyCounter counter: counters)
             {
-                if(segment.length()>=minCharacters && segment.length()<=maxCharacters)
+                counter.dispose();
+            }
+        }
+        
+        System.out.println("[TFIDFVectorSpaceInputSequenceInstance] Total words: "+vocabulary.size());
+        
+        if(lemmaCache!=null)
+        {
+            System.out.println("[TFIDFVectorSpaceInputSequenceInstance] Lemma cache hit rate: "+String.format("%.2f", lemmaCache.getHitRate()*100d)
+                    +"% ("+lemmaCache.getHits()+" hits, "+lemmaCache.getMisses()+" misses, "+lemmaCache.size()+" entries)");
+            
+            if(lemmaCacheFile!=null)
+            {
+                lemmaCache.save(new File(lemmaCacheFile));
+            }
+            
+            lemmaCache = null;
+        }
+    }
+    
+    private void preProcessParallel(RawDataRecordProvider recordProvider, List<VocabularyCounter> counters) throws Exception
+    {
+        // The record provider is read on this thread and records are handed to workers, each with its own
+        // CoreNLP pipeline and document frequency counter. Every term remembers where it was first seen
+        // (record, then position within the record), so after merging the vocabulary can be put in
+        // exactly the order a single threaded run would have inserted it.
+        
+        BlockingQueue<PendingRecord> queue = new ArrayBlockingQueue<PendingRecord>(preProcessingThreads*16);
+        ExecutorService workerService = Executors.newFixedThreadPool(preProcessingThreads);
+        List<Future<VocabularyCounter>> workers = new ArrayList<Future<VocabularyCounter>>();
+        
+        try
+        {
+            for(VocabularyCounter counter: counters)
+            {
+                workers.add(workerService.submit(new Callable<VocabularyCounter>(){
+                    public VocabularyCounter call() throws Exception
+                    {
+                        StanfordCoreNLP pipeline = createPipeline();
+                        
+                        while(true)
+                        {
+                            PendingRecord pending = queue.take();
+                            
+                            if(pending.index<0)
+                            {
+                                return counter;
+                            }
+                            
+                            int position = 0;
+                            
+                            for(String w: extractTerms(pending.record, pipeline))
+                            {
+                                counter.add(w, pending.index, position);
+                                position++;
+                            }
+                            
+                            System.out.println("[TFIDFVectorSpaceInputSequenceInstance] Preprocessed text record: "+(pending.index+1));
+                        }
+                    }
+                }));
+            }
+            
+            long index = 0;
+            
+            while(recordProvider.hasMoreRecords())
+            {
+                enqueue(queue, new PendingRecord(index, recordProvider.getNextRecord()), workers);
+                index++;
+            }
+            for(int i=0; i<preProcessingThreads; i++)
+            {
+                enqueue(queue, new PendingRecord(-1, null), workers);
+            }
+            
+            totalProcessedRecords = index;
+            
+            for(Future<VocabularyCounter> worker: workers)
+            {
+                worker.get();
+            }
+        }
+        finally
+        {
+            workerService.shutdownNow();
+        }
+    }
+    
+    private void enqueue(BlockingQueue<PendingRecord> queue, PendingRecord pending, List<Future<VocabularyCounter>> workers) throws Exception
+    {
+        // A worker only finishes early when it fails, so surface its exception rather than waiting on a full queue forever
+        
+        while(!queue.offer(pending, 100, TimeUnit.MILLISECONDS))
+        {
+            for(Future<VocabularyCounter> worker: workers)
+            {
+                if(worker.isDone())
                 {
-                    wordSet.add(segment.toLowerCase());
+                    worker.get();
                 }
             }
+        }
+    }
+    
+    private StanfordCoreNLP createPipeline()
+    {
+        Properties props = new Properties();
+        props.setProperty("annotators", "tokenize,ssplit,pos,lemma");
+        
+        if(lemmaCache!=null)
+        {
+            props.setProperty("ssplit.eolonly", "true"); // one word form per line, see lemmatize()
+        }
+        
+        return new StanfordCoreNLP(props);
+    }
+    
+    private void lemmatize(HashSet<String> wordSet, HashSet<String> lemmatizedSet, StanfordCoreNLP pipeline)
+    {
+        StringBuilder b = new StringBuilder();
+        
+        for(String w: wordSet)
+        {
+            b.append(w).append(" ");
+        }
+        
+        Annotation annotation = new Annotation(b.toString());
+        pipeline.annotate(annotation);
+        
+        for(CoreLabel token: annotation.get(CoreAnnotations.TokensAnnotation.class))
+        {
+            String lemma = token.lemma();
+            lemmatizedSet.add(lemma==null?token.originalText():lemma);
+        }
+    }
+    
+    private void lemmatizeCached(HashSet<String> wordSet, HashSet<String> lemmatizedSet, StanfordCoreNLP pipeline)
+    {
+        // Each uncached form is annotated on its own line, so its lemma depends only on the form and not on
+        // which other words happened to share the record. That keeps cached results valid in any record and
+        // makes them independent of which worker thread saw a form first.
+        
+        String[] forms = wordSet.toArray(new String[wordSet.size()]);
+        String[][] results = new String[forms.length][];
+        List<Integer> uncached = new ArrayList<Integer>();
+        
+        for(int i=0; i<forms.length; i++)
+        {
+            results[i] = lemmaCache.get(forms[i]);
             
-            // Lemmatize unique words
-            
-            HashSet<String> lemmatizedSet = new HashSet<String>();
+            if(results[i]==null)
+            {
+                uncached.add(i);
+            }
+        }
+        
+        if(!uncached.isEmpty())
+        {
             StringBuilder b = new StringBuilder();
+            int[] offsets = new int[uncached.size()+1];
             
-            for(String w: wordSet)
+            for(int i=0; i<uncached.size(); i++)
             {
-                b.append(w).append(" ");
+                offsets[i] = b.length();
+                b.append(forms[uncached.get(i)]).append("\n");
             }
             
+            offsets[uncached.size()] = b.length();
+            
             Annotation annotation = new Annotation(b.toString());
             pipeline.annotate(annotation);
             
+            List<List<String>> lemmas = new ArrayList<List<String>>(uncached.size());
+            
+            for(int i=0; i<uncached.size(); i++)
+            {
+                lemmas.add(new ArrayList<String>(1));
+            }
+            
+            int line = 0;
+            
             for(CoreLabel token: annotation.get(CoreAnnotations.TokensAnnotation.class))
             {
+                while(token.beginPosition()>=offsets[line+1])
+                {
+                    line++;
+                }
+                
                 String lemma = token.lemma();
-                lemmatizedSet.add(lemma==null?token.originalText():lemma);
+                lemmas.get(line).add(lemma==null?token.originalText():lemma);
             }
+            for(int i=0; i<uncached.size(); i++)
+            {
+                int index = uncached.get(i);
+                results[index] = lemmas.get(i).toArray(new String[lemmas.get(i).size()]);
+                lemmaCache.put(forms[index], results[index]);
+            }
+        }
+        
+        // Added in the word set's order whether cached or not, so the set iterates the same way on every run
+        
+        for(String[] result: results)
+        {
+            for(String lemma: result)
+            {
+                lemmatizedSet.add(lemma);
+            }
+        }
+    }
+    
+    private List<String> extractTerms(RawDataRecord record, StanfordCoreNLP pipeline)
+    {
+        // Build list of unique words
+        
+        HashSet<String> wordSet = new HashSet<String>();
+        boolean tokenized = false;
+        
+        if(wordTokenizer!=null)
+        {
+            // Only Strings for distinct words, added in order of first occurrence just as the split loop would add them
             
-            // Exclude words and add remaining to vocab
+            byte[] data = Arrays.copyOf(record.getData(), record.getData().length);
+            Utf8Tokenizer.toLowerCaseAscii(data);
+            Utf8Tokenizer.TokenCounts tokens = new Utf8Tokenizer.TokenCounts(data);
             
-            for(String w: lemmatizedSet)
+            if(wordTokenizer.count(data, minCharacters, maxCharacters, true, tokens))
             {
-                exclude = false;
-                
-                for(String pattern: exclusionPatterns)
+                for(int i=0; i<tokens.size(); i++)
                 {
-                    if(w.matches(pattern))
-                    {
-                        exclude = true;
-                        break;
-                    }
+                    wordSet.add(new String(data, tokens.getStart(i), tokens.getLength(i), StandardCharsets.US_ASCII));
                 }
-                if(!exclude)
+                
+                tokenized = true;
+            }
+        }
+        if(!tokenized)
+        {
+            String data = new String(record.getData());
+            
+            for(String segment: wordSplitRegex.split(data))
+            {
+                if(segment.length()>=minCharacters && segment.length()<=maxCharacters)
                 {
-                    Word word = getWord(w);
-                    word.setRecordsContainingWord(word.getRecordsContainingWord()+1);
+                    wordSet.add(segment.toLowerCase());
                 }
             }
-            
-            System.out.println("[TFIDFVectorSpaceInputSequenceInstance] Preprocessed text record: "+totalProcessedRecords);
         }
         
-        for(String w: new ArrayList<String>(words.keySet()))
+        // Lemmatize unique words
+        
+        HashSet<String> lemmatizedSet = new HashSet<String>();
+        
+        if(lemmaCache!=null)
+        {
+            lemmatizeCached(wordSet, lemmatizedSet, pipeline);
+        }
+        else
         {
-            if(words.get(w).getRecordsContainingWord()<minOccurrances)
+            lemmatize(wordSet, lemmatizedSet, pipeline);
+        }
+        
+        // Exclude words, in the set's iteration order which decides vocabulary order
+        
+        List<String> terms = new ArrayList<String>(lemmatizedSet.size());
+        
+        for(String w: lemmatizedSet)
+        {
+            if(!termFilter.excludes(w))
             {
-                words.remove(w);
+                terms.add(w);
             }
         }
         
-        System.out.println("[TFIDFVectorSpaceInputSequenceInstance] Total words: "+words.size());
+        return terms;
     }
     
     public SequenceDataRecord process(RawDataRecord record)
     {
-        HashMap<String, Integer> wordFrequency = new HashMap<String, Integer>();
-        String featureText = new String(record.getData());
+        // Only the record's own words are looked up, so the cost follows the record length rather than the vocabulary size.
+        // Each entry packs the feature index above its position in the list, so sorting orders the features by index.
+        
+        float[] weights = getIdf();
+        byte[] data = record.getData();
+        Utf8Tokenizer.TokenCounts tokens = new Utf8Tokenizer.TokenCounts(data);
+        long[] entries;
+        float[] frequencies;
+        int nonZeroCount = 0;
         
-        for(String segment: featureText.split("\\s+"))
+        if(featureTokenizer!=null && featureTokenizer.count(data, minCharacters, Integer.MAX_VALUE, false, tokens))
         {
-            if(segment.length()>=minCharacters)
+            double wordCount = tokens.size();
+            entries = new long[tokens.size()];
+            frequencies = new float[tokens.size()];
+            
+            for(int i=0; i<tokens.size(); i++)
             {
-                if(wordFrequency.containsKey(segment))
+                int index = vocabulary.indexOf(data, tokens.getStart(i), tokens.getLength(i));
+                
+                if(index>=0)
                 {
-                    wordFrequency.put(segment, wordFrequency.get(segment)+1);
+                    entries[nonZeroCount] = (((long)index)<<32)|nonZeroCount;
+                    frequencies[nonZeroCount] = (float)(((double)tokens.getCount(i))/wordCount);
+                    nonZeroCount++;
                 }
-                else
+            }
+        }
+        else
+        {
+            HashMap<String, Integer> wordFrequency = new HashMap<String, Integer>();
+            String featureText = new String(data);
+            
+            for(String segment: featureSplitRegex.split(featureText))
+            {
+                if(segment.length()>=minCharacters)
                 {
-                    wordFrequency.put(segment, 1);
+                    if(wordFrequency.containsKey(segment))
+                    {
+                        wordFrequency.put(segment, wordFrequency.get(segment)+1);
+                    }
+                    else
+                    {
+                        wordFrequency.put(segment, 1);
+                    }
+                }
+            }
+            
+            double wordCount = wordFrequency.size();
+            entries = new long[wordFrequency.size()];
+            frequencies = new float[wordFrequency.size()];
+            
+            for(Map.Entry<String, Integer> entry: wordFrequency.entrySet())
+            {
+                int index = vocabulary.indexOf(entry.getKey());
+                
+                if(index>=0)
+                {
+                    entries[nonZeroCount] = (((long)index)<<32)|nonZeroCount;
+                    frequencies[nonZeroCount] = (float)(((double)entry.getValue())/wordCount);
+                    nonZeroCount++;
                 }
             }
         }
         
-        double wordCount = wordFrequency.size();
-        double[] features = new double[words.size()];
-        int wordIndex = 0;
+        Arrays.sort(entries, 0, nonZeroCount);
+        
+        int[] indices = new int[nonZeroCount];
+        float[] values = new float[nonZeroCount];
+        
+        for(int i=0; i<nonZeroCount; i++)
+        {
+            indices[i] = (int)(entries[i]>>>32);
+            values[i] = frequencies[(int)entries[i]]*weights[indices[i]];
+        }
+        
+        return new SparseSequenceDataRecord(weights.length, indices, values, record.getLabels());
+    }
+    
+    private float[] getIdf()
+    {
+        // Computed once per vocabulary, on first use after preprocessing or deserialisation
+        
+        float[] weights = idf;
         
-        for(String wordKey: words.keySet())
+        if(weights==null)
         {
-            Word word = words.get(wordKey);
-            Integer frequency = wordFrequency.get(wordKey);
+            weights = new float[vocabulary.size()];
             
-            if(frequency!=null && frequency>0)
+            for(int i=0; i<weights.length; i++)
             {
-                features[wordIndex] = (((double)frequency)/wordCount)*(Math.log(totalProcessedRecords/((double)word.getRecordsContainingWord())));
-            }
-            else
-            {
-                features[wordIndex] = 0d;
+                weights[i] = (float)Math.log(totalProcessedRecords/((double)vocabulary.getDocumentFrequency(i)));
             }
             
-            wordIndex++;
+            idf = weights;
         }
         
-        System.out.println("[TFIDFVectorSpaceInputSequenceInstance] Processed text record: "+features);
-        return new SequenceDataRecord(features, record.getLabels());
+        return weights;
+    }
+    
+    private void writeObject(ObjectOutputStream out) throws IOException
+    {
+        out.defaultWriteObject();
+        
+        byte[] bytes = vocabulary.toByteArray();
+        out.writeInt(bytes.length);
+        out.write(bytes);
     }
     
-    private Word getWord(String value)
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
     {
-        Word word = words.get(value);
+        in.defaultReadObject();
+        initialiseTextProcessing();
         
-        if(word==null)
+        if(words!=null)
         {
-            word = new Word(value);
-            words.put(value, word);
+            // Saved with the vocabulary as a map of Word objects, which are already in feature order
+            
+            List<String> terms = new ArrayList<String>(words.size());
+            int[] documentFrequencies = new int[words.size()];
+            
+            for(Word word: words.values())
+            {
+                documentFrequencies[terms.size()] = word.getRecordsContainingWord();
+                terms.add(word.getValue());
+            }
+            
+            vocabulary = Vocabulary.build(terms, documentFrequencies);
+            words = null;
+        }
+        else
+        {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            vocabulary = Vocabulary.read(ByteBuffer.wrap(bytes));
         }
+    }
+    
+    private static class PendingRecord
+    {
+        private long index;
+        private RawDataRecord record;
         
-        return word;
+        private PendingRecord(long index, RawDataRecord record)
+        {
+            this.index = index;
+            this.record = record;
+        }
     }
     
     protected static class Word implements Serializable
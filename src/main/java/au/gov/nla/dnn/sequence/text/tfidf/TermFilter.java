@@ -0,0 +1,116 @@
+package au.gov.nla.dnn.sequence.text.tfidf;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+public class TermFilter
+{
+    private static final int MAX_CACHED_DECISIONS = 1000000;
+    private static final Pattern METACHARACTERS = Pattern.compile("[\\\\\\[\\](){}.*+?^$|]");
+    private static final Pattern GROUP_REFERENCES = Pattern.compile("\\\\[1-9]|\\\\k<");
+    
+    private HashSet<String> literals;
+    private List<Pattern> patterns;
+    private ConcurrentHashMap<String, Boolean> decisions;
+    
+    // Excludes a term when it matches any of the patterns as a whole, the same as String.matches on each
+    
+    public TermFilter(List<String> exclusionPatterns)
+    {
+        literals = new HashSet<String>();
+        patterns = new ArrayList<Pattern>();
+        decisions = new ConcurrentHashMap<String, Boolean>();
+        
+        List<String> expressions = new ArrayList<String>();
+        
+        for(String pattern: exclusionPatterns)
+        {
+            if(!METACHARACTERS.matcher(pattern).find())
+            {
+                literals.add(pattern);
+            }
+            else
+            {
+                expressions.add(pattern);
+            }
+        }
+        
+        // One alternation tries every expression in a single match. Back references would be renumbered
+        // by combining, and repeated group names would not compile, so those keep separate patterns.
+        
+        StringBuilder combined = new StringBuilder();
+        
+        for(String expression: expressions)
+        {
+            if(GROUP_REFERENCES.matcher(expression).find())
+            {
+                patterns.add(Pattern.compile(expression));
+            }
+            else
+            {
+                combined.append(combined.length()==0 ? "" : "|").append("(?:").append(expression).append(")");
+            }
+        }
+        
+        if(combined.length()>0)
+        {
+            try
+            {
+                patterns.add(Pattern.compile(combined.toString()));
+            }
+            catch(PatternSyntaxException e)
+            {
+                for(String expression: expressions)
+                {
+                    if(!GROUP_REFERENCES.matcher(expression).find())
+                    {
+                        patterns.add(Pattern.compile(expression));
+                    }
+                }
+            }
+        }
+    }
+    
+    public boolean excludes(String term)
+    {
+        if(literals.contains(term))
+        {
+            return true;
+        }
+        if(patterns.isEmpty())
+        {
+            return false;
+        }
+        
+        Boolean decision = decisions.get(term);
+        
+        if(decision==null)
+        {
+            decision = matches(term);
+            
+            if(decisions.size()<MAX_CACHED_DECISIONS)
+            {
+                decisions.put(term, decision);
+            }
+        }
+        
+        return decision;
+    }
+    
+    private boolean matches(String term)
+    {
+        for(Pattern pattern: patterns)
+        {
+            if(pattern.matcher(term).matches())
+            {
+                return true;
+            }
+        }
+        
+        return false;
+    }
+}
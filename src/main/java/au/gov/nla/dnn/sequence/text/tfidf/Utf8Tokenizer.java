@@ -0,0 +1,333 @@
+package au.gov.nla.dnn.sequence.text.tfidf;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Splits raw record bytes on the separator patterns the TF-IDF sequence uses, without decoding the record or
+// creating a String per token. Results match String.split on the record decoded with the platform charset;
+// whenever they could differ the caller is told to fall back to that path.
+
+public class Utf8Tokenizer
+{
+    private boolean[] separators;
+    private boolean nonAsciiSeparates;
+    private boolean utf8;
+    
+    private Utf8Tokenizer(boolean[] separators, boolean nonAsciiSeparates, boolean utf8)
+    {
+        this.separators = separators;
+        this.nonAsciiSeparates = nonAsciiSeparates;
+        this.utf8 = utf8;
+    }
+    
+    // Returns null for patterns (or platform charsets) this tokenizer cannot reproduce exactly
+    
+    public static Utf8Tokenizer forPattern(String pattern)
+    {
+        // Each of these charsets decodes ASCII bytes to the same characters and other bytes to non-ASCII characters,
+        // which are neither \s nor \w without UNICODE_CHARACTER_CLASS
+        
+        Charset charset = Charset.defaultCharset();
+        boolean utf8 = charset.equals(StandardCharsets.UTF_8);
+        
+        if(!utf8 && !charset.equals(StandardCharsets.US_ASCII) && !charset.equals(StandardCharsets.ISO_8859_1)
+                && !charset.name().equals("windows-1252"))
+        {
+            return null;
+        }
+        
+        boolean[] separators = new boolean[128];
+        
+        switch(pattern)
+        {
+            case "\\s+":
+            {
+                separators[' '] = true;
+                separators['\t'] = true;
+                separators['\n'] = true;
+                separators[0x0B] = true;
+                separators['\f'] = true;
+                separators['\r'] = true;
+                return new Utf8Tokenizer(separators, false, utf8);
+            }
+            case "[^\\w]+":
+            case "\\W+":
+            {
+                for(int c=0; c<128; c++)
+                {
+                    separators[c] = !((c>='a' && c<='z') || (c>='A' && c<='Z') || (c>='0' && c<='9') || c=='_');
+                }
+                
+                return new Utf8Tokenizer(separators, true, utf8);
+            }
+            default:
+            {
+                return null;
+            }
+        }
+    }
+    
+    // Adds every token whose length in chars is within the bounds to the counts. Returns false, leaving the counts
+    // incomplete, when a token contains non-ASCII bytes which cannot be handled here (asciiOnly, a platform charset
+    // other than UTF-8, or malformed UTF-8).
+    
+    public boolean count(byte[] data, int minLength, int maxLength, boolean asciiOnly, TokenCounts counts)
+    {
+        int i = 0;
+        
+        while(i<data.length)
+        {
+            while(i<data.length && isSeparator(data[i]))
+            {
+                i++;
+            }
+            
+            int start = i;
+            boolean ascii = true;
+            
+            while(i<data.length && !isSeparator(data[i]))
+            {
+                ascii = ascii && data[i]>=0;
+                i++;
+            }
+            
+            if(i==start)
+            {
+                break;
+            }
+            
+            int length = i-start;
+            
+            if(!ascii)
+            {
+                if(asciiOnly || !utf8)
+                {
+                    return false;
+                }
+                
+                length = charLength(data, start, i);
+                
+                if(length<0)
+                {
+                    return false;
+                }
+            }
+            if(length>=minLength && length<=maxLength)
+            {
+                counts.add(start, i-start);
+            }
+        }
+        
+        return true;
+    }
+    
+    private boolean isSeparator(byte b)
+    {
+        return b<0 ? nonAsciiSeparates : separators[b];
+    }
+    
+    // UTF-16 length of well formed UTF-8, or -1 for anything the JDK decoder would replace
+    
+    static int charLength(byte[] data, int start, int end)
+    {
+        int length = 0;
+        int i = start;
+        
+        while(i<end)
+        {
+            int b = data[i]&0xff;
+            int continuation;
+            int min = 0x80;
+            int max = 0xbf;
+            
+            if(b<0x80)
+            {
+                length++;
+                i++;
+                continue;
+            }
+            else if(b>=0xc2 && b<=0xdf)
+            {
+                continuation = 1;
+            }
+            else if(b>=0xe0 && b<=0xef)
+            {
+                continuation = 2;
+                min = b==0xe0 ? 0xa0 : 0x80;
+                max = b==0xed ? 0x9f : 0xbf;
+            }
+            else if(b>=0xf0 && b<=0xf4)
+            {
+                continuation = 3;
+                min = b==0xf0 ? 0x90 : 0x80;
+                max = b==0xf4 ? 0x8f : 0xbf;
+            }
+            else
+            {
+                return -1;
+            }
+            
+            if(i+continuation>=end)
+            {
+                return -1; // truncated sequence
+            }
+            
+            int second = data[i+1]&0xff;
+            
+            if(second<min || second>max)
+            {
+                return -1;
+            }
+            for(int j=2; j<=continuation; j++)
+            {
+                int next = data[i+j]&0xff;
+                
+                if(next<0x80 || next>0xbf)
+                {
+                    return -1;
+                }
+            }
+            
+            length = length+(continuation==3 ? 2 : 1); // four byte sequences are surrogate pairs
+            i = i+continuation+1;
+        }
+        
+        return length;
+    }
+    
+    // Lower cases ASCII letters in place, as String.toLowerCase does for ASCII text outside Turkic locales
+    
+    public static void toLowerCaseAscii(byte[] data)
+    {
+        for(int i=0; i<data.length; i++)
+        {
+            if(data[i]>='A' && data[i]<='Z')
+            {
+                data[i] = (byte)(data[i]+32);
+            }
+        }
+    }
+    
+    // The distinct tokens of one record, held as ranges of the record's bytes with their occurrence counts.
+    // Tokens are kept in order of first occurrence.
+    
+    public static class TokenCounts
+    {
+        private byte[] data;
+        private int size;
+        private int[] starts;
+        private int[] lengths;
+        private int[] counts;
+        private int[] table;
+        private int mask;
+        
+        public TokenCounts(byte[] data)
+        {
+            this.data = data;
+            this.starts = new int[16];
+            this.lengths = new int[16];
+            this.counts = new int[16];
+            this.table = new int[32];
+            this.mask = 31;
+        }
+        
+        private void add(int start, int length)
+        {
+            int slot = Vocabulary.hash(data, start, length)&mask;
+            
+            while(table[slot]!=0)
+            {
+                int token = table[slot]-1;
+                
+                if(equals(token, start, length))
+                {
+                    counts[token]++;
+                    return;
+                }
+                
+                slot = (slot+1)&mask;
+            }
+            
+            if(size==starts.length)
+            {
+                grow();
+                add(start, length);
+                return;
+            }
+            
+            starts[size] = start;
+            lengths[size] = length;
+            counts[size] = 1;
+            size++;
+            table[slot] = size;
+        }
+        
+        private boolean equals(int token, int start, int length)
+        {
+            if(lengths[token]!=length)
+            {
+                return false;
+            }
+            
+            int other = starts[token];
+            
+            for(int i=0; i<length; i++)
+            {
+                if(data[other+i]!=data[start+i])
+                {
+                    return false;
+                }
+            }
+            
+            return true;
+        }
+        
+        private void grow()
+        {
+            int capacity = starts.length*2;
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            table = new int[capacity*2];
+            mask = table.length-1;
+            
+            for(int token=0; token<size; token++)
+            {
+                int slot = Vocabulary.hash(data, starts[token], lengths[token])&mask;
+                
+                while(table[slot]!=0)
+                {
+                    slot = (slot+1)&mask;
+                }
+                
+                table[slot] = token+1;
+            }
+        }
+        
+        public byte[] getData()
+        {
+            return data;
+        }
+        
+        public int size()
+        {
+            return size;
+        }
+        
+        public int getStart(int token)
+        {
+            return starts[token];
+        }
+        
+        public int getLength(int token)
+        {
+            return lengths[token];
+        }
+        
+        public int getCount(int token)
+        {
+            return counts[token];
+        }
+    }
+}
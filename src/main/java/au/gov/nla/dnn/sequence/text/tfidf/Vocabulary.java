@@ -0,0 +1,256 @@
+package au.gov.nla.dnn.sequence.text.tfidf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+// An immutable term list in feature order. Terms are held as one UTF-8 pool with offsets, looked up through an
+// open addressing hash table, with the document frequency of each term alongside. Everything lives in a single
+// buffer in its serialised layout, so reading one is a matter of wrapping (or memory mapping) the bytes:
+//
+//   int magic, int version, int term count, int pool length, int table size,
+//   int[count+1] pool offsets, int[count] document frequencies, int[table size] table (term index+1, 0 empty),
+//   byte[pool length] UTF-8 pool
+
+public class Vocabulary
+{
+    private static final int MAGIC = 0x444E4E56; // "DNNV"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 20;
+    
+    private ByteBuffer buffer;
+    private int size;
+    private IntBuffer offsets;
+    private IntBuffer documentFrequencies;
+    private IntBuffer table;
+    private int tableMask;
+    private ByteBuffer pool;
+    
+    private Vocabulary(ByteBuffer buffer)
+    {
+        this.buffer = buffer;
+        
+        ByteBuffer view = buffer.duplicate();
+        size = view.getInt(8);
+        int poolLength = view.getInt(12);
+        int tableSize = view.getInt(16);
+        tableMask = tableSize-1;
+        
+        int position = HEADER_BYTES;
+        offsets = slice(view, position, 4*(size+1)).asIntBuffer();
+        position = position+(4*(size+1));
+        documentFrequencies = slice(view, position, 4*size).asIntBuffer();
+        position = position+(4*size);
+        table = slice(view, position, 4*tableSize).asIntBuffer();
+        position = position+(4*tableSize);
+        pool = slice(view, position, poolLength);
+    }
+    
+    private static ByteBuffer slice(ByteBuffer buffer, int position, int length)
+    {
+        ByteBuffer view = buffer.duplicate();
+        view.position(position);
+        view.limit(position+length);
+        return view.slice();
+    }
+    
+    public static Vocabulary read(ByteBuffer buffer) throws IOException
+    {
+        if(buffer.remaining()<HEADER_BYTES || buffer.getInt(buffer.position())!=MAGIC)
+        {
+            throw new IOException("Not a vocabulary.");
+        }
+        
+        int version = buffer.getInt(buffer.position()+4);
+        
+        if(version!=VERSION)
+        {
+            throw new IOException("Unsupported vocabulary version: "+version);
+        }
+        
+        return new Vocabulary(buffer.slice());
+    }
+    
+    public static Vocabulary build(List<String> terms, int[] documentFrequencies)
+    {
+        int count = terms.size();
+        byte[][] encoded = new byte[count][];
+        int poolLength = 0;
+        
+        for(int i=0; i<count; i++)
+        {
+            encoded[i] = terms.get(i).getBytes(StandardCharsets.UTF_8);
+            poolLength = poolLength+encoded[i].length;
+        }
+        
+        // At most half full, so probe sequences stay short
+        
+        int tableSize = Integer.highestOneBit(Math.max(count, 1)*2);
+        
+        if(tableSize<count*2)
+        {
+            tableSize = tableSize*2;
+        }
+        
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES+(4*(count+1))+(4*count)+(4*tableSize)+poolLength);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(count);
+        buffer.putInt(poolLength);
+        buffer.putInt(tableSize);
+        
+        int offset = 0;
+        
+        for(int i=0; i<count; i++)
+        {
+            buffer.putInt(offset);
+            offset = offset+encoded[i].length;
+        }
+        
+        buffer.putInt(offset);
+        
+        for(int i=0; i<count; i++)
+        {
+            buffer.putInt(documentFrequencies[i]);
+        }
+        
+        int tableStart = buffer.position();
+        int[] slots = new int[tableSize];
+        
+        for(int i=0; i<count; i++)
+        {
+            int slot = hash(encoded[i], 0, encoded[i].length)&(tableSize-1);
+            
+            while(slots[slot]!=0)
+            {
+                slot = (slot+1)&(tableSize-1);
+            }
+            
+            slots[slot] = i+1;
+        }
+        for(int slot: slots)
+        {
+            buffer.putInt(slot);
+        }
+        
+        buffer.position(tableStart+(4*tableSize));
+        
+        for(byte[] term: encoded)
+        {
+            buffer.put(term);
+        }
+        
+        buffer.flip();
+        return new Vocabulary(buffer);
+    }
+    
+    public int size()
+    {
+        return size;
+    }
+    
+    // Returns the feature index of the term, or -1 if it is not in the vocabulary
+    
+    public int indexOf(String term)
+    {
+        byte[] bytes = term.getBytes(StandardCharsets.UTF_8);
+        return indexOf(bytes, 0, bytes.length);
+    }
+    
+    public int indexOf(byte[] bytes, int offset, int length)
+    {
+        if(size==0)
+        {
+            return -1;
+        }
+        
+        int slot = hash(bytes, offset, length)&tableMask;
+        
+        while(true)
+        {
+            int entry = table.get(slot);
+            
+            if(entry==0)
+            {
+                return -1;
+            }
+            if(matches(entry-1, bytes, offset, length))
+            {
+                return entry-1;
+            }
+            
+            slot = (slot+1)&tableMask;
+        }
+    }
+    
+    private boolean matches(int index, byte[] bytes, int offset, int length)
+    {
+        int start = offsets.get(index);
+        
+        if(offsets.get(index+1)-start!=length)
+        {
+            return false;
+        }
+        for(int i=0; i<length; i++)
+        {
+            if(pool.get(start+i)!=bytes[offset+i])
+            {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    public String getTerm(int index)
+    {
+        int start = offsets.get(index);
+        byte[] bytes = new byte[offsets.get(index+1)-start];
+        
+        for(int i=0; i<bytes.length; i++)
+        {
+            bytes[i] = pool.get(start+i);
+        }
+        
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    public int getDocumentFrequency(int index)
+    {
+        return documentFrequencies.get(index);
+    }
+    
+    public long getMemoryFootprint()
+    {
+        return buffer.capacity();
+    }
+    
+    public byte[] toByteArray()
+    {
+        ByteBuffer view = buffer.duplicate();
+        view.clear();
+        
+        byte[] bytes = new byte[view.remaining()];
+        view.get(bytes);
+        return bytes;
+    }
+    
+    // FNV-1a with a final avalanche, so that the low bits used for the table slot depend on every byte
+    
+    static int hash(byte[] bytes, int offset, int length)
+    {
+        int hash = 0x811c9dc5;
+        
+        for(int i=0; i<length; i++)
+        {
+            hash = (hash^(bytes[offset+i]&0xff))*0x01000193;
+        }
+        
+        hash = hash^(hash>>>16);
+        hash = hash*0x85ebca6b;
+        hash = hash^(hash>>>13);
+        return hash;
+    }
+}
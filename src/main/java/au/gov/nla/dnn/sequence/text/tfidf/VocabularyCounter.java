@@ -0,0 +1,391 @@
+package au.gov.nla.dnn.sequence.text.tfidf;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+// Document frequency counts for the words of a corpus. Every word remembers where it was first seen (record, then
+// position within the record), so counts from several counters can be merged and still produce the vocabulary in
+// the order a single counter would have inserted it.
+//
+// With a word limit set, the counts are written to a run file in the spill directory, sorted by word, whenever
+// that many distinct words are held, and the runs are merged from disk at the end. Only the words that reach the
+// minimum occurrences are then held in memory, so the vocabulary is identical to counting everything in memory.
+
+public class VocabularyCounter
+{
+    private static final int MERGE_FAN_IN = 64; // run files open at once, larger spills are merged in passes
+    
+    private int maxWords;
+    private File spillDirectory;
+    private HashMap<String, WordCount> counts;
+    private List<File> runs;
+    
+    public VocabularyCounter(int maxWords, File spillDirectory)
+    {
+        this.maxWords = maxWords;
+        this.spillDirectory = spillDirectory;
+        this.counts = new HashMap<String, WordCount>();
+        this.runs = new ArrayList<File>();
+    }
+    
+    public void add(String word, long record, int position) throws IOException
+    {
+        WordCount count = counts.get(word);
+        
+        if(count==null)
+        {
+            count = new WordCount(record, position);
+            counts.put(word, count);
+        }
+        
+        count.recordsContainingWord++;
+        
+        if(maxWords>0 && counts.size()>=maxWords)
+        {
+            spill();
+        }
+    }
+    
+    public int getSpillCount()
+    {
+        return runs.size();
+    }
+    
+    private void spill() throws IOException
+    {
+        if(counts.isEmpty())
+        {
+            return;
+        }
+        
+        List<String> sorted = new ArrayList<String>(counts.keySet());
+        Collections.sort(sorted);
+        
+        File run = File.createTempFile("dnn-vocabulary-", ".run", spillDirectory);
+        runs.add(run);
+        
+        try(DataOutputStream out = openRun(run))
+        {
+            for(String word: sorted)
+            {
+                write(out, word, counts.get(word));
+            }
+            
+            out.writeInt(-1);
+        }
+        
+        counts = new HashMap<String, WordCount>();
+    }
+    
+    public void dispose()
+    {
+        for(File run: runs)
+        {
+            run.delete();
+        }
+        
+        runs.clear();
+        counts = new HashMap<String, WordCount>();
+    }
+    
+    // Merges the counters into a vocabulary of the words seen in at least minOccurrances records, in first seen order
+    
+    public static Vocabulary buildVocabulary(List<VocabularyCounter> counters, int minOccurrances) throws IOException
+    {
+        boolean spilled = false;
+        
+        for(VocabularyCounter counter: counters)
+        {
+            spilled = spilled || !counter.runs.isEmpty();
+        }
+        
+        List<Map.Entry<String, WordCount>> retained = spilled ? mergeRuns(counters, minOccurrances) : mergeInMemory(counters, minOccurrances);
+        
+        retained.sort(new Comparator<Map.Entry<String, WordCount>>(){
+            public int compare(Map.Entry<String, WordCount> a, Map.Entry<String, WordCount> b)
+            {
+                return a.getValue().compareTo(b.getValue());
+            }
+        });
+        
+        List<String> words = new ArrayList<String>(retained.size());
+        int[] documentFrequencies = new int[retained.size()];
+        
+        for(Map.Entry<String, WordCount> entry: retained)
+        {
+            documentFrequencies[words.size()] = entry.getValue().recordsContainingWord;
+            words.add(entry.getKey());
+        }
+        
+        return Vocabulary.build(words, documentFrequencies);
+    }
+    
+    private static List<Map.Entry<String, WordCount>> mergeInMemory(List<VocabularyCounter> counters, int minOccurrances)
+    {
+        HashMap<String, WordCount> merged = counters.get(0).counts;
+        
+        for(int i=1; i<counters.size(); i++)
+        {
+            for(Map.Entry<String, WordCount> entry: counters.get(i).counts.entrySet())
+            {
+                WordCount count = merged.get(entry.getKey());
+                
+                if(count==null)
+                {
+                    merged.put(entry.getKey(), entry.getValue());
+                }
+                else
+                {
+                    count.merge(entry.getValue());
+                }
+            }
+            
+            counters.get(i).counts = new HashMap<String, WordCount>();
+        }
+        
+        List<Map.Entry<String, WordCount>> retained = new ArrayList<Map.Entry<String, WordCount>>();
+        
+        for(Map.Entry<String, WordCount> entry: merged.entrySet())
+        {
+            if(entry.getValue().recordsContainingWord>=minOccurrances)
+            {
+                retained.add(entry);
+            }
+        }
+        
+        counters.get(0).counts = new HashMap<String, WordCount>();
+        return retained;
+    }
+    
+    private static List<Map.Entry<String, WordCount>> mergeRuns(List<VocabularyCounter> counters, int minOccurrances) throws IOException
+    {
+        List<Map.Entry<String, WordCount>> retained = new ArrayList<Map.Entry<String, WordCount>>();
+        List<File> runs = new ArrayList<File>();
+        List<File> intermediateRuns = new ArrayList<File>();
+        
+        try
+        {
+            for(VocabularyCounter counter: counters)
+            {
+                counter.spill();
+                runs.addAll(counter.runs);
+            }
+            
+            while(runs.size()>MERGE_FAN_IN)
+            {
+                List<File> merged = new ArrayList<File>();
+                
+                for(int i=0; i<runs.size(); i=i+MERGE_FAN_IN)
+                {
+                    File run = File.createTempFile("dnn-vocabulary-", ".run", counters.get(0).spillDirectory);
+                    intermediateRuns.add(run);
+                    merged.add(run);
+                    
+                    try(DataOutputStream out = openRun(run))
+                    {
+                        merge(runs.subList(i, Math.min(i+MERGE_FAN_IN, runs.size())), new MergedWordHandler(){
+                            public void accept(String word, WordCount count) throws IOException
+                            {
+                                write(out, word, count);
+                            }
+                        });
+                        
+                        out.writeInt(-1);
+                    }
+                }
+                
+                runs = merged;
+            }
+            
+            merge(runs, new MergedWordHandler(){
+                public void accept(String word, WordCount count)
+                {
+                    if(count.recordsContainingWord>=minOccurrances)
+                    {
+                        retained.add(Map.entry(word, count));
+                    }
+                }
+            });
+        }
+        finally
+        {
+            for(File run: intermediateRuns)
+            {
+                run.delete();
+            }
+            for(VocabularyCounter counter: counters)
+            {
+                counter.dispose();
+            }
+        }
+        
+        return retained;
+    }
+    
+    // Streams the sorted runs through a priority queue, passing each word once with its counts combined
+    
+    private static void merge(List<File> runs, MergedWordHandler handler) throws IOException
+    {
+        PriorityQueue<RunReader> queue = new PriorityQueue<RunReader>();
+        List<RunReader> readers = new ArrayList<RunReader>();
+        
+        try
+        {
+            for(File run: runs)
+            {
+                RunReader reader = new RunReader(run);
+                readers.add(reader);
+                
+                if(reader.next())
+                {
+                    queue.add(reader);
+                }
+            }
+            
+            String word = null;
+            WordCount count = null;
+            
+            while(!queue.isEmpty())
+            {
+                RunReader reader = queue.poll();
+                
+                if(word!=null && word.equals(reader.word))
+                {
+                    count.merge(reader.count);
+                }
+                else
+                {
+                    if(word!=null)
+                    {
+                        handler.accept(word, count);
+                    }
+                    
+                    word = reader.word;
+                    count = reader.count;
+                }
+                if(reader.next())
+                {
+                    queue.add(reader);
+                }
+            }
+            
+            if(word!=null)
+            {
+                handler.accept(word, count);
+            }
+        }
+        finally
+        {
+            for(RunReader reader: readers)
+            {
+                reader.close();
+            }
+        }
+    }
+    
+    private static DataOutputStream openRun(File run) throws IOException
+    {
+        return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), 1<<16));
+    }
+    
+    // Run files hold the entries sorted by word, ended by a negative length
+    
+    private static void write(DataOutputStream out, String word, WordCount count) throws IOException
+    {
+        byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        out.writeInt(count.recordsContainingWord);
+        out.writeLong(count.firstRecord);
+        out.writeInt(count.firstPosition);
+    }
+    
+    private interface MergedWordHandler
+    {
+        public void accept(String word, WordCount count) throws IOException;
+    }
+    
+    private static class RunReader implements Comparable<RunReader>
+    {
+        private DataInputStream in;
+        private String word;
+        private WordCount count;
+        
+        private RunReader(File run) throws IOException
+        {
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), 1<<16));
+        }
+        
+        private boolean next() throws IOException
+        {
+            int length = in.readInt();
+            
+            if(length<0)
+            {
+                return false;
+            }
+            
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            word = new String(bytes, StandardCharsets.UTF_8);
+            int recordsContainingWord = in.readInt();
+            count = new WordCount(in.readLong(), in.readInt());
+            count.recordsContainingWord = recordsContainingWord;
+            return true;
+        }
+        
+        private void close() throws IOException
+        {
+            in.close();
+        }
+        
+        public int compareTo(RunReader other)
+        {
+            return word.compareTo(other.word);
+        }
+    }
+    
+    private static class WordCount implements Comparable<WordCount>
+    {
+        private long firstRecord;
+        private int firstPosition;
+        private int recordsContainingWord;
+        
+        private WordCount(long firstRecord, int firstPosition)
+        {
+            this.firstRecord = firstRecord;
+            this.firstPosition = firstPosition;
+        }
+        
+        private void merge(WordCount other)
+        {
+            recordsContainingWord = recordsContainingWord+other.recordsContainingWord;
+            
+            if(other.compareTo(this)<0)
+            {
+                firstRecord = other.firstRecord;
+                firstPosition = other.firstPosition;
+            }
+        }
+        
+        public int compareTo(WordCount other)
+        {
+            int result = Long.compare(firstRecord, other.firstRecord);
+            return result!=0 ? result : Integer.compare(firstPosition, other.firstPosition);
+        }
+    }
+}
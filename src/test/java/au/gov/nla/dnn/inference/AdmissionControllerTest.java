@@ -0,0 +1,110 @@
+package au.gov.nla.dnn.inference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+import au.gov.nla.dnn.inference.metrics.MetricsRegistry;
+import au.gov.nla.dnn.inference.metrics.ModelMetrics;
+
+public class AdmissionControllerTest
+{
+    @Test
+    public void rejectsBeyondQueueLimit() throws Exception
+    {
+        MetricsRegistry registry = new MetricsRegistry();
+        AdmissionController admission = new AdmissionController("test", 2, 2, new ModelMetrics(registry, "test"), registry);
+        
+        // Two running on the replicas plus two queued
+        
+        for(int i=0; i<4; i++)
+        {
+            admission.admit(0);
+        }
+        
+        assertRejected(admission, 0);
+        assertEquals(4, admission.getInFlight());
+        
+        admission.complete();
+        admission.admit(0);
+        assertEquals(4, admission.getInFlight());
+        assertTrue(registry.toPrometheus().contains("dnn_inference_rejected_total{model=\"test\",reason=\"overloaded\"} 1"));
+    }
+    
+    @Test
+    public void admitsWithoutLimitWhenUnconfigured() throws Exception
+    {
+        MetricsRegistry registry = new MetricsRegistry();
+        AdmissionController admission = new AdmissionController("test", 0, 1, new ModelMetrics(registry, "test"), registry);
+        
+        for(int i=0; i<1000; i++)
+        {
+            admission.admit(0);
+        }
+        
+        assertEquals(1000, admission.getInFlight());
+    }
+    
+    @Test
+    public void rejectsExpiredDeadline() throws Exception
+    {
+        MetricsRegistry registry = new MetricsRegistry();
+        AdmissionController admission = new AdmissionController("test", 0, 1, new ModelMetrics(registry, "test"), registry);
+        
+        assertRejected(admission, System.nanoTime()-1);
+        assertEquals(0, admission.getInFlight());
+        assertTrue(registry.toPrometheus().contains("dnn_inference_rejected_total{model=\"test\",reason=\"deadline\"} 1"));
+    }
+    
+    @Test
+    public void rejectsWhenProjectedWaitPassesDeadline() throws Exception
+    {
+        MetricsRegistry registry = new MetricsRegistry();
+        ModelMetrics metrics = new ModelMetrics(registry, "test");
+        AdmissionController admission = new AdmissionController("test", 0, 1, metrics, registry);
+        
+        // Each request is measured at a second, so the third in line needs three
+        
+        metrics.getFeaturisationTime().record(TimeUnit.SECONDS.toNanos(1));
+        long deadline = System.nanoTime()+TimeUnit.MILLISECONDS.toNanos(2500);
+        
+        admission.admit(deadline);
+        admission.admit(deadline);
+        assertRejected(admission, deadline);
+        assertEquals(2, admission.getInFlight());
+        
+        admission.admit(System.nanoTime()+TimeUnit.SECONDS.toNanos(60));
+        assertEquals(3, admission.getInFlight());
+    }
+    
+    @Test
+    public void checksDeadlineOfAdmittedRequests() throws Exception
+    {
+        MetricsRegistry registry = new MetricsRegistry();
+        AdmissionController admission = new AdmissionController("test", 0, 1, new ModelMetrics(registry, "test"), registry);
+        
+        admission.checkDeadline(0);
+        admission.checkDeadline(System.nanoTime()+TimeUnit.SECONDS.toNanos(10));
+        
+        assertThrows(OverloadedException.class, new Executable(){
+            public void execute() throws Throwable
+            {
+                admission.checkDeadline(System.nanoTime()-1);
+            }
+        });
+    }
+    
+    private void assertRejected(AdmissionController admission, long deadlineNanos)
+    {
+        assertThrows(OverloadedException.class, new Executable(){
+            public void execute() throws Throwable
+            {
+                admission.admit(deadlineNanos);
+            }
+        });
+    }
+}
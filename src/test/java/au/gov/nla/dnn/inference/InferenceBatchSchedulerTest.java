@@ -0,0 +1,206 @@
+package au.gov.nla.dnn.inference;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.junit.jupiter.api.Test;
+
+import au.gov.nla.dnn.evaluation.ModelEvaluationResult;
+import au.gov.nla.dnn.inference.metrics.MetricsRegistry;
+import au.gov.nla.dnn.inference.metrics.ModelMetrics;
+import au.gov.nla.dnn.model.ModelInstance;
+import au.gov.nla.dnn.sequence.SequenceDataRecord;
+import au.gov.nla.dnn.sequence.SequenceDataRecordProvider;
+import au.gov.nla.dnn.training.TrainingHyperParameters;
+import au.gov.nla.dnn.training.TrainingListener;
+
+public class InferenceBatchSchedulerTest
+{
+    private static final Consumer<Exception> ERROR_HANDLER = new Consumer<Exception>(){
+        public void accept(Exception e)
+        {
+        }
+    };
+    
+    @Test
+    public void gathersOneBatchWhileReplicasAreIdle() throws Exception
+    {
+        InferenceBatchScheduler scheduler = createScheduler(4, 8, TimeUnit.SECONDS.toNanos(1), null, null);
+        List<CompletableFuture<double[]>> results = new ArrayList<CompletableFuture<double[]>>();
+        
+        try
+        {
+            for(int i=0; i<8; i++)
+            {
+                results.add(scheduler.inferAsync(new SequenceDataRecord(new double[]{i}, null), 0));
+            }
+            for(int i=0; i<8; i++)
+            {
+                assertArrayEquals(new double[]{i}, results.get(i).get(5, TimeUnit.SECONDS));
+            }
+            
+            assertEquals(1, scheduler.getBatchCount());
+            assertEquals(8, scheduler.getRowCount());
+        }
+        finally
+        {
+            scheduler.dispose();
+        }
+    }
+    
+    @Test
+    public void fillsNextBatchWhileEveryReplicaIsBusy() throws Exception
+    {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        InferenceBatchScheduler scheduler = createScheduler(1, 16, 0, started, release);
+        List<CompletableFuture<double[]>> results = new ArrayList<CompletableFuture<double[]>>();
+        
+        try
+        {
+            results.add(scheduler.inferAsync(new SequenceDataRecord(new double[]{0}, null), 0));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            
+            for(int i=1; i<6; i++)
+            {
+                results.add(scheduler.inferAsync(new SequenceDataRecord(new double[]{i}, null), 0));
+            }
+            
+            release.countDown();
+            
+            for(int i=0; i<6; i++)
+            {
+                assertArrayEquals(new double[]{i}, results.get(i).get(5, TimeUnit.SECONDS));
+            }
+            
+            assertEquals(2, scheduler.getBatchCount());
+            assertEquals(6, scheduler.getRowCount());
+        }
+        finally
+        {
+            release.countDown();
+            scheduler.dispose();
+        }
+    }
+    
+    @Test
+    public void dropsRequestsPastTheirDeadline() throws Exception
+    {
+        InferenceBatchScheduler scheduler = createScheduler(1, 4, 0, null, null);
+        
+        try
+        {
+            CompletableFuture<double[]> result = scheduler.inferAsync(new SequenceDataRecord(new double[]{1}, null), System.nanoTime()-1);
+            
+            try
+            {
+                result.get(5, TimeUnit.SECONDS);
+            }
+            catch(ExecutionException e)
+            {
+                assertTrue(e.getCause() instanceof OverloadedException);
+            }
+            
+            assertTrue(result.isCompletedExceptionally());
+            assertEquals(0, scheduler.getBatchCount());
+        }
+        finally
+        {
+            scheduler.dispose();
+        }
+    }
+    
+    @Test
+    public void runsRequestsDirectlyAfterDispose() throws Exception
+    {
+        InferenceBatchScheduler scheduler = createScheduler(2, 4, 0, null, null);
+        scheduler.dispose();
+        
+        assertArrayEquals(new double[]{3}, scheduler.inferAsync(new SequenceDataRecord(new double[]{3}, null), 0).get(5, TimeUnit.SECONDS));
+    }
+    
+    private InferenceBatchScheduler createScheduler(int replicaCount, int maxBatchSize, long maxWaitNanos, CountDownLatch started, CountDownLatch release) throws Exception
+    {
+        ModelMetrics metrics = new ModelMetrics(new MetricsRegistry(), "test");
+        ModelReplicaPool pool = ModelReplicaPool.create(new TestModelInstance(started, release), replicaCount, metrics);
+        return new InferenceBatchScheduler("test", pool, maxBatchSize, maxWaitNanos, metrics, ERROR_HANDLER);
+    }
+    
+    // Echoes each record's features, optionally holding the first forward pass until released
+    
+    public static class TestModelInstance implements ModelInstance
+    {
+        private CountDownLatch started;
+        private CountDownLatch release;
+        
+        public TestModelInstance(CountDownLatch started, CountDownLatch release)
+        {
+            this.started = started;
+            this.release = release;
+        }
+        
+        public void train(TrainingHyperParameters hyperParameters, int featureCount, List<String> labels, String tempDirectory,
+                TrainingListener listener, Consumer<Exception> errorHandler, SequenceDataRecordProvider trainingRecordProvider,
+                SequenceDataRecordProvider evaluationRecordProvider)
+        {
+            throw new UnsupportedOperationException();
+        }
+        
+        public ModelEvaluationResult evaluate(SequenceDataRecordProvider evaluationRecordProvider, int batchSize, int featureCount,
+                List<String> labels, Consumer<Exception> errorHandler)
+        {
+            throw new UnsupportedOperationException();
+        }
+        
+        public double[] infer(double[] features)
+        {
+            return features;
+        }
+        
+        public double[][] inferBatch(double[][] features)
+        {
+            return features;
+        }
+        
+        public double[][] inferRecords(SequenceDataRecord[] records) throws Exception
+        {
+            if(started!=null && started.getCount()>0)
+            {
+                started.countDown();
+                release.await();
+            }
+            
+            double[][] results = new double[records.length][];
+            
+            for(int i=0; i<records.length; i++)
+            {
+                results[i] = records[i].getFeatures();
+            }
+            
+            return results;
+        }
+        
+        public ModelInstance replicate()
+        {
+            return new TestModelInstance(started, release);
+        }
+        
+        public long getMemoryFootprint()
+        {
+            return 0;
+        }
+        
+        public void save(OutputStream stream)
+        {
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package au.gov.nla.dnn.inference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+public class InferenceResponseWriterTest
+{
+    private static final InferenceLabels LABELS = new InferenceLabels(new String[]{"a", "b", "c", "d"});
+    
+    @Test
+    public void ordersTopKFromHighestToLowest()
+    {
+        assertEquals("[\"c\",\"a\"]", getScoreLabels(new double[]{0.3d, 0.1d, 0.4d, 0.2d}, 2, Double.NEGATIVE_INFINITY).toString());
+    }
+    
+    @Test
+    public void ordersTopKFromHighestToLowestWhenKCoversEveryLabel()
+    {
+        double[] scores = new double[]{0.3d, 0.1d, 0.4d, 0.2d};
+        
+        assertEquals("[\"c\",\"a\",\"d\",\"b\"]", getScoreLabels(scores, 4, Double.NEGATIVE_INFINITY).toString());
+        assertEquals("[\"c\",\"a\",\"d\",\"b\"]", getScoreLabels(scores, 10, Double.NEGATIVE_INFINITY).toString());
+    }
+    
+    @Test
+    public void keepsLabelOrderWithoutTopK()
+    {
+        assertEquals("[\"a\",\"b\",\"c\",\"d\"]", getScoreLabels(new double[]{0.3d, 0.1d, 0.4d, 0.2d}, 0, Double.NEGATIVE_INFINITY).toString());
+    }
+    
+    @Test
+    public void dropsScoresBelowMinimum()
+    {
+        assertEquals("[\"c\",\"a\"]", getScoreLabels(new double[]{0.3d, 0.1d, 0.4d, 0.2d}, 10, 0.25d).toString());
+        assertEquals("[\"a\",\"c\"]", getScoreLabels(new double[]{0.3d, 0.1d, 0.4d, 0.2d}, 0, 0.25d).toString());
+    }
+    
+    @Test
+    public void writesShortestFormWithinNineSignificantDigits()
+    {
+        assertEquals("0", writeScore(0d));
+        assertEquals("1", writeScore(1d));
+        assertEquals("0.75", writeScore(0.75d));
+        assertEquals("0.001", writeScore(0.001d));
+        assertEquals("123456.5", writeScore(123456.5d));
+        assertEquals("1234567", writeScore(1234567d));
+        assertEquals("0.333333333", writeScore(1d/3d));
+        assertEquals("0.666666667", writeScore(2d/3d));
+        assertEquals("0.100000001", writeScore(0.1f));
+        assertEquals("1", writeScore(0.99999999951d));
+    }
+    
+    @Test
+    public void writesExponentsOutsideThePlainRange()
+    {
+        assertEquals("1E-4", writeScore(0.0001d));
+        assertEquals("2.5E-7", writeScore(2.5E-7d));
+        assertEquals("1.23456789E7", writeScore(12345678.9d));
+        assertEquals("1.40129846E-45", writeScore(Float.MIN_VALUE));
+    }
+    
+    @Test
+    public void writesNonFiniteScoresAsNull()
+    {
+        assertEquals("null", writeScore(Double.NaN));
+        assertEquals("null", writeScore(Double.POSITIVE_INFINITY));
+    }
+    
+    @Test
+    public void roundTripsFloatScores()
+    {
+        // Nine significant digits are enough to recover any float a model produces
+        
+        Random random = new Random(1);
+        
+        for(int i=0; i<10000; i++)
+        {
+            float score = random.nextFloat()*(float)Math.pow(10d, random.nextInt(12)-8);
+            assertEquals(score, Float.parseFloat(writeScore(score)));
+            assertEquals(new JSONObject("{\"a\":"+writeScore(score)+"}").getDouble("a"), Double.parseDouble(writeScore(score)));
+        }
+    }
+    
+    @Test
+    public void writesNegativeScores()
+    {
+        assertEquals("-0.5", writeScore(-0.5d));
+        assertEquals("-1.5E-9", writeScore(-1.5E-9d));
+    }
+    
+    @Test
+    public void writesSubnormalScores()
+    {
+        assertEquals("4.94065646E-324", writeScore(Double.MIN_VALUE));
+        assertEquals("2.22507386E-308", writeScore(Double.MIN_NORMAL));
+        assertEquals("1.79769313E308", writeScore(Double.MAX_VALUE));
+    }
+    
+    private String writeScore(double score)
+    {
+        InferenceResponseWriter writer = InferenceResponseWriter.acquire().writeSuccess(new InferenceResult(new InferenceLabels(new String[]{"a"}), 
+                new double[]{score}), 0, Double.NEGATIVE_INFINITY);
+        String response = new String(writer.getBuffer(), 0, writer.getLength(), StandardCharsets.UTF_8);
+        writer.release();
+        return response.substring(response.indexOf("\"scores\":[{\"a\":")+15, response.length()-4);
+    }
+    
+    private JSONArray getScoreLabels(double[] scores, int topK, double minScore)
+    {
+        InferenceResponseWriter writer = InferenceResponseWriter.acquire().writeSuccess(new InferenceResult(LABELS, scores), topK, minScore);
+        JSONObject response = new JSONObject(new String(writer.getBuffer(), 0, writer.getLength(), StandardCharsets.UTF_8));
+        writer.release();
+        
+        JSONArray labels = new JSONArray();
+        
+        for(Object score: response.getJSONObject("result").getJSONArray("scores"))
+        {
+            labels.put(((JSONObject)score).keys().next());
+        }
+        
+        return labels;
+    }
+}
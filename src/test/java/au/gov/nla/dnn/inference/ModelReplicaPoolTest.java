@@ -0,0 +1,134 @@
+package au.gov.nla.dnn.inference;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.Test;
+
+import au.gov.nla.dnn.inference.InferenceBatchSchedulerTest.TestModelInstance;
+import au.gov.nla.dnn.inference.metrics.MetricsRegistry;
+import au.gov.nla.dnn.inference.metrics.ModelMetrics;
+import au.gov.nla.dnn.model.ModelInstance;
+import au.gov.nla.dnn.sequence.SequenceDataRecord;
+
+public class ModelReplicaPoolTest
+{
+    @Test
+    public void createsRequestedReplicas() throws Exception
+    {
+        ModelInstance instance = new TestModelInstance(null, null);
+        ModelReplicaPool pool = ModelReplicaPool.create(instance, 3, createMetrics());
+        
+        assertEquals(3, pool.getSize());
+        
+        ModelInstance first = pool.checkout();
+        ModelInstance second = pool.checkout();
+        ModelInstance third = pool.checkout();
+        
+        assertSame(instance, first);
+        assertNotSame(first, second);
+        assertNotSame(second, third);
+        assertNotSame(first, third);
+    }
+    
+    @Test
+    public void checkoutWaitsForRelease() throws Exception
+    {
+        ModelReplicaPool pool = ModelReplicaPool.create(new TestModelInstance(null, null), 1, createMetrics());
+        ModelInstance replica = pool.checkout();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        
+        try
+        {
+            Future<ModelInstance> waiting = executor.submit(new Callable<ModelInstance>(){
+                public ModelInstance call() throws Exception
+                {
+                    return pool.checkout();
+                }
+            });
+            
+            Thread.sleep(100);
+            assertFalse(waiting.isDone());
+            
+            pool.release(replica);
+            assertSame(replica, waiting.get(5, TimeUnit.SECONDS));
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+    
+    @Test
+    public void recordsForwardPassesAndBatchSizes() throws Exception
+    {
+        ModelMetrics metrics = createMetrics();
+        ModelReplicaPool pool = ModelReplicaPool.create(new TestModelInstance(null, null), 2, metrics);
+        
+        assertArrayEquals(new double[]{1}, pool.infer(new SequenceDataRecord(new double[]{1}, null)));
+        
+        double[][] results = pool.inferBatch(new SequenceDataRecord[]{
+            new SequenceDataRecord(new double[]{2}, null),
+            new SequenceDataRecord(new double[]{3}, null)
+        });
+        
+        assertArrayEquals(new double[]{2}, results[0]);
+        assertArrayEquals(new double[]{3}, results[1]);
+        assertEquals(2, metrics.getForwardPassTime().getCount());
+        assertEquals(2, metrics.getBatchSize().getCount());
+        assertEquals(3, metrics.getBatchSize().getSum());
+    }
+    
+    @Test
+    public void runsReplicasConcurrently() throws Exception
+    {
+        // Two forward passes held open at once, which a single lock around the model would deadlock
+        
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ModelReplicaPool pool = ModelReplicaPool.create(new TestModelInstance(started, release), 2, createMetrics());
+        
+        CompletableFuture<double[]> blocked = CompletableFuture.supplyAsync(new Supplier<double[]>(){
+            public double[] get()
+            {
+                try
+                {
+                    return pool.infer(new SequenceDataRecord(new double[]{1}, null));
+                }
+                catch(Exception e)
+                {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        
+        try
+        {
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            assertArrayEquals(new double[]{2}, pool.infer(new SequenceDataRecord(new double[]{2}, null)));
+        }
+        finally
+        {
+            release.countDown();
+        }
+        
+        assertArrayEquals(new double[]{1}, blocked.get(5, TimeUnit.SECONDS));
+    }
+    
+    private ModelMetrics createMetrics()
+    {
+        return new ModelMetrics(new MetricsRegistry(), "test");
+    }
+}
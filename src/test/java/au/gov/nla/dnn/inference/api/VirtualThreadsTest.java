@@ -0,0 +1,50 @@
+package au.gov.nla.dnn.inference.api;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledForJreRange;
+import org.junit.jupiter.api.condition.JRE;
+import org.junit.jupiter.api.function.Executable;
+
+public class VirtualThreadsTest
+{
+    @Test
+    @EnabledForJreRange(min=JRE.JAVA_21)
+    public void runsTasksOnVirtualThreads() throws Exception
+    {
+        ExecutorService executor = VirtualThreads.newPerTaskExecutor();
+        
+        try
+        {
+            Object virtual = executor.submit(new Callable<Object>(){
+                public Object call() throws Exception
+                {
+                    return Thread.class.getMethod("isVirtual").invoke(Thread.currentThread());
+                }
+            }).get(5, TimeUnit.SECONDS);
+            
+            assertEquals(Boolean.TRUE, virtual);
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+    
+    @Test
+    @EnabledForJreRange(max=JRE.JAVA_20)
+    public void refusesBeforeJava21()
+    {
+        assertThrows(UnsupportedOperationException.class, new Executable(){
+            public void execute() throws Throwable
+            {
+                VirtualThreads.newPerTaskExecutor();
+            }
+        });
+    }
+}
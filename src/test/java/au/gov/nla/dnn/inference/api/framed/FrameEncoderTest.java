@@ -0,0 +1,113 @@
+package au.gov.nla.dnn.inference.api.framed;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+
+import au.gov.nla.dnn.inference.InferenceLabels;
+import au.gov.nla.dnn.inference.InferenceOutcome;
+import au.gov.nla.dnn.inference.InferenceResult;
+import au.gov.nla.dnn.inference.OverloadedException;
+
+public class FrameEncoderTest
+{
+    @Test
+    public void encodesHello()
+    {
+        ByteBuffer frame = FrameEncoder.encodeHello(FramedInferenceApiAdapter.PROTOCOL_VERSION, FramedInferenceApiAdapter.FORMAT_BINARY);
+        
+        assertEquals(3, readLength(frame));
+        assertEquals(FramedInferenceApiAdapter.FRAME_HELLO, frame.get());
+        assertEquals(FramedInferenceApiAdapter.PROTOCOL_VERSION, frame.get());
+        assertEquals(FramedInferenceApiAdapter.FORMAT_BINARY, frame.get());
+        assertFalse(frame.hasRemaining());
+    }
+    
+    @Test
+    public void encodesJSONResultLikeTheOutcome()
+    {
+        InferenceOutcome outcome = new InferenceOutcome(createResult());
+        ByteBuffer frame = FrameEncoder.encodeJSONResult(42, outcome);
+        
+        readLength(frame);
+        assertEquals(FramedInferenceApiAdapter.FRAME_RESULT, frame.get());
+        assertEquals(42, frame.getInt());
+        
+        JSONObject response = new JSONObject(readString(frame, frame.remaining()));
+        assertTrue(response.similar(outcome.toJSON()));
+    }
+    
+    @Test
+    public void encodesBinaryResult()
+    {
+        ByteBuffer frame = FrameEncoder.encodeBinaryResult(7, new InferenceOutcome(createResult()));
+        
+        readLength(frame);
+        assertEquals(FramedInferenceApiAdapter.FRAME_BINARY_RESULT, frame.get());
+        assertEquals(7, frame.getInt());
+        assertEquals(FrameEncoder.STATUS_SUCCESS, frame.get());
+        assertEquals(1, frame.getInt());
+        assertEquals(0.25f, frame.getFloat());
+        assertEquals(0.75f, frame.getFloat());
+        assertFalse(frame.hasRemaining());
+    }
+    
+    @Test
+    public void encodesBinaryFailures()
+    {
+        ByteBuffer frame = FrameEncoder.encodeBinaryResult(3, new InferenceOutcome(new OverloadedException("Queue full.")));
+        
+        readLength(frame);
+        assertEquals(FramedInferenceApiAdapter.FRAME_BINARY_RESULT, frame.get());
+        assertEquals(3, frame.getInt());
+        assertEquals(FrameEncoder.STATUS_OVERLOADED, frame.get());
+        assertEquals(OverloadedException.class.getName()+": Queue full.", readString(frame, frame.remaining()));
+        
+        frame = FrameEncoder.encodeBinaryResult(4, new InferenceOutcome(new IllegalStateException("Broken.")));
+        
+        readLength(frame);
+        frame.get();
+        frame.getInt();
+        assertEquals(FrameEncoder.STATUS_FAILURE, frame.get());
+    }
+    
+    @Test
+    public void encodesLabelsAsUTF8()
+    {
+        ByteBuffer frame = FrameEncoder.encodeLabels("modèle", new InferenceLabels(new String[]{"première", "second"}));
+        
+        readLength(frame);
+        assertEquals(FramedInferenceApiAdapter.FRAME_LABELS, frame.get());
+        assertEquals("modèle", readString(frame, frame.getShort()));
+        assertEquals(2, frame.getInt());
+        assertEquals("première", readString(frame, frame.getShort()));
+        assertEquals("second", readString(frame, frame.getShort()));
+        assertFalse(frame.hasRemaining());
+    }
+    
+    private InferenceResult createResult()
+    {
+        return new InferenceResult(new InferenceLabels(new String[]{"first", "second"}), new double[]{0.25d, 0.75d});
+    }
+    
+    private int readLength(ByteBuffer frame)
+    {
+        // The length prefix counts everything after itself
+        
+        int length = frame.getInt();
+        assertEquals(frame.remaining(), length);
+        return length;
+    }
+    
+    private String readString(ByteBuffer frame, int length)
+    {
+        byte[] bytes = new byte[length];
+        frame.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,165 @@
+package au.gov.nla.dnn.inference.api.framed;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.function.Consumer;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import au.gov.nla.dnn.inference.api.http.HTTPInferenceApiAdapterTest.TestInferenceService;
+
+public class FramedSocketInferenceApiAdapterTest
+{
+    private FramedSocketInferenceApiAdapter adapter;
+    private int port;
+    
+    @BeforeEach
+    public void start() throws Exception
+    {
+        try(ServerSocket socket = new ServerSocket(0))
+        {
+            port = socket.getLocalPort();
+        }
+        
+        Properties properties = new Properties();
+        properties.setProperty("host", "127.0.0.1");
+        properties.setProperty("port", String.valueOf(port));
+        properties.setProperty("max-frame-bytes", "1048576");
+        properties.setProperty("max-shutdown-delay", "200");
+        
+        adapter = new FramedSocketInferenceApiAdapter();
+        adapter.initialise(properties, new TestInferenceService(), new Consumer<Exception>(){
+            public void accept(Exception e)
+            {
+            }
+        });
+    }
+    
+    @AfterEach
+    public void stop() throws Exception
+    {
+        adapter.dispose();
+    }
+    
+    @Test
+    public void reassemblesFramesSplitAcrossWrites() throws Exception
+    {
+        try(Socket socket = new Socket("127.0.0.1", port))
+        {
+            socket.setTcpNoDelay(true);
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            byte[] frame = encodeInferFrame(5, "test", "split record");
+            
+            for(int i=0; i<frame.length; i++)
+            {
+                out.write(frame[i]);
+                out.flush();
+                
+                if(i==1 || i==frame.length/2)
+                {
+                    Thread.sleep(50);
+                }
+            }
+            
+            assertResult(in, 5);
+        }
+    }
+    
+    @Test
+    public void acceptsFramesLargerThanTheReadBuffer() throws Exception
+    {
+        char[] record = new char[100000];
+        Arrays.fill(record, 'a');
+        
+        try(Socket socket = new Socket("127.0.0.1", port))
+        {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            
+            out.write(encodeInferFrame(1, "test", new String(record)));
+            out.write(encodeInferFrame(2, "test", "small record"));
+            out.flush();
+            
+            int first = assertResult(in, -1);
+            int second = assertResult(in, -1);
+            assertEquals(3, first+second);
+        }
+    }
+    
+    @Test
+    public void closesOnInvalidFrameLength() throws Exception
+    {
+        try(Socket socket = new Socket("127.0.0.1", port))
+        {
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            
+            out.writeInt(2000000);
+            out.flush();
+            
+            boolean closed = false;
+            
+            try
+            {
+                in.readInt();
+            }
+            catch(IOException e)
+            {
+                // End of stream or a reset, either way the server gave up on the connection
+                
+                closed = true;
+            }
+            
+            assertTrue(closed);
+        }
+    }
+    
+    private int assertResult(DataInputStream in, int expectedRequestId) throws Exception
+    {
+        int length = in.readInt();
+        assertEquals(FramedInferenceApiAdapter.FRAME_RESULT, in.readByte());
+        int requestId = in.readInt();
+        
+        if(expectedRequestId>=0)
+        {
+            assertEquals(expectedRequestId, requestId);
+        }
+        
+        byte[] body = new byte[length-1-4];
+        in.readFully(body);
+        JSONObject response = new JSONObject(new String(body, StandardCharsets.UTF_8));
+        assertTrue(response.getBoolean("success"));
+        assertEquals("second", response.getJSONObject("result").getString("highest-label"));
+        return requestId;
+    }
+    
+    private byte[] encodeInferFrame(int requestId, String modelId, String record) throws Exception
+    {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        DataOutputStream frameOut = new DataOutputStream(frame);
+        frameOut.writeByte(FramedInferenceApiAdapter.FRAME_INFER);
+        frameOut.writeInt(requestId);
+        frameOut.writeShort(modelId.length());
+        frameOut.write(modelId.getBytes(StandardCharsets.UTF_8));
+        frameOut.writeInt(0);
+        frameOut.write(record.getBytes(StandardCharsets.UTF_8));
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new DataOutputStream(out).writeInt(frame.size());
+        frame.writeTo(out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,169 @@
+package au.gov.nla.dnn.inference.api.framed;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.net.SocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.function.Consumer;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledForJreRange;
+import org.junit.jupiter.api.condition.JRE;
+import org.junit.jupiter.api.io.TempDir;
+
+import au.gov.nla.dnn.inference.api.http.HTTPInferenceApiAdapterTest.TestInferenceService;
+
+// Unix domain socket channels arrived in Java 16, on older runtimes these tests are skipped
+
+@EnabledForJreRange(min=JRE.JAVA_16)
+public class UnixDomainSocketInferenceApiAdapterTest
+{
+    @TempDir
+    File directory;
+    
+    private UnixDomainSocketInferenceApiAdapter adapter;
+    private File socketFile;
+    
+    @BeforeEach
+    public void start() throws Exception
+    {
+        socketFile = new File(directory, "dnn.sock");
+        
+        Properties properties = new Properties();
+        properties.setProperty("path", socketFile.getPath());
+        properties.setProperty("permissions", "rw-------");
+        
+        adapter = new UnixDomainSocketInferenceApiAdapter();
+        adapter.initialise(properties, new TestInferenceService(), new Consumer<Exception>(){
+            public void accept(Exception e)
+            {
+            }
+        });
+    }
+    
+    @AfterEach
+    public void stop() throws Exception
+    {
+        adapter.dispose();
+    }
+    
+    @Test
+    public void answersPipelinedRequests() throws Exception
+    {
+        try(SocketChannel channel = connect())
+        {
+            DataOutputStream out = new DataOutputStream(Channels.newOutputStream(channel));
+            DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+            
+            writeInferFrame(out, 7, "test", "first record");
+            writeInferFrame(out, 8, "test", "second record");
+            
+            Set<Integer> requestIds = new HashSet<Integer>();
+            
+            for(int i=0; i<2; i++)
+            {
+                int length = in.readInt();
+                assertEquals(FramedInferenceApiAdapter.FRAME_RESULT, in.readByte());
+                requestIds.add(in.readInt());
+                
+                byte[] body = new byte[length-1-4];
+                in.readFully(body);
+                JSONObject response = new JSONObject(new String(body, StandardCharsets.UTF_8));
+                assertTrue(response.getBoolean("success"));
+                assertEquals("second", response.getJSONObject("result").getString("highest-label"));
+            }
+            
+            assertEquals(Set.of(7, 8), requestIds);
+        }
+    }
+    
+    @Test
+    public void sendsLabelsBeforeFirstBinaryResult() throws Exception
+    {
+        try(SocketChannel channel = connect())
+        {
+            DataOutputStream out = new DataOutputStream(Channels.newOutputStream(channel));
+            DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+            
+            out.writeInt(3);
+            out.writeByte(FramedInferenceApiAdapter.FRAME_HELLO);
+            out.writeByte(FramedInferenceApiAdapter.PROTOCOL_VERSION);
+            out.writeByte(FramedInferenceApiAdapter.FORMAT_BINARY);
+            out.flush();
+            
+            assertEquals(3, in.readInt());
+            assertEquals(FramedInferenceApiAdapter.FRAME_HELLO, in.readByte());
+            assertEquals(FramedInferenceApiAdapter.PROTOCOL_VERSION, in.readByte());
+            assertEquals(FramedInferenceApiAdapter.FORMAT_BINARY, in.readByte());
+            
+            writeInferFrame(out, 1, "test", "record");
+            
+            in.readInt();
+            assertEquals(FramedInferenceApiAdapter.FRAME_LABELS, in.readByte());
+            assertEquals("test", readShortString(in));
+            assertEquals(2, in.readInt());
+            assertEquals("first", readShortString(in));
+            assertEquals("second", readShortString(in));
+            
+            in.readInt();
+            assertEquals(FramedInferenceApiAdapter.FRAME_BINARY_RESULT, in.readByte());
+            assertEquals(1, in.readInt());
+            assertEquals(0, in.readByte());
+            assertEquals(1, in.readInt());
+            assertEquals(0.25f, in.readFloat());
+            assertEquals(0.75f, in.readFloat());
+        }
+    }
+    
+    @Test
+    public void removesSocketFileOnDispose() throws Exception
+    {
+        assertTrue(socketFile.exists());
+        adapter.dispose();
+        assertFalse(socketFile.exists());
+    }
+    
+    private SocketChannel connect() throws Exception
+    {
+        // Looked up reflectively, like the adapter, so the tests still compile for Java 11
+        
+        SocketAddress address = (SocketAddress)Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", String.class).invoke(null, socketFile.getPath());
+        return SocketChannel.open(address);
+    }
+    
+    private void writeInferFrame(DataOutputStream out, int requestId, String modelId, String record) throws Exception
+    {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream();
+        DataOutputStream frameOut = new DataOutputStream(frame);
+        frameOut.writeByte(FramedInferenceApiAdapter.FRAME_INFER);
+        frameOut.writeInt(requestId);
+        frameOut.writeShort(modelId.length());
+        frameOut.write(modelId.getBytes(StandardCharsets.UTF_8));
+        frameOut.writeInt(0);
+        frameOut.write(record.getBytes(StandardCharsets.UTF_8));
+        
+        out.writeInt(frame.size());
+        frame.writeTo(out);
+        out.flush();
+    }
+    
+    private String readShortString(DataInputStream in) throws Exception
+    {
+        byte[] bytes = new byte[in.readShort()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,210 @@
+package au.gov.nla.dnn.inference.api.http;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import au.gov.nla.dnn.inference.InferenceLabels;
+import au.gov.nla.dnn.inference.InferenceOutcome;
+import au.gov.nla.dnn.inference.InferenceResult;
+import au.gov.nla.dnn.inference.InferenceService;
+import au.gov.nla.dnn.inference.metrics.MetricsRegistry;
+
+public class HTTPInferenceApiAdapterTest
+{
+    private HTTPInferenceApiAdapter adapter;
+    private int port;
+    
+    @BeforeEach
+    public void start() throws Exception
+    {
+        try(ServerSocket socket = new ServerSocket(0))
+        {
+            port = socket.getLocalPort();
+        }
+        
+        Properties properties = new Properties();
+        properties.setProperty("host", "127.0.0.1");
+        properties.setProperty("port", String.valueOf(port));
+        properties.setProperty("max-batch-records", "4");
+        properties.setProperty("max-record-bytes", "100");
+        properties.setProperty("max-batch-bytes", "250");
+        
+        adapter = new HTTPInferenceApiAdapter();
+        adapter.initialise(properties, new TestInferenceService(), new Consumer<Exception>(){
+            public void accept(Exception e)
+            {
+            }
+        });
+    }
+    
+    @AfterEach
+    public void stop() throws Exception
+    {
+        adapter.dispose();
+    }
+    
+    @Test
+    public void acceptsBatchWithinLimits() throws Exception
+    {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(body);
+        
+        for(int i=0; i<3; i++)
+        {
+            out.writeInt(10);
+            out.write(new byte[10]);
+        }
+        
+        HttpURLConnection connection = postBatch(body.toByteArray());
+        assertEquals(200, connection.getResponseCode());
+        
+        try(InputStream in = connection.getInputStream())
+        {
+            assertEquals(3, new String(in.readAllBytes(), StandardCharsets.UTF_8).split("\n").length);
+        }
+    }
+    
+    @Test
+    public void refusesOversizedRecordLengthBeforeReadingIt() throws Exception
+    {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(body);
+        out.writeInt(Integer.MAX_VALUE);
+        out.write(new byte[4]);
+        
+        assertEquals(413, postBatch(body.toByteArray()).getResponseCode());
+    }
+    
+    @Test
+    public void refusesBatchOverByteLimit() throws Exception
+    {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(body);
+        
+        for(int i=0; i<3; i++)
+        {
+            out.writeInt(90);
+            out.write(new byte[90]);
+        }
+        
+        assertEquals(413, postBatch(body.toByteArray()).getResponseCode());
+    }
+    
+    @Test
+    public void refusesBatchOverRecordLimit() throws Exception
+    {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(body);
+        
+        for(int i=0; i<5; i++)
+        {
+            out.writeInt(1);
+            out.write(new byte[1]);
+        }
+        
+        assertEquals(413, postBatch(body.toByteArray()).getResponseCode());
+    }
+    
+    @Test
+    public void refusesMalformedBatch() throws Exception
+    {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(body);
+        out.writeInt(-1);
+        
+        assertEquals(400, postBatch(body.toByteArray()).getResponseCode());
+        
+        body.reset();
+        out.writeInt(50);
+        out.write(new byte[10]);
+        
+        assertEquals(400, postBatch(body.toByteArray()).getResponseCode());
+    }
+    
+    private HttpURLConnection postBatch(byte[] body) throws Exception
+    {
+        HttpURLConnection connection = (HttpURLConnection)new URL("http://127.0.0.1:"+port+"/infer-batch").openConnection();
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("dnn-model-id", "test");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(body.length);
+        
+        try(OutputStream out = connection.getOutputStream())
+        {
+            out.write(body);
+        }
+        
+        return connection;
+    }
+    
+    // Scores every record the same, shared with the other adapter tests
+    
+    public static class TestInferenceService implements InferenceService
+    {
+        private MetricsRegistry metrics = new MetricsRegistry();
+        private InferenceLabels labels = new InferenceLabels(new String[]{"first", "second"});
+        
+        public InferenceResult infer(String modelId, byte[] record)
+        {
+            return new InferenceResult(labels, new double[]{0.25d, 0.75d});
+        }
+        
+        public InferenceResult infer(String modelId, byte[] record, long deadlineNanos)
+        {
+            return infer(modelId, record);
+        }
+        
+        public CompletableFuture<InferenceResult> inferAsync(String modelId, byte[] record, long deadlineNanos)
+        {
+            return CompletableFuture.completedFuture(infer(modelId, record));
+        }
+        
+        public List<InferenceOutcome> inferBatch(String modelId, List<byte[]> records)
+        {
+            List<InferenceOutcome> outcomes = new ArrayList<InferenceOutcome>();
+            
+            for(byte[] record: records)
+            {
+                outcomes.add(new InferenceOutcome(infer(modelId, record)));
+            }
+            
+            return outcomes;
+        }
+        
+        public List<InferenceOutcome> inferBatch(String modelId, List<byte[]> records, long deadlineNanos)
+        {
+            return inferBatch(modelId, records);
+        }
+        
+        public void reload(String modelId)
+        {
+        }
+        
+        public MetricsRegistry getMetrics()
+        {
+            return metrics;
+        }
+        
+        public Set<String> getModelIds()
+        {
+            return Set.of("test");
+        }
+    }
+}
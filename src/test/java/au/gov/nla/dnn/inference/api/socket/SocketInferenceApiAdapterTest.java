@@ -0,0 +1,99 @@
+package au.gov.nla.dnn.inference.api.socket;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.function.Consumer;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledForJreRange;
+import org.junit.jupiter.api.condition.JRE;
+
+import au.gov.nla.dnn.inference.api.http.HTTPInferenceApiAdapterTest.TestInferenceService;
+
+public class SocketInferenceApiAdapterTest
+{
+    private SocketInferenceApiAdapter adapter;
+    private int port;
+    
+    @AfterEach
+    public void stop() throws Exception
+    {
+        if(adapter!=null)
+        {
+            adapter.dispose();
+        }
+    }
+    
+    @Test
+    public void answersRequestsOnThreadPool() throws Exception
+    {
+        start(false);
+        
+        for(int i=0; i<3; i++)
+        {
+            assertSuccess(infer("test", "record "+i));
+        }
+    }
+    
+    // Virtual threads arrived in Java 21, on older runtimes this test is skipped
+    
+    @Test
+    @EnabledForJreRange(min=JRE.JAVA_21)
+    public void answersRequestsOnVirtualThreads() throws Exception
+    {
+        start(true);
+        
+        for(int i=0; i<3; i++)
+        {
+            assertSuccess(infer("test", "record "+i));
+        }
+    }
+    
+    private void start(boolean virtualThreads) throws Exception
+    {
+        try(ServerSocket socket = new ServerSocket(0))
+        {
+            port = socket.getLocalPort();
+        }
+        
+        Properties properties = new Properties();
+        properties.setProperty("host", "127.0.0.1");
+        properties.setProperty("port", String.valueOf(port));
+        properties.setProperty("backlog", "10");
+        properties.setProperty("thread-pool", "2");
+        properties.setProperty("virtual-threads", String.valueOf(virtualThreads));
+        properties.setProperty("max-shutdown-delay", "200");
+        
+        adapter = new SocketInferenceApiAdapter();
+        adapter.initialise(properties, new TestInferenceService(), new Consumer<Exception>(){
+            public void accept(Exception e)
+            {
+            }
+        });
+    }
+    
+    private JSONObject infer(String modelId, String record) throws Exception
+    {
+        try(Socket socket = new Socket("127.0.0.1", port))
+        {
+            socket.getOutputStream().write((modelId+"\n").getBytes(StandardCharsets.UTF_8));
+            socket.getOutputStream().write(record.getBytes(StandardCharsets.UTF_8));
+            socket.getOutputStream().flush();
+            socket.shutdownOutput();
+            
+            return new JSONObject(new String(socket.getInputStream().readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+    
+    private void assertSuccess(JSONObject response)
+    {
+        assertTrue(response.getBoolean("success"));
+        assertEquals("second", response.getJSONObject("result").getString("highest-label"));
+    }
+}
@@ -0,0 +1,250 @@
+package au.gov.nla.dnn.inference.bulk;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.function.Consumer;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import au.gov.nla.dnn.evaluation.ModelEvaluationResult;
+import au.gov.nla.dnn.model.ModelInstance;
+import au.gov.nla.dnn.model.SerializedModelState;
+import au.gov.nla.dnn.record.RawDataRecord;
+import au.gov.nla.dnn.record.RawDataRecordProvider;
+import au.gov.nla.dnn.sequence.InputSequenceInstance;
+import au.gov.nla.dnn.sequence.SequenceDataRecord;
+import au.gov.nla.dnn.sequence.SequenceDataRecordProvider;
+import au.gov.nla.dnn.training.TrainingHyperParameters;
+import au.gov.nla.dnn.training.TrainingListener;
+
+public class BulkInferenceExecutionTest
+{
+    private static final int RECORDS = 50;
+    
+    @TempDir
+    File directory;
+    
+    @Test
+    public void resumesBinaryOutputAfterInterruption() throws Exception
+    {
+        assertResumeMatchesCompleteRun("binary");
+    }
+    
+    @Test
+    public void resumesJSONLOutputAfterInterruption() throws Exception
+    {
+        assertResumeMatchesCompleteRun("jsonl");
+    }
+    
+    private void assertResumeMatchesCompleteRun(String format) throws Exception
+    {
+        File modelFile = writeModel();
+        File complete = new File(directory, "complete."+format);
+        new BulkInferenceExecution().execute(createConfig(modelFile, format, -1), complete.getPath());
+        
+        // The first run dies part way through, after at least one checkpoint, leaving a torn write behind it
+        
+        File resumed = new File(directory, "resumed."+format);
+        File checkpoint = new File(resumed.getPath()+".checkpoint");
+        
+        try
+        {
+            new BulkInferenceExecution().execute(createConfig(modelFile, format, 30), resumed.getPath());
+            fail("The interrupted run should not complete.");
+        }
+        catch(IllegalStateException e)
+        {
+        }
+        
+        assertTrue(checkpoint.exists());
+        
+        try(FileOutputStream out = new FileOutputStream(resumed, true))
+        {
+            out.write(new byte[]{1, 2, 3});
+        }
+        
+        new BulkInferenceExecution().execute(createConfig(modelFile, format, -1), resumed.getPath());
+        
+        assertArrayEquals(Files.readAllBytes(complete.toPath()), Files.readAllBytes(resumed.toPath()));
+        assertFalse(checkpoint.exists());
+    }
+    
+    private JSONObject createConfig(File modelFile, String format, int failAfter)
+    {
+        JSONObject providerConfig = new JSONObject();
+        providerConfig.put("records", RECORDS);
+        providerConfig.put("fail-after", failAfter);
+        
+        JSONObject config = new JSONObject();
+        config.put("model-file", modelFile.getPath());
+        config.put("record-provider", TestRecordProvider.class.getName());
+        config.put("record-provider-config", providerConfig);
+        config.put("threads", 2);
+        config.put("batch-size", 4);
+        config.put("checkpoint-interval", 8);
+        config.put("output-format", format);
+        return config;
+    }
+    
+    private File writeModel() throws Exception
+    {
+        File modelFile = new File(directory, "model.bin");
+        
+        try(ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(modelFile)))
+        {
+            out.writeObject(new SerializedModelState(new byte[0], new TestSequenceInstance(),
+                    TestModelInstanceBuilder.class.getName(), new String[]{"first", "second"}));
+        }
+        
+        return modelFile;
+    }
+    
+    public static class TestRecordProvider implements RawDataRecordProvider
+    {
+        private int records;
+        private int failAfter;
+        private int next;
+        
+        public void initialise(JSONObject config, List<String> labels, Consumer<Exception> errorHandler)
+        {
+            records = config.getInt("records");
+            failAfter = config.getInt("fail-after");
+        }
+        
+        public void reset()
+        {
+            next = 0;
+        }
+        
+        public boolean hasMoreRecords()
+        {
+            return next<records;
+        }
+        
+        public RawDataRecord getNextRecord()
+        {
+            if(next==failAfter)
+            {
+                throw new IllegalStateException("Interrupted");
+            }
+            
+            next++;
+            return new RawDataRecord(("record "+next).getBytes(StandardCharsets.UTF_8), new double[2]);
+        }
+    }
+    
+    public static class TestSequenceInstance implements InputSequenceInstance
+    {
+        private static final long serialVersionUID = 1L;
+        
+        public int getFeatureCount()
+        {
+            return 2;
+        }
+        
+        public int getLabelCount()
+        {
+            return 2;
+        }
+        
+        public long getMemoryFootprint()
+        {
+            return 0;
+        }
+        
+        public void preProcess(long randomSeed, RawDataRecordProvider recordProvider)
+        {
+        }
+        
+        public SequenceDataRecord process(RawDataRecord record)
+        {
+            byte[] data = record.getData();
+            return new SequenceDataRecord(new double[]{data.length, data[data.length-1]}, record.getLabels());
+        }
+    }
+    
+    public static class TestModelInstanceBuilder implements ModelInstance.Builder<TestModelInstance>
+    {
+        public TestModelInstance create(JSONObject config, int featureCount, int labelCount, long randomSeed)
+        {
+            return new TestModelInstance();
+        }
+        
+        public TestModelInstance load(InputStream stream)
+        {
+            return new TestModelInstance();
+        }
+    }
+    
+    public static class TestModelInstance implements ModelInstance
+    {
+        public void train(TrainingHyperParameters hyperParameters, int featureCount, List<String> labels, String tempDirectory,
+                TrainingListener listener, Consumer<Exception> errorHandler, SequenceDataRecordProvider trainingRecordProvider,
+                SequenceDataRecordProvider evaluationRecordProvider)
+        {
+            throw new UnsupportedOperationException();
+        }
+        
+        public ModelEvaluationResult evaluate(SequenceDataRecordProvider evaluationRecordProvider, int batchSize, int featureCount,
+                List<String> labels, Consumer<Exception> errorHandler)
+        {
+            throw new UnsupportedOperationException();
+        }
+        
+        public double[] infer(double[] features)
+        {
+            double total = features[0]+features[1];
+            return new double[]{features[0]/total, features[1]/total};
+        }
+        
+        public double[][] inferBatch(double[][] features)
+        {
+            double[][] results = new double[features.length][];
+            
+            for(int i=0; i<features.length; i++)
+            {
+                results[i] = infer(features[i]);
+            }
+            
+            return results;
+        }
+        
+        public double[][] inferRecords(SequenceDataRecord[] records)
+        {
+            double[][] results = new double[records.length][];
+            
+            for(int i=0; i<records.length; i++)
+            {
+                results[i] = infer(records[i].getFeatures());
+            }
+            
+            return results;
+        }
+        
+        public ModelInstance replicate()
+        {
+            return new TestModelInstance();
+        }
+        
+        public long getMemoryFootprint()
+        {
+            return 0;
+        }
+        
+        public void save(OutputStream stream)
+        {
+        }
+    }
+}
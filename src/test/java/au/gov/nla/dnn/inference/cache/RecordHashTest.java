@@ -0,0 +1,73 @@
+package au.gov.nla.dnn.inference.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+public class RecordHashTest
+{
+    // Reference values of 128 bit MurmurHash3 (x64, seed 0), as published and as Guava's murmur3_128 produces them
+    
+    @Test
+    public void matchesReferenceValues()
+    {
+        assertHash(0L, 0L, "");
+        assertHash(0xcbd8a7b341bd9b02L, 0x5b1e906a48ae1d19L, "hello");
+        assertHash(0xe34bbc7bbc071b6cL, 0x7a433ca9c49a9347L, "The quick brown fox jumps over the lazy dog");
+    }
+    
+    @Test
+    public void everyByteOfEveryTailLengthChangesTheHash()
+    {
+        // Lengths up to three blocks cover each tail length, on its own and after whole blocks
+        
+        for(int length=1; length<=48; length++)
+        {
+            byte[] data = new byte[length];
+            
+            for(int i=0; i<length; i++)
+            {
+                data[i] = (byte)(i*37+200);
+            }
+            
+            Set<String> hashes = new HashSet<String>();
+            hashes.add(toString(RecordHash.of(data)));
+            
+            for(int i=0; i<length; i++)
+            {
+                data[i]++;
+                assertTrue(hashes.add(toString(RecordHash.of(data))), "Byte "+i+" of "+length+" does not change the hash.");
+                data[i]--;
+            }
+        }
+    }
+    
+    @Test
+    public void distinguishesTrailingZeros()
+    {
+        Set<String> hashes = new HashSet<String>();
+        
+        for(int length=0; length<=32; length++)
+        {
+            hashes.add(toString(RecordHash.of(new byte[length])));
+        }
+        
+        assertEquals(33, hashes.size());
+    }
+    
+    private void assertHash(long high, long low, String record)
+    {
+        RecordHash hash = RecordHash.of(record.getBytes(StandardCharsets.UTF_8));
+        assertEquals(high, hash.getHigh());
+        assertEquals(low, hash.getLow());
+    }
+    
+    private String toString(RecordHash hash)
+    {
+        return hash.getHigh()+":"+hash.getLow();
+    }
+}
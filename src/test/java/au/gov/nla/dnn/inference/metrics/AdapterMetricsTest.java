@@ -0,0 +1,37 @@
+package au.gov.nla.dnn.inference.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class AdapterMetricsTest
+{
+    @Test
+    public void countsUnconfiguredModelsUnderOneSeries()
+    {
+        MetricsRegistry registry = new MetricsRegistry();
+        AdapterMetrics metrics = new AdapterMetrics(registry, List.of("news"), "http");
+        
+        for(int i=0; i<100; i++)
+        {
+            metrics.getRequestMetrics("random-"+i).getRequests().increment();
+        }
+        
+        metrics.getRequestMetrics("news").getRequests().increment();
+        
+        assertSame(metrics.getRequestMetrics("random-1"), metrics.getRequestMetrics("random-2"));
+        assertNotSame(metrics.getRequestMetrics("news"), metrics.getRequestMetrics("random-1"));
+        assertEquals(100, metrics.getRequestMetrics("other").getRequests().get());
+        assertEquals(1, metrics.getRequestMetrics("news").getRequests().get());
+        
+        String exposition = registry.toPrometheus();
+        assertTrue(exposition.contains("model=\"unknown\""));
+        assertTrue(exposition.contains("model=\"news\""));
+        assertFalse(exposition.contains("random-"));
+    }
+}
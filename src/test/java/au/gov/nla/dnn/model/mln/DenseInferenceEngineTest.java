@@ -0,0 +1,263 @@
+package au.gov.nla.dnn.model.mln;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+import au.gov.nla.dnn.sequence.SequenceDataRecord;
+import au.gov.nla.dnn.sequence.SparseSequenceDataRecord;
+
+public class DenseInferenceEngineTest
+{
+    // Written in the engine's own format so the tests need no ND4J backend
+    
+    private static final int FEATURES = 40;
+    private static final int HIDDEN = 16;
+    private static final int LABELS = 3;
+    
+    private static final int ACTIVATION_RELU = 1;
+    private static final int ACTIVATION_SOFTMAX = 7;
+    
+    private float[] hiddenWeights;
+    private float[] hiddenBias;
+    private float[] outputWeights;
+    private float[] outputBias;
+    
+    @Test
+    public void matchesReferenceForwardPass() throws Exception
+    {
+        DenseInferenceEngine engine = createEngine();
+        Random random = new Random(3);
+        
+        assertEquals(FEATURES, engine.getFeatureCount());
+        assertEquals(LABELS, engine.getLabelCount());
+        
+        for(int i=0; i<50; i++)
+        {
+            double[] features = createFeatures(random);
+            assertArrayEquals(reference(features), engine.infer(features), 1E-5d);
+        }
+    }
+    
+    @Test
+    public void sparseRecordsMatchDense() throws Exception
+    {
+        DenseInferenceEngine engine = createEngine();
+        Random random = new Random(5);
+        SequenceDataRecord[] records = new SequenceDataRecord[20];
+        double[][] expected = new double[records.length][];
+        
+        for(int r=0; r<records.length; r++)
+        {
+            double[] features = createFeatures(random);
+            int count = 0;
+            
+            for(double feature: features)
+            {
+                count = feature!=0d ? count+1 : count;
+            }
+            
+            int[] indices = new int[count];
+            float[] values = new float[count];
+            count = 0;
+            
+            for(int i=0; i<features.length; i++)
+            {
+                if(features[i]!=0d)
+                {
+                    indices[count] = i;
+                    values[count] = (float)features[i];
+                    count++;
+                }
+            }
+            
+            records[r] = r%2==0 ? new SparseSequenceDataRecord(FEATURES, indices, values, null) : new SequenceDataRecord(features, null);
+            expected[r] = engine.infer(features);
+        }
+        
+        double[][] results = engine.inferRecords(records);
+        
+        for(int r=0; r<records.length; r++)
+        {
+            assertArrayEquals(expected[r], results[r], 1E-6d);
+        }
+    }
+    
+    @Test
+    public void roundTripsEveryFormat() throws Exception
+    {
+        DenseInferenceEngine engine = createEngine();
+        int[] formats = new int[]{DenseInferenceEngine.FORMAT_FLOAT, DenseInferenceEngine.FORMAT_INT8, DenseInferenceEngine.FORMAT_FLOAT16};
+        
+        for(int format: formats)
+        {
+            DenseInferenceEngine quantized = engine.quantize(format);
+            byte[] written = write(quantized);
+            DenseInferenceEngine read = DenseInferenceEngine.read(new ByteArrayInputStream(written));
+            
+            // Reading back must give the same weights, so writing again gives the same bytes and scores
+            
+            assertArrayEquals(written, write(read));
+            assertEquals(quantized.getMemoryFootprint(), read.getMemoryFootprint());
+            
+            Random random = new Random(7);
+            
+            for(int i=0; i<20; i++)
+            {
+                double[] features = createFeatures(random);
+                assertArrayEquals(quantized.infer(features), read.infer(features));
+            }
+        }
+    }
+    
+    @Test
+    public void quantizedScoresStayCloseToFloat() throws Exception
+    {
+        DenseInferenceEngine engine = createEngine();
+        DenseInferenceEngine int8 = engine.quantize(DenseInferenceEngine.FORMAT_INT8);
+        DenseInferenceEngine float16 = engine.quantize(DenseInferenceEngine.FORMAT_FLOAT16);
+        Random random = new Random(11);
+        
+        assertTrue(int8.getMemoryFootprint()<engine.getMemoryFootprint()/2);
+        assertTrue(float16.getMemoryFootprint()<engine.getMemoryFootprint());
+        
+        for(int i=0; i<50; i++)
+        {
+            double[] features = createFeatures(random);
+            double[] expected = engine.infer(features);
+            
+            assertArrayEquals(expected, int8.infer(features), 0.02d);
+            assertArrayEquals(expected, float16.infer(features), 0.002d);
+        }
+    }
+    
+    @Test
+    public void rejectsOtherFiles() throws Exception
+    {
+        assertThrows(IOException.class, new Executable(){
+            public void execute() throws Throwable
+            {
+                DenseInferenceEngine.read(new ByteArrayInputStream(new byte[]{'P', 'K', 3, 4, 0, 0, 0, 0}));
+            }
+        });
+    }
+    
+    private DenseInferenceEngine createEngine() throws IOException
+    {
+        Random random = new Random(1);
+        hiddenWeights = createWeights(random, FEATURES*HIDDEN);
+        hiddenBias = createWeights(random, HIDDEN);
+        outputWeights = createWeights(random, HIDDEN*LABELS);
+        outputBias = createWeights(random, LABELS);
+        
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0x444E4E51);
+        out.writeInt(1);
+        out.writeInt(2);
+        writeLayer(out, FEATURES, HIDDEN, ACTIVATION_RELU, hiddenWeights, hiddenBias);
+        writeLayer(out, HIDDEN, LABELS, ACTIVATION_SOFTMAX, outputWeights, outputBias);
+        out.flush();
+        
+        return DenseInferenceEngine.read(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+    
+    private void writeLayer(DataOutputStream out, int nIn, int nOut, int activation, float[] weights, float[] bias) throws IOException
+    {
+        out.writeInt(nIn);
+        out.writeInt(nOut);
+        out.writeInt(activation);
+        out.writeFloat(0f);
+        out.writeInt(DenseInferenceEngine.FORMAT_FLOAT);
+        
+        for(float b: bias)
+        {
+            out.writeFloat(b);
+        }
+        for(float w: weights)
+        {
+            out.writeFloat(w);
+        }
+    }
+    
+    private float[] createWeights(Random random, int length)
+    {
+        float[] weights = new float[length];
+        
+        for(int i=0; i<length; i++)
+        {
+            weights[i] = (float)(random.nextGaussian()*0.5d);
+        }
+        
+        return weights;
+    }
+    
+    private double[] createFeatures(Random random)
+    {
+        // Mostly zeros, like a TF-IDF vector
+        
+        double[] features = new double[FEATURES];
+        
+        for(int i=0; i<FEATURES; i++)
+        {
+            features[i] = random.nextInt(4)==0 ? random.nextDouble() : 0d;
+        }
+        
+        return features;
+    }
+    
+    private double[] reference(double[] features)
+    {
+        double[] hidden = new double[HIDDEN];
+        
+        for(int j=0; j<HIDDEN; j++)
+        {
+            double sum = hiddenBias[j];
+            
+            for(int i=0; i<FEATURES; i++)
+            {
+                sum = sum+(features[i]*hiddenWeights[(i*HIDDEN)+j]);
+            }
+            
+            hidden[j] = Math.max(sum, 0d);
+        }
+        
+        double[] output = new double[LABELS];
+        double total = 0d;
+        
+        for(int j=0; j<LABELS; j++)
+        {
+            double sum = outputBias[j];
+            
+            for(int i=0; i<HIDDEN; i++)
+            {
+                sum = sum+(hidden[i]*outputWeights[(i*LABELS)+j]);
+            }
+            
+            output[j] = Math.exp(sum);
+            total = total+output[j];
+        }
+        for(int j=0; j<LABELS; j++)
+        {
+            output[j] = output[j]/total;
+        }
+        
+        return output;
+    }
+    
+    private byte[] write(DenseInferenceEngine engine) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        engine.write(bytes);
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,70 @@
+package au.gov.nla.dnn.sequence.text.tfidf;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+import org.junit.jupiter.api.io.TempDir;
+
+public class LemmaCacheTest
+{
+    @TempDir
+    File directory;
+    
+    @Test
+    public void stopsAdmittingWhenFull()
+    {
+        LemmaCache cache = new LemmaCache(2);
+        cache.put("running", new String[]{"run"});
+        cache.put("cannot", new String[]{"can", "not"});
+        cache.put("mice", new String[]{"mouse"});
+        
+        assertEquals(2, cache.size());
+        assertArrayEquals(new String[]{"can", "not"}, cache.get("cannot"));
+        assertNull(cache.get("mice"));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(0.5d, cache.getHitRate());
+    }
+    
+    @Test
+    public void roundTripsThroughFile() throws Exception
+    {
+        LemmaCache cache = new LemmaCache(10);
+        cache.put("running", new String[]{"run"});
+        cache.put("cannot", new String[]{"can", "not"});
+        cache.put("naïve", new String[]{"naïve"});
+        
+        File file = new File(directory, "lemmas.bin");
+        cache.save(file);
+        
+        LemmaCache loaded = new LemmaCache(10);
+        loaded.load(file);
+        
+        assertEquals(3, loaded.size());
+        assertArrayEquals(new String[]{"run"}, loaded.get("running"));
+        assertArrayEquals(new String[]{"can", "not"}, loaded.get("cannot"));
+        assertArrayEquals(new String[]{"naïve"}, loaded.get("naïve"));
+        assertEquals(1, directory.list().length);
+    }
+    
+    @Test
+    public void rejectsOtherFiles() throws Exception
+    {
+        File file = new File(directory, "other.bin");
+        Files.write(file.toPath(), new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+        
+        assertThrows(IOException.class, new Executable(){
+            public void execute() throws Throwable
+            {
+                new LemmaCache(10).load(file);
+            }
+        });
+    }
+}
@@ -0,0 +1,57 @@
+package au.gov.nla.dnn.sequence.text.tfidf;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class TermFilterTest
+{
+    private static final String[] TERMS = new String[]{"the", "them", "a", "an", "abc", "123", "12a", "x", "xx", "xxx",
+        "foo.bar", "fooxbar", "aa", "abab", "abba", "", "c++", "_", "ünïcode"};
+    
+    @Test
+    public void matchesStringMatches()
+    {
+        assertMatches(List.of("the", "a"));
+        assertMatches(List.of("[0-9]+", "x{2,}", "the"));
+        assertMatches(List.of("foo.bar", "an|the"));
+        assertMatches(List.of("(a)b\\1?", "(\\w)\\1", "ab(ab)?"));
+        assertMatches(List.of("(?<p>a)b", "(?<p>x)+"));
+        assertMatches(List.of("\\p{L}+", "c\\+\\+"));
+    }
+    
+    @Test
+    public void excludesNothingWithoutPatterns()
+    {
+        TermFilter filter = new TermFilter(List.of());
+        
+        for(String term: TERMS)
+        {
+            assertFalse(filter.excludes(term));
+        }
+    }
+    
+    private void assertMatches(List<String> patterns)
+    {
+        TermFilter filter = new TermFilter(patterns);
+        
+        // Twice, so cached decisions are checked as well
+        
+        for(int pass=0; pass<2; pass++)
+        {
+            for(String term: TERMS)
+            {
+                boolean expected = false;
+                
+                for(String pattern: patterns)
+                {
+                    expected = expected || term.matches(pattern);
+                }
+                
+                assertEquals(expected, filter.excludes(term), patterns+" on \""+term+"\"");
+            }
+        }
+    }
+}
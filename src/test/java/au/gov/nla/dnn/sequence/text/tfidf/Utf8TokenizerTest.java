@@ -0,0 +1,158 @@
+package au.gov.nla.dnn.sequence.text.tfidf;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.Test;
+
+public class Utf8TokenizerTest
+{
+    private static final String[] PATTERNS = new String[]{"\\s+", "\\W+", "[^\\w]+"};
+    private static final String[] FRAGMENTS = new String[]{"a", "Z", "9", "_", " ", "  ", "\t", "\r\n", "\u000B", "\f", ".", ",-",
+        "é", "ß", "日本", "😀", " ", " "};
+    
+    @Test
+    public void refusesOtherPatterns()
+    {
+        assertNull(Utf8Tokenizer.forPattern("[ ,]+"));
+        assertNull(Utf8Tokenizer.forPattern("\\s"));
+    }
+    
+    @Test
+    public void matchesStringSplit()
+    {
+        Random random = new Random(17);
+        int compared = 0;
+        
+        for(String pattern: PATTERNS)
+        {
+            Utf8Tokenizer tokenizer = Utf8Tokenizer.forPattern(pattern);
+            
+            if(tokenizer==null)
+            {
+                continue; // a platform charset the tokenizer leaves to String.split
+            }
+            
+            for(int r=0; r<2000; r++)
+            {
+                byte[] data = createRecord(random, r%3==0);
+                int minLength = 1+random.nextInt(3);
+                int maxLength = random.nextBoolean() ? Integer.MAX_VALUE : minLength+random.nextInt(6);
+                
+                compared = assertMatches(tokenizer, pattern, data, minLength, maxLength, false) ? compared+1 : compared;
+                compared = assertMatches(tokenizer, pattern, data, minLength, maxLength, true) ? compared+1 : compared;
+            }
+        }
+        
+        assertTrue(compared>0 || Utf8Tokenizer.forPattern("\\s+")==null);
+    }
+    
+    @Test
+    public void alwaysHandlesAsciiRecords()
+    {
+        Random random = new Random(19);
+        Utf8Tokenizer tokenizer = Utf8Tokenizer.forPattern("\\W+");
+        
+        if(tokenizer==null)
+        {
+            return;
+        }
+        
+        for(int r=0; r<500; r++)
+        {
+            byte[] data = createRecord(random, false);
+            assertTrue(tokenizer.count(data, 1, Integer.MAX_VALUE, true, new Utf8Tokenizer.TokenCounts(data)));
+        }
+    }
+    
+    @Test
+    public void measuresUtf8InChars()
+    {
+        assertEquals(1, charLength("é"));
+        assertEquals(2, charLength("日本"));
+        assertEquals(2, charLength("😀"));
+        assertEquals(-1, Utf8Tokenizer.charLength(new byte[]{(byte)0xc3}, 0, 1));
+        assertEquals(-1, Utf8Tokenizer.charLength(new byte[]{(byte)0xc0, (byte)0xaf}, 0, 2));
+        assertEquals(-1, Utf8Tokenizer.charLength(new byte[]{(byte)0xed, (byte)0xa0, (byte)0x80}, 0, 3));
+        assertEquals(-1, Utf8Tokenizer.charLength(new byte[]{(byte)0xf4, (byte)0x90, (byte)0x80, (byte)0x80}, 0, 4));
+    }
+    
+    @Test
+    public void lowerCasesAsciiLikeString()
+    {
+        byte[] data = "Hello WORLD_42 [@`{]".getBytes(StandardCharsets.US_ASCII);
+        Utf8Tokenizer.toLowerCaseAscii(data);
+        assertEquals("Hello WORLD_42 [@`{]".toLowerCase(Locale.ROOT), new String(data, StandardCharsets.US_ASCII));
+    }
+    
+    private boolean assertMatches(Utf8Tokenizer tokenizer, String pattern, byte[] data, int minLength, int maxLength, boolean asciiOnly)
+    {
+        Utf8Tokenizer.TokenCounts tokens = new Utf8Tokenizer.TokenCounts(data);
+        
+        if(!tokenizer.count(data, minLength, maxLength, asciiOnly, tokens))
+        {
+            return false; // the caller falls back to String.split
+        }
+        
+        Map<String, Integer> expected = new LinkedHashMap<String, Integer>();
+        
+        for(String segment: Pattern.compile(pattern).split(new String(data)))
+        {
+            if(segment.length()>=minLength && segment.length()<=maxLength)
+            {
+                expected.put(segment, expected.containsKey(segment) ? expected.get(segment)+1 : 1);
+            }
+        }
+        
+        List<String> keys = new ArrayList<String>(expected.keySet());
+        assertEquals(keys.size(), tokens.size());
+        
+        for(int i=0; i<tokens.size(); i++)
+        {
+            String token = new String(data, tokens.getStart(i), tokens.getLength(i), Charset.defaultCharset());
+            assertEquals(keys.get(i), token);
+            assertEquals(expected.get(token).intValue(), tokens.getCount(i));
+        }
+        
+        return true;
+    }
+    
+    private byte[] createRecord(Random random, boolean nonAscii)
+    {
+        StringBuilder record = new StringBuilder();
+        int fragments = random.nextInt(40);
+        
+        for(int i=0; i<fragments; i++)
+        {
+            String fragment = FRAGMENTS[random.nextInt(nonAscii ? FRAGMENTS.length : 12)];
+            record.append(random.nextInt(4)==0 ? fragment.toUpperCase(Locale.ROOT) : fragment);
+        }
+        
+        byte[] data = record.toString().getBytes(StandardCharsets.UTF_8);
+        
+        // Occasionally malformed, which the JDK decoder replaces
+        
+        if(nonAscii && data.length>0 && random.nextInt(10)==0)
+        {
+            data[random.nextInt(data.length)] = (byte)(0x80+random.nextInt(0x80));
+        }
+        
+        return data;
+    }
+    
+    private int charLength(String value)
+    {
+        byte[] data = value.getBytes(StandardCharsets.UTF_8);
+        return Utf8Tokenizer.charLength(data, 0, data.length);
+    }
+}
@@ -0,0 +1,142 @@
+package au.gov.nla.dnn.sequence.text.tfidf;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class VocabularyCounterTest
+{
+    private static final int MIN_OCCURRANCES = 3;
+    
+    @TempDir
+    File spillDirectory;
+    
+    @Test
+    public void mergesCountersInFirstSeenOrder() throws Exception
+    {
+        List<List<String>> records = createCorpus();
+        Vocabulary vocabulary = count(records, 4, 0);
+        
+        // Reference: a single pass over the records in order
+        
+        Map<String, Integer> expected = new LinkedHashMap<String, Integer>();
+        
+        for(List<String> record: records)
+        {
+            for(String word: record)
+            {
+                expected.put(word, expected.containsKey(word) ? expected.get(word)+1 : 1);
+            }
+        }
+        
+        List<String> terms = new ArrayList<String>();
+        
+        for(Map.Entry<String, Integer> entry: expected.entrySet())
+        {
+            if(entry.getValue()>=MIN_OCCURRANCES)
+            {
+                terms.add(entry.getKey());
+            }
+        }
+        
+        assertEquals(terms.size(), vocabulary.size());
+        
+        for(int i=0; i<terms.size(); i++)
+        {
+            assertEquals(terms.get(i), vocabulary.getTerm(i));
+            assertEquals(expected.get(terms.get(i)).intValue(), vocabulary.getDocumentFrequency(i));
+        }
+    }
+    
+    @Test
+    public void spilledCountsGiveTheSameVocabulary() throws Exception
+    {
+        List<List<String>> records = createCorpus();
+        byte[] inMemory = count(records, 1, 0).toByteArray();
+        
+        assertArrayEquals(inMemory, count(records, 4, 0).toByteArray());
+        
+        // Small enough to spill more runs than are merged at once, so the merge takes several passes
+        
+        assertArrayEquals(inMemory, count(records, 4, 20).toByteArray());
+        assertArrayEquals(inMemory, count(records, 1, 500).toByteArray());
+    }
+    
+    @Test
+    public void removesRunFilesAfterMerging() throws Exception
+    {
+        List<List<String>> records = createCorpus();
+        List<VocabularyCounter> counters = new ArrayList<VocabularyCounter>();
+        counters.add(new VocabularyCounter(20, spillDirectory));
+        counters.add(new VocabularyCounter(20, spillDirectory));
+        add(records, counters);
+        
+        assertTrue(counters.get(0).getSpillCount()>0);
+        assertTrue(spillDirectory.list().length>0);
+        
+        VocabularyCounter.buildVocabulary(counters, MIN_OCCURRANCES);
+        assertEquals(0, spillDirectory.list().length);
+        assertEquals(0, counters.get(0).getSpillCount());
+    }
+    
+    private Vocabulary count(List<List<String>> records, int counterCount, int maxWords) throws Exception
+    {
+        List<VocabularyCounter> counters = new ArrayList<VocabularyCounter>();
+        
+        for(int i=0; i<counterCount; i++)
+        {
+            counters.add(new VocabularyCounter(maxWords, spillDirectory));
+        }
+        
+        add(records, counters);
+        return VocabularyCounter.buildVocabulary(counters, MIN_OCCURRANCES);
+    }
+    
+    private void add(List<List<String>> records, List<VocabularyCounter> counters) throws Exception
+    {
+        // Records go to the counters round robin, as the preprocessing threads would take them
+        
+        for(int r=0; r<records.size(); r++)
+        {
+            List<String> record = records.get(r);
+            
+            for(int p=0; p<record.size(); p++)
+            {
+                counters.get(r%counters.size()).add(record.get(p), r, p);
+            }
+        }
+    }
+    
+    private List<List<String>> createCorpus()
+    {
+        // Zipf-like word frequencies over a few thousand distinct words, each record holding distinct words
+        
+        Random random = new Random(23);
+        List<List<String>> records = new ArrayList<List<String>>();
+        
+        for(int r=0; r<600; r++)
+        {
+            LinkedHashMap<String, Boolean> record = new LinkedHashMap<String, Boolean>();
+            int length = 5+random.nextInt(30);
+            
+            for(int i=0; i<length; i++)
+            {
+                int rank = (int)Math.floor(Math.pow(4000d, random.nextDouble()));
+                record.put("w"+rank, Boolean.TRUE);
+            }
+            
+            records.add(new ArrayList<String>(record.keySet()));
+        }
+        
+        return records;
+    }
+}
@@ -0,0 +1,181 @@
+package au.gov.nla.dnn.sequence.text.tfidf;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+import au.gov.nla.dnn.record.RawDataRecord;
+import au.gov.nla.dnn.sequence.SparseSequenceDataRecord;
+
+public class VocabularyTest
+{
+    @Test
+    public void findsEveryTerm()
+    {
+        List<String> terms = new ArrayList<String>();
+        int[] documentFrequencies = new int[5000];
+        
+        for(int i=0; i<documentFrequencies.length; i++)
+        {
+            terms.add(i%7==0 ? "térme"+i : "term"+i);
+            documentFrequencies[i] = i+1;
+        }
+        
+        Vocabulary vocabulary = Vocabulary.build(terms, documentFrequencies);
+        assertEquals(terms.size(), vocabulary.size());
+        
+        for(int i=0; i<terms.size(); i++)
+        {
+            assertEquals(i, vocabulary.indexOf(terms.get(i)));
+            assertEquals(terms.get(i), vocabulary.getTerm(i));
+            assertEquals(i+1, vocabulary.getDocumentFrequency(i));
+        }
+        
+        assertEquals(-1, vocabulary.indexOf("term5000"));
+        assertEquals(-1, vocabulary.indexOf("term"));
+        assertEquals(-1, vocabulary.indexOf(""));
+    }
+    
+    @Test
+    public void findsTermsWithinLargerBuffers()
+    {
+        Vocabulary vocabulary = Vocabulary.build(List.of("cat", "dog"), new int[]{1, 2});
+        byte[] data = "the dog sat".getBytes(StandardCharsets.UTF_8);
+        
+        assertEquals(1, vocabulary.indexOf(data, 4, 3));
+        assertEquals(-1, vocabulary.indexOf(data, 4, 2));
+        assertEquals(-1, vocabulary.indexOf(data, 0, 3));
+    }
+    
+    @Test
+    public void handlesEmptyVocabulary() throws Exception
+    {
+        Vocabulary vocabulary = Vocabulary.build(new ArrayList<String>(), new int[0]);
+        assertEquals(0, vocabulary.size());
+        assertEquals(-1, vocabulary.indexOf("term"));
+        assertEquals(0, Vocabulary.read(ByteBuffer.wrap(vocabulary.toByteArray())).size());
+    }
+    
+    @Test
+    public void roundTripsThroughBytes() throws Exception
+    {
+        Vocabulary vocabulary = Vocabulary.build(List.of("alpha", "beta", "γάμμα"), new int[]{3, 2, 1});
+        byte[] bytes = vocabulary.toByteArray();
+        
+        // Read from an offset, as when the vocabulary is part of a larger buffer
+        
+        ByteBuffer buffer = ByteBuffer.allocate(bytes.length+8);
+        buffer.position(8);
+        buffer.put(bytes);
+        buffer.position(8);
+        
+        Vocabulary read = Vocabulary.read(buffer);
+        assertEquals(3, read.size());
+        assertEquals(2, read.indexOf("γάμμα"));
+        assertEquals(2, read.getDocumentFrequency(1));
+        assertArrayEquals(bytes, read.toByteArray());
+    }
+    
+    @Test
+    public void rejectsOtherData()
+    {
+        assertThrows(IOException.class, new Executable(){
+            public void execute() throws Throwable
+            {
+                Vocabulary.read(ByteBuffer.wrap(new byte[64]));
+            }
+        });
+    }
+    
+    @Test
+    public void migratesWordMapFromEarlierInstances() throws Exception
+    {
+        // Instances saved before the compact vocabulary held a map of Word objects in feature order
+        
+        LinkedHashMap<String, TFIDFVectorSpaceInputSequenceInstance.Word> words = new LinkedHashMap<String, TFIDFVectorSpaceInputSequenceInstance.Word>();
+        addWord(words, "cat", 2);
+        addWord(words, "dog", 1);
+        addWord(words, "sat", 4);
+        
+        TFIDFVectorSpaceInputSequenceInstance instance = createInstance();
+        setField(instance, "words", words);
+        setField(instance, "totalProcessedRecords", 4d);
+        
+        TFIDFVectorSpaceInputSequenceInstance migrated = copy(instance);
+        assertEquals(3, migrated.getFeatureCount());
+        assertNull(getField(migrated, "words"));
+        assertRecord(migrated);
+        
+        // Saved again, it now goes through the serialised vocabulary
+        
+        TFIDFVectorSpaceInputSequenceInstance reloaded = copy(migrated);
+        assertEquals(3, reloaded.getFeatureCount());
+        assertRecord(reloaded);
+    }
+    
+    private void assertRecord(TFIDFVectorSpaceInputSequenceInstance instance)
+    {
+        SparseSequenceDataRecord record = (SparseSequenceDataRecord)instance.process(new RawDataRecord("dog cat dog bird".getBytes(StandardCharsets.UTF_8), null));
+        
+        assertEquals(3, record.getFeatureCount());
+        assertArrayEquals(new int[]{0, 1}, record.getIndices());
+        assertEquals((float)((1d/3d)*Math.log(2d)), record.getValues()[0], 1E-6f);
+        assertEquals((float)((2d/3d)*Math.log(4d)), record.getValues()[1], 1E-6f);
+    }
+    
+    private TFIDFVectorSpaceInputSequenceInstance createInstance()
+    {
+        return new TFIDFVectorSpaceInputSequenceInstance("\\W+", new ArrayList<String>(), 1, 50, 1,
+                List.of("a", "b"), 1, 0, null, 0, null);
+    }
+    
+    private void addWord(LinkedHashMap<String, TFIDFVectorSpaceInputSequenceInstance.Word> words, String value, int recordsContainingWord)
+    {
+        TFIDFVectorSpaceInputSequenceInstance.Word word = new TFIDFVectorSpaceInputSequenceInstance.Word(value);
+        word.setRecordsContainingWord(recordsContainingWord);
+        words.put(value, word);
+    }
+    
+    private TFIDFVectorSpaceInputSequenceInstance copy(TFIDFVectorSpaceInputSequenceInstance instance) throws Exception
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        
+        try(ObjectOutputStream out = new ObjectOutputStream(bytes))
+        {
+            out.writeObject(instance);
+        }
+        try(ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())))
+        {
+            return (TFIDFVectorSpaceInputSequenceInstance)in.readObject();
+        }
+    }
+    
+    private void setField(Object target, String name, Object value) throws Exception
+    {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+    
+    private Object getField(Object target, String name) throws Exception
+    {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(target);
+    }
+}